@@ -30,18 +30,29 @@ import com.htc.audiofunctionsdemo.utils.AudioSignalFrameLogger;
 import com.htc.audiofunctionsdemo.utils.Constants;
 import com.htc.audiofunctionsdemo.utils.DataView;
 import com.htc.audiofunctionsdemo.utils.FFT;
+import com.htc.audiofunctionsdemo.utils.FftEngine;
+import com.htc.audiofunctionsdemo.utils.FftEngines;
+import com.htc.audiofunctionsdemo.utils.FrameStore;
+import com.htc.audiofunctionsdemo.utils.PcmBufferPool;
+import com.htc.audiofunctionsdemo.utils.PcmDecoder;
+import com.htc.audiofunctionsdemo.utils.PeakFinder;
+import com.htc.audiofunctionsdemo.utils.PolyphaseDecimator;
 import com.htc.audiofunctionsdemo.utils.RecorderIO;
+import com.htc.audiofunctionsdemo.utils.StftAnalyzer;
+import com.htc.audiofunctionsdemo.utils.ToneTracker;
 import com.htc.audiofunctionsdemo.utils.WatchDog;
+import com.htc.audiofunctionsdemo.utils.Windows;
 
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = Constants.packageTag("MainActivity");
     private static final String VERSION = "1.3.2";
+    // the zoom on the detected tone evaluates +-1 bin, every 1/8 bin
+    private static final int PEAK_ZOOM_POINTS = 17;
 
     private Spinner mIntentSpinner;
     private Button mSendBtn;
@@ -53,8 +64,71 @@ public class MainActivity extends AppCompatActivity {
     private DataViewConfig mSpectrumViewConfig;
 
     private AudioSignalFrameLogger mSignalLogger;
+    private volatile FftEngine mFftEngine;
+    // every recorder calls back on its own analysis thread, and the arrays only change with the format
+    private final ThreadLocal<AnalysisBuffers> mAnalysisBuffers = new ThreadLocal<AnalysisBuffers>() {
+        @Override
+        protected AnalysisBuffers initialValue() {
+            return new AnalysisBuffers();
+        }
+    };
+
+    private class AnalysisBuffers {
+        float[] signal = new float[0];
+        float[] spectrum = new float[0];
+        // the stream of one recorder: its first channel at the full rate, decimated for the HD capture
+        PcmDecoder decoder;
+        PolyphaseDecimator decimator;
+        int samplingRate;
+        float[] input = new float[0];
+        float[] output = new float[0];
+        StftAnalyzer stft;
+        // every STFT frame is shown and analyzed as a read of its own; the frames overlap, so the
+        // signal is logged per read by analyzePcm() instead
+        final StftAnalyzer.FrameListener frameListener = new StftAnalyzer.FrameListener() {
+            @Override
+            public void onFrame(float[] frame, float[] spectrum, long index) {
+                updateDataView(frame, spectrum, samplingRate, Windows.getCoherentGain(stft.getWindow()));
+            }
+        };
+        // the tone tracker, and the frequencies it was built for
+        ToneTracker tones;
+        float[] toneFrequencies;
+        final ToneTracker.FrameListener toneListener = new ToneTracker.FrameListener() {
+            @Override
+            public void onFrame(float[] frame, float[] amplitudes, float[] phases, long index) {
+                updateToneView(frame, toneFrequencies, amplitudes, phases, samplingRate);
+            }
+        };
+
+        // the STFT and the tone tracker detect many times a read, but PROP_FILE_PATH is written once a
+        // read, with the last detection
+        boolean deferPropFile;
+        boolean propFilePending;
+        double pendingFreq;
+        double pendingAmp;
+
+        // updateDataView() goes by the lengths of the arrays, so they are exactly sized
+        void ensureSignal(int numSamples) {
+            if (signal.length != numSamples) {
+                signal = new float[numSamples];
+                spectrum = new float[FftEngines.getNumBins(numSamples)];
+            }
+        }
+    }
 
     private boolean printProperties = false;
+    // the STFT of the next recordings, none (one FFT per read) when the size is 0; the window is the
+    // one of the tone tracker too
+    private volatile int mStftSize = 0;
+    private volatile int mStftHop = 0;
+    private volatile int mStftWindow = Windows.HANN;
+    // the tones tracked instead of the spectrum, none when null
+    private volatile float[] mToneFrequencies = null;
+    private volatile int mToneFrameMillis = Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS;
+    // the refinement of the detected tone beyond its bin
+    private volatile int mPeakInterpolation = PeakFinder.INTERPOLATION_GAUSSIAN;
+    private volatile boolean mPeakZoom = true;
 
     private class DataViewConfig {
         int xmin = -1;
@@ -146,23 +220,44 @@ public class MainActivity extends AppCompatActivity {
                         break;
 
                     case Constants.AudioIntentNames.INTENT_RECORD_START:
+                        mSignalLogger.stopStreaming();
                         mSignalLogger.clear();
+                        mSignalLogger.setPolicy("block".equals(intent.getStringExtra("log_policy"))
+                                ? FrameStore.POLICY_BLOCK : FrameStore.POLICY_OVERWRITE_OLDEST);
+                        String streamPath = intent.getStringExtra("stream");
+                        if (streamPath != null)
+                            mSignalLogger.startStreaming(streamPath,
+                                    intent.getIntExtra("stream_rotate_mb", Constants.AudioRecordConfig.SIGNAL_STREAM_ROTATE_MB) * 1024L * 1024L,
+                                    intent.getIntExtra("stream_rotate_sec", 0) * 1000L,
+                                    intent.getBooleanExtra("json", false));
                         idx = intent.getIntExtra("idx", 0);
                         mSignalViewConfig.xmin = intent.getIntExtra("sig_xmin", -1);
                         mSignalViewConfig.xmax = intent.getIntExtra("sig_xmax", -1);
                         mSpectrumViewConfig.xmin = intent.getIntExtra("spt_xmin", -1);
                         mSpectrumViewConfig.xmax = intent.getIntExtra("spt_xmax", -1);
-                        if (mRecordController != null)
+                        if (mRecordController != null) {
+                            mRecordController.setCaptureMode(intent.getBooleanExtra("low_latency", false)
+                                            ? RecorderIO.CAPTURE_MODE_LOW_LATENCY : RecorderIO.CAPTURE_MODE_BLOCKING,
+                                    intent.getIntExtra("period_ms", Constants.AudioRecordConfig.LOW_LATENCY_PERIOD_MILLIS));
+                            mRecordController.setDirectCapture(intent.getBooleanExtra("direct", false));
+                            setFftEngine(intent.getStringExtra("fft_engine"));
+                            setStftConfig(intent.getIntExtra("fft_size", 0), intent.getIntExtra("hop_size", 0),
+                                    intent.getStringExtra("window"));
+                            setToneConfig(intent.getStringExtra("tones"),
+                                    intent.getIntExtra("tone_frame_ms", Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS));
+                            setPeakConfig(intent.getStringExtra("peak_interp"), intent.getBooleanExtra("peak_zoom", true));
                             mRecordController.startpcm(idx);
+                        }
                         break;
                     case Constants.AudioIntentNames.INTENT_RECORD_STOP:
                         idx = intent.getIntExtra("idx", 0);
                         if (mRecordController != null)
                             mRecordController.stop(idx);
+                        mSignalLogger.stopStreaming();
                         break;
                     case Constants.AudioIntentNames.INTENT_RECORD_DUMP_BUFFER:
                         String path = intent.getStringExtra("path");
-                        mSignalLogger.dumpTo(path);
+                        mSignalLogger.dumpTo(path, intent.getBooleanExtra("json", false));
                         break;
 
                     case Constants.AudioIntentNames.INTENT_VOIP_START:
@@ -242,33 +337,14 @@ public class MainActivity extends AppCompatActivity {
 
         RecorderIO.RecorderIOListener listener = new RecorderIO.RecorderIOListener() {
             @Override
-            public void onDataRead(byte[] data, int bytesPerSample, int numChannels) {
-                double[] signal;
-                int samplingRate;
-                if (bytesPerSample == 2) {
-                    short[] signal_int16 = new short[data.length / 2];
-                    ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(signal_int16);
-                    signal = new double[signal_int16.length / numChannels];
-
-                    for (int i = 0; i < signal.length; i++) {
-                        double v = (double) signal_int16[i*numChannels] / Constants.AudioRecordConfig.NORMALIZATION_FACTOR;
-                        signal[i] = v;
-                    }
-                    samplingRate = Constants.AudioRecordConfig.SAMPLING_RATE;
-                } else {
-                    int ratio = Constants.AudioRecordConfig.SAMPLING_RATE_HD / Constants.AudioRecordConfig.SAMPLING_RATE;
-                    int[] signal_int32 = new int[data.length / 4];
-                    ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(signal_int32);
-                    signal = new double[signal_int32.length / (numChannels*ratio)];
-
-                    for (int i = 0; i < signal.length; i++) {
-                        double v = (double) signal_int32[i*numChannels*ratio] / Constants.AudioRecordConfig.NORMALIZATION_FACTOR_HD;
-                        signal[i] = v;
-                    }
-                    samplingRate = Constants.AudioRecordConfig.SAMPLING_RATE_HD / ratio;
-                }
-                double[] spectrum = FFT.transformAbs(signal);
-                updateDataView(signal, spectrum, samplingRate);
+            public void onDataRead(byte[] data, int length, int bytesPerSample, int numChannels) {
+                analyzePcm(data, null, length, bytesPerSample, numChannels);
+            }
+        };
+        RecorderIO.RecorderIOBufferListener bufferListener = new RecorderIO.RecorderIOBufferListener() {
+            @Override
+            public void onBufferRead(PcmBufferPool.Buffer buffer, int bytesPerSample, int numChannels) {
+                analyzePcm(null, buffer.data(), buffer.getLength(), bytesPerSample, numChannels);
             }
         };
 
@@ -278,11 +354,13 @@ public class MainActivity extends AppCompatActivity {
         mRecordController = new RecordController(mAudioManager, mHandler);
         mControllers.add(new WeakReference<Controllable>(mRecordController));
         mRecordController.setRecorderIOListener(listener);
+        mRecordController.setRecorderIOBufferListener(bufferListener);
         mVOIPController = new VOIPController(mAudioManager, mHandler);
         mVOIPController.setRecorderIOListener(listener);
         mControllers.add(new WeakReference<Controllable>(mVOIPController));
 
         mSignalLogger = new AudioSignalFrameLogger();
+        mFftEngine = FftEngines.getDefault();
 
         mWatchDog.addMonitor("Class.PlaybackController", mPlaybackController.thread);
         mWatchDog.addMonitor("Class.RecordController", mRecordController.thread);
@@ -345,8 +423,194 @@ public class MainActivity extends AppCompatActivity {
         ((TextView) findViewById(id)).setText(text);
     }
 
-    private void updateDataView(double[] signal, double[] spectrum, int samplingRate) {
-        mSignalLogger.push("signal", samplingRate, signal);
+    // name: "native" or "java", the default engine when null
+    private void setFftEngine(String name) {
+        FftEngine engine = FftEngines.getDefault();
+        if (name != null) {
+            try {
+                engine = name.equals(mFftEngine.getName()) ? mFftEngine : FftEngines.get(name);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, e.getMessage() + ", use the " + engine.getName() + " engine");
+            }
+        }
+        mFftEngine = engine;
+        Log.d(TAG, "FFT engine: " + engine.getName());
+    }
+
+    private void setStftConfig(int fftSize, int hopSize, String windowName) {
+        int window = Windows.HANN;
+        if (windowName != null) {
+            try {
+                window = Windows.fromName(windowName);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, e.getMessage() + ", use the Hann window");
+            }
+        }
+        if (fftSize < 0 || (fftSize > 0 && Integer.bitCount(fftSize) != 1)) {
+            Log.w(TAG, "the FFT size " + fftSize + " is not a power of two, use one FFT per read");
+            fftSize = 0;
+        }
+        mStftWindow = window;
+        mStftHop = hopSize > 0 ? hopSize : Math.max(1, fftSize / 2);
+        mStftSize = fftSize;
+        if (fftSize > 0)
+            Log.d(TAG, "STFT: " + fftSize + "-point FFT every " + mStftHop + " samples, " + Windows.getName(window) + " window");
+    }
+
+    // tones: the frequencies in Hz, comma-separated, e.g. "440,1000"
+    private void setToneConfig(String tones, int frameMillis) {
+        float[] frequencies = null;
+        if (tones != null && !tones.trim().isEmpty()) {
+            String[] values = tones.split(",");
+            frequencies = new float[values.length];
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    frequencies[i] = Float.parseFloat(values[i].trim());
+                    // below the Nyquist frequency of both analysis rates, as the capture may be HD or not
+                    if (!(frequencies[i] >= 0 && frequencies[i] < Math.min(Constants.AudioRecordConfig.SAMPLING_RATE,
+                            Constants.AudioRecordConfig.ANALYSIS_SAMPLING_RATE_HD) / 2))
+                        throw new NumberFormatException("out of range: " + frequencies[i]);
+                }
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "invalid tones \"" + tones + "\" (" + e.getMessage() + "), analyze the spectrum");
+                frequencies = null;
+            }
+        }
+        if (frameMillis <= 0) {
+            Log.w(TAG, "invalid tone frame " + frameMillis + " ms, use " + Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS + " ms");
+            frameMillis = Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS;
+        }
+        mToneFrameMillis = frameMillis;
+        mToneFrequencies = frequencies;
+        if (frequencies != null)
+            Log.d(TAG, "track " + tones + " Hz in frames of " + frameMillis + " ms");
+    }
+
+    private void setPeakConfig(String interpolationName, boolean zoom) {
+        int interpolation = PeakFinder.INTERPOLATION_GAUSSIAN;
+        if (interpolationName != null) {
+            try {
+                interpolation = PeakFinder.interpolationFromName(interpolationName);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, e.getMessage() + ", use the Gaussian interpolation");
+            }
+        }
+        mPeakInterpolation = interpolation;
+        mPeakZoom = zoom;
+        Log.d(TAG, "peak: " + PeakFinder.getInterpolationName(interpolation) + " interpolation, zoom " + (zoom ? "on" : "off"));
+    }
+
+    // the PCM comes either in data or, from the direct capture, in buffer
+    private void analyzePcm(byte[] data, ByteBuffer buffer, int length, int bytesPerSample, int numChannels) {
+        // a short read may hold no complete frame, which the engines reject: there is nothing to analyze
+        if (FftEngines.getNumSamples(length, bytesPerSample, numChannels, 1) == 0)
+            return;
+        AnalysisBuffers buffers = mAnalysisBuffers.get();
+        int stftSize = mStftSize;
+        float[] toneFrequencies = mToneFrequencies;
+        if (bytesPerSample == 2 && stftSize == 0 && toneFrequencies == null) {
+            int numSamples = FftEngines.getNumSamples(length, bytesPerSample, numChannels, 1);
+            buffers.ensureSignal(numSamples);
+            if (buffer != null)
+                mFftEngine.spectrumFromPcm(buffer, length, bytesPerSample, numChannels, 1,
+                        Constants.AudioRecordConfig.NORMALIZATION_FACTOR, FftEngine.WINDOW_NONE,
+                        buffers.signal, buffers.spectrum);
+            else
+                mFftEngine.spectrumFromPcm(data, length, bytesPerSample, numChannels, 1,
+                        Constants.AudioRecordConfig.NORMALIZATION_FACTOR, FftEngine.WINDOW_NONE,
+                        buffers.signal, buffers.spectrum);
+            // the mono capture is logged as read, at a quarter of the size of the doubles
+            if (numChannels != 1)
+                mSignalLogger.push("signal", Constants.AudioRecordConfig.SAMPLING_RATE, buffers.signal);
+            else if (buffer != null)
+                mSignalLogger.pushPcm("signal", Constants.AudioRecordConfig.SAMPLING_RATE, buffer, length,
+                        FrameStore.FORMAT_INT16, Constants.AudioRecordConfig.NORMALIZATION_FACTOR);
+            else
+                mSignalLogger.pushPcm("signal", Constants.AudioRecordConfig.SAMPLING_RATE, data, length,
+                        FrameStore.FORMAT_INT16, Constants.AudioRecordConfig.NORMALIZATION_FACTOR);
+            updateDataView(buffers.signal, buffers.spectrum, Constants.AudioRecordConfig.SAMPLING_RATE, 1.0);
+            return;
+        }
+
+        // the first channel at the analysis rate
+        if (buffers.decoder == null || buffers.decoder.getBytesPerSample() != bytesPerSample
+                || buffers.decoder.getNumChannels() != numChannels) {
+            boolean isHD = bytesPerSample != 2;
+            buffers.decoder = new PcmDecoder(bytesPerSample, numChannels, 1, isHD
+                    ? Constants.AudioRecordConfig.NORMALIZATION_FACTOR_HD : Constants.AudioRecordConfig.NORMALIZATION_FACTOR);
+            // the HD capture is low-passed before it is decimated, rather than aliasing all of what
+            // lies above the analysis band into it
+            buffers.decimator = isHD ? new PolyphaseDecimator(Constants.AudioRecordConfig.SAMPLING_RATE_HD,
+                    Constants.AudioRecordConfig.ANALYSIS_SAMPLING_RATE_HD) : null;
+            buffers.samplingRate = isHD ? Constants.AudioRecordConfig.ANALYSIS_SAMPLING_RATE_HD
+                    : Constants.AudioRecordConfig.SAMPLING_RATE;
+            buffers.stft = null;
+            buffers.tones = null;
+            buffers.input = new float[0];
+        }
+        int numFrames = buffers.decoder.getNumSamples(length);
+        if (buffers.input.length < numFrames) {
+            buffers.input = new float[numFrames];
+            buffers.output = new float[buffers.decimator != null ? buffers.decimator.getMaxOutput(numFrames) : 0];
+        }
+        if (buffer != null)
+            buffers.decoder.decode(buffer, length, 0, buffers.input);
+        else
+            buffers.decoder.decode(data, 0, length, 0, buffers.input);
+        float[] signal = buffers.input;
+        int numSamples = numFrames;
+        if (buffers.decimator != null) {
+            signal = buffers.output;
+            numSamples = buffers.decimator.process(buffers.input, 0, numFrames, buffers.output);
+            // fewer frames than the decimation factor may not complete an output sample yet
+            if (numSamples == 0)
+                return;
+        }
+        // logged once per read, as the frames of the STFT and of the tone tracker do not follow the reads
+        mSignalLogger.push("signal", buffers.samplingRate, signal, numSamples);
+
+        if (toneFrequencies != null) {
+            ToneTracker tones = buffers.tones;
+            int frameSize = Math.max(2, buffers.samplingRate * mToneFrameMillis / 1000);
+            if (tones == null || buffers.toneFrequencies != toneFrequencies || tones.getFrameSize() != frameSize
+                    || tones.getWindow() != mStftWindow) {
+                tones = new ToneTracker(buffers.samplingRate, toneFrequencies, frameSize, mStftWindow);
+                buffers.tones = tones;
+                buffers.toneFrequencies = toneFrequencies;
+            }
+            buffers.deferPropFile = true;
+            tones.process(signal, 0, numSamples, buffers.toneListener);
+            writeDeferredPropFile(buffers);
+        } else if (stftSize == 0) {
+            buffers.ensureSignal(numSamples);
+            System.arraycopy(signal, 0, buffers.signal, 0, numSamples);
+            mFftEngine.transformAbs(buffers.signal, numSamples, buffers.spectrum);
+            updateDataView(buffers.signal, buffers.spectrum, buffers.samplingRate, 1.0);
+        } else {
+            StftAnalyzer stft = buffers.stft;
+            if (stft == null || stft.getEngine() != mFftEngine || stft.getFftSize() != stftSize || stft.getHopSize() != mStftHop
+                    || stft.getWindow() != mStftWindow) {
+                stft = new StftAnalyzer(mFftEngine, stftSize, mStftHop, mStftWindow);
+                buffers.stft = stft;
+            }
+            buffers.deferPropFile = true;
+            stft.process(signal, 0, numSamples, buffers.frameListener);
+            writeDeferredPropFile(buffers);
+        }
+    }
+
+    private void writeDeferredPropFile(AnalysisBuffers buffers) {
+        buffers.deferPropFile = false;
+        if (buffers.propFilePending) {
+            buffers.propFilePending = false;
+            writePropFile(buffers.pendingFreq, buffers.pendingAmp);
+        }
+    }
+
+    // the caller logs the signal, in the format it has it in; this one is only displayed. gain: the
+    // coherent gain of the window of the spectrum, which the detected amplitude is divided by so that
+    // it compares with the one of the unwindowed FFT per read
+    private void updateDataView(float[] signal, float[] spectrum, int samplingRate, double gain) {
         mSignalLogger.push("spectrum", spectrum);
 
         if (mSignalViewConfig.xmin < 0) mSignalViewConfig.xmin = 0;
@@ -354,15 +618,16 @@ public class MainActivity extends AppCompatActivity {
         if (mSpectrumViewConfig.xmin < 0) mSpectrumViewConfig.xmin = 0;
         if (mSpectrumViewConfig.xmax < 0) mSpectrumViewConfig.xmax = (int) Math.round(1.0 * samplingRate / 2);
 
+        // the spectrum only holds the N/2+1 non-redundant bins of an N-point FFT
+        double binWidth = (double) samplingRate / (2 * (spectrum.length - 1));
+
         ArrayList<Double> signalToPlot, spectrumToPlot;
         int signalIdxMin = (int) Math.round((double) mSignalViewConfig.xmin / 1000.0 * samplingRate);
         int signalIdxMax = (int) Math.round((double) mSignalViewConfig.xmax / 1000.0 * samplingRate);
-        int spectrumIdxMin = (int) Math.round(mSpectrumViewConfig.xmin / ((double) samplingRate / spectrum.length));
-        int spectrumIdxMax = (int) Math.round(mSpectrumViewConfig.xmax / ((double) samplingRate / spectrum.length));
+        int spectrumIdxMin = (int) Math.round(mSpectrumViewConfig.xmin / binWidth);
+        int spectrumIdxMax = (int) Math.round(mSpectrumViewConfig.xmax / binWidth);
         signalToPlot = new ArrayList<>(signalIdxMax-signalIdxMin+1);
         spectrumToPlot = new ArrayList<>(spectrumIdxMax-spectrumIdxMin+1);
-        int maxIdx = spectrumIdxMin-1;
-        double maxValue = -1;
 
         for (int i = signalIdxMin; i <= signalIdxMax; i++) {
             double v = (i < signal.length) ? signal[i] : 0;
@@ -371,22 +636,85 @@ public class MainActivity extends AppCompatActivity {
         for (int i = spectrumIdxMin; i <= spectrumIdxMax; i++) {
             double v = (i < spectrum.length) ? spectrum[i] : 0;
             spectrumToPlot.add(v/5);
-            if (v > maxValue || maxIdx < spectrumIdxMin) {
-                maxIdx = i;
-                maxValue = v;
-            }
         }
+        int maxIdx = PeakFinder.findPeak(spectrum, spectrumIdxMin, spectrumIdxMax);
+        double maxValue = (maxIdx < spectrumIdxMin) ? -1 : (maxIdx < spectrum.length) ? spectrum[maxIdx] : 0;
 
         if (mSignalViewConfig.needRefreshed)
             mSignalView.plot(signalToPlot);
         if (mSpectrumViewConfig.needRefreshed)
             mSpectrumView.plot(spectrumToPlot);
 
-        double detectedFreq = (double) maxIdx * samplingRate / spectrum.length;
+        double detectedFreq = maxIdx * binWidth;
+        if (maxIdx >= spectrumIdxMin && maxIdx < spectrum.length) {
+            detectedFreq = PeakFinder.interpolate(spectrum, maxIdx, mPeakInterpolation) * binWidth;
+            if (mPeakZoom && signal.length >= 2)
+                detectedFreq = PeakFinder.zoom(signal, signal.length, samplingRate, Windows.HANN,
+                        detectedFreq, binWidth, PEAK_ZOOM_POINTS);
+        }
         detectedFreq = Math.round(detectedFreq * 100) / 100.0;
-        double detectedAmp = 20*Math.log10(maxValue);
+        double detectedAmp = 20*Math.log10(maxValue / gain);
+        detectedAmp = Math.round(detectedAmp * 100) / 100.0;
+        publishDetectedTone(detectedFreq, detectedAmp, binWidth / 2);
+
+        if (mSignalViewConfig.needRefreshed && mSpectrumViewConfig.needRefreshed) {
+            Message msg = mHandler.obtainMessage();
+            msg.what = R.id.record_console;
+            msg.obj = "Signal show        [" + mSignalViewConfig.xmin + "~" + mSignalViewConfig.xmax + " ms]";
+            msg.obj += "\n";
+            msg.obj += "Spectrum show [" + mSpectrumViewConfig.xmin + "~" + mSpectrumViewConfig.xmax + " Hz]";
+            msg.obj += "\n";
+            msg.obj += "Detected Tone                   : " + detectedFreq + " Hz";
+            msg.obj += "\n";
+            msg.obj += "Corresponded Amplitude: " + detectedAmp + " dB";
+            msg.sendToTarget();
+        }
+    }
+
+    private void updateToneView(float[] signal, float[] frequencies, float[] amplitudes, float[] phases, int samplingRate) {
+        mSignalLogger.push("tone_amplitudes", amplitudes);
+        mSignalLogger.push("tone_phases", phases);
+
+        if (mSignalViewConfig.xmin < 0) mSignalViewConfig.xmin = 0;
+        if (mSignalViewConfig.xmax < 0) mSignalViewConfig.xmax = (int) Math.round(1000.0 * signal.length / samplingRate);
+        int signalIdxMin = (int) Math.round((double) mSignalViewConfig.xmin / 1000.0 * samplingRate);
+        int signalIdxMax = (int) Math.round((double) mSignalViewConfig.xmax / 1000.0 * samplingRate);
+        ArrayList<Double> signalToPlot = new ArrayList<>(signalIdxMax-signalIdxMin+1);
+        for (int i = signalIdxMin; i <= signalIdxMax; i++) {
+            double v = (i < signal.length) ? signal[i] : 0;
+            signalToPlot.add(v);
+        }
+        if (mSignalViewConfig.needRefreshed)
+            mSignalView.plot(signalToPlot);
+
+        int maxIdx = 0;
+        for (int t = 1; t < amplitudes.length; t++) {
+            if (amplitudes[t] > amplitudes[maxIdx])
+                maxIdx = t;
+        }
+        // in the scale of the spectrum (|X|/sqrt(N), N the frame size rounded up to a power of two),
+        // so that the amplitude compares with the FFT one
+        int fftSize = 2 * (FftEngines.getNumBins(signal.length) - 1);
+        double detectedFreq = Math.round(frequencies[maxIdx] * 100) / 100.0;
+        double detectedAmp = 20*Math.log10(amplitudes[maxIdx] * signal.length / 2 / Math.sqrt(fftSize));
         detectedAmp = Math.round(detectedAmp * 100) / 100.0;
+        publishDetectedTone(detectedFreq, detectedAmp, 0);
+
+        if (mSignalViewConfig.needRefreshed) {
+            Message msg = mHandler.obtainMessage();
+            msg.what = R.id.record_console;
+            msg.obj = "Signal show        [" + mSignalViewConfig.xmin + "~" + mSignalViewConfig.xmax + " ms]";
+            for (int t = 0; t < amplitudes.length; t++) {
+                msg.obj += "\n";
+                msg.obj += "Tone " + frequencies[t] + " Hz: " + Math.round(20*Math.log10(amplitudes[t]) * 100) / 100.0
+                        + " dBFS, " + Math.round(phases[t] * 100) / 100.0 + " rad";
+            }
+            msg.sendToTarget();
+        }
+    }
 
+    // the changes of the frequency smaller than resolution are not logged
+    private void publishDetectedTone(double detectedFreq, double detectedAmp, double resolution) {
         double lastDetectedFreq;
         try {
             lastDetectedFreq = Double.valueOf(System.getProperty(Constants.AudioRecordConfig.DETECTED_TONE_FREQ_PROP));
@@ -397,33 +725,31 @@ public class MainActivity extends AppCompatActivity {
             Log.i(TAG + "::properties", detectedFreq + "," + detectedAmp);
         }
 
+        AnalysisBuffers buffers = mAnalysisBuffers.get();
+        if (buffers.deferPropFile) {
+            buffers.propFilePending = true;
+            buffers.pendingFreq = detectedFreq;
+            buffers.pendingAmp = detectedAmp;
+        } else {
+            writePropFile(detectedFreq, detectedAmp);
+        }
+        if (Math.abs(lastDetectedFreq - detectedFreq) > resolution) {
+            Log.i(TAG, "the detected frequency has been changed to " + detectedFreq);
+        }
+
+        System.setProperty(Constants.AudioRecordConfig.DETECTED_TONE_FREQ_PROP, "" + detectedFreq);
+        System.setProperty(Constants.AudioRecordConfig.DETECTED_TONE_AMP_PROP, "" + detectedAmp);
+    }
+
+    private void writePropFile(double detectedFreq, double detectedAmp) {
         try {
             PrintWriter pw = new PrintWriter(Constants.AudioRecordConfig.PROP_FILE_PATH);
             pw.write(detectedFreq + "," + detectedAmp + "\n");
             pw.close();
-            if (lastDetectedFreq != detectedFreq) {
-                Log.i(TAG, "the detected frequency has been changed to " + detectedFreq);
-            }
         } catch (Exception e) {
             Log.e(TAG, "write the file \"" + Constants.AudioRecordConfig.PROP_FILE_PATH + "\" failed.");
             e.printStackTrace();
         }
-
-        System.setProperty(Constants.AudioRecordConfig.DETECTED_TONE_FREQ_PROP, "" + detectedFreq);
-        System.setProperty(Constants.AudioRecordConfig.DETECTED_TONE_AMP_PROP, "" + detectedAmp);
-
-        if (mSignalViewConfig.needRefreshed && mSpectrumViewConfig.needRefreshed) {
-            Message msg = mHandler.obtainMessage();
-            msg.what = R.id.record_console;
-            msg.obj = "Signal show        [" + mSignalViewConfig.xmin + "~" + mSignalViewConfig.xmax + " ms]";
-            msg.obj += "\n";
-            msg.obj += "Spectrum show [" + mSpectrumViewConfig.xmin + "~" + mSpectrumViewConfig.xmax + " Hz]";
-            msg.obj += "\n";
-            msg.obj += "Detected Tone                   : " + detectedFreq + " Hz";
-            msg.obj += "\n";
-            msg.obj += "Corresponded Amplitude: " + detectedAmp + " dB";
-            msg.sendToTarget();
-        }
     }
 
     private static class MainHandler extends Handler {
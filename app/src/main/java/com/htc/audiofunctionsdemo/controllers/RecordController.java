@@ -89,10 +89,13 @@ public class RecordController implements Controllable {
             if(mMediaRecorderContainer[idx] == null) {
                 mMediaRecorderContainer[idx] = new RecorderContainer(format);
                 mMediaRecorderContainer[idx].recorderio.setRecorderIOListener(mParent.listenerCache);
+                mMediaRecorderContainer[idx].recorderio.setRecorderIOBufferListener(mParent.bufferListenerCache);
 
                 Log.d(TAG, "record wav " + idx + " start");
                 synchronized(this.wd_lock) {
                     try {
+                        mMediaRecorderContainer[idx].recorderio.setCaptureMode(mParent.captureModeCache, mParent.periodMillisCache);
+                        mMediaRecorderContainer[idx].recorderio.setDirectCapture(mParent.directCaptureCache);
                         mMediaRecorderContainer[idx].recorderio.startRecord();
                     } catch (Exception e) {
                         Log.d(TAG, "record wav error:" + e);
@@ -200,6 +203,10 @@ public class RecordController implements Controllable {
     public RecordControllerThread thread;
     private Handler commHandler;
     private RecorderIO.RecorderIOListener listenerCache;
+    private RecorderIO.RecorderIOBufferListener bufferListenerCache;
+    private boolean directCaptureCache = false;
+    private int captureModeCache = RecorderIO.CAPTURE_MODE_BLOCKING;
+    private int periodMillisCache = Constants.AudioRecordConfig.LOW_LATENCY_PERIOD_MILLIS;
 
     public RecordController(AudioManager audioManager, Handler handler)
     {
@@ -239,6 +246,25 @@ public class RecordController implements Controllable {
         listenerCache = listener;
     }
 
+    public void setRecorderIOBufferListener(RecorderIO.RecorderIOBufferListener listener) {
+        bufferListenerCache = listener;
+    }
+
+    /**
+     * Applies to the recorders started afterwards, see RecorderIO.setDirectCapture().
+     */
+    public void setDirectCapture(boolean direct) {
+        directCaptureCache = direct;
+    }
+
+    /**
+     * Applies to the recorders started afterwards, see RecorderIO.setCaptureMode().
+     */
+    public void setCaptureMode(int mode, int periodMillis) {
+        captureModeCache = mode;
+        periodMillisCache = periodMillis;
+    }
+
     @Override
     public void destroy() {
         thread.setStop();
@@ -8,57 +8,60 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Locale;
+import java.util.Date;
 
 /**
  * Created by hw_lee on 2018/3/9.
+ *
+ * The frames are kept in a bounded {@link FrameStore}, so that the logger holds the last minutes of
+ * a capture however long it runs, until it is dumped. They keep the sample format they were pushed
+ * in, which the index of the dump records along with the scale that normalizes them.
+ *
+ * Instead of dumping the last minutes on demand, the logger can also stream all the frames to disk
+ * as they come, with a {@link FrameStreamWriter}: the store then only buffers them for the writer.
  */
 
 public class AudioSignalFrameLogger {
     private static final String TAG = Constants.packageTag("AudioSignalFrameLogger");
-    private static final String DUMP_STREAM_NAME = "stream.bin";
-    private static final String DUMP_INFO_NAME = "info.json";
-
-    private final ArrayList<AudioSignalFrame> mFrames;
-
-    public class AudioSignalFrame {
-        private String createAt;
-        private String mName;
-        private int mFs;
-        private double[] mValues;
-
-        public AudioSignalFrame(String name, int fs, double[] value) {
-            mName = name;
-            mFs = fs;
-            mValues = Arrays.copyOf(value, value.length);
-            createAt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS '(UTF+8)'", Locale.TAIWAN).format(Calendar.getInstance().getTime());
-        }
-
-        public String getCreateAt() {
-            return createAt;
-        }
-
-        public String getName() {
-            return mName;
-        }
+    private static final String DUMP_STREAM_NAME = FrameStreamWriter.STREAM_NAME;
+    private static final String DUMP_INFO_NAME = FrameStreamWriter.INFO_NAME;
+    private static final String DUMP_INDEX_NAME = FrameIndex.INDEX_NAME;
+    private static final int DUMP_INDEX_RECORDS = 1024;
+
+    private final FrameStore mStore;
+    // the index of a dump, written DUMP_INDEX_RECORDS records at a time
+    private final ByteBuffer mIndex;
+    private FrameStreamWriter mStreamWriter;
+
+    /**
+     * A logger of SIGNAL_LOG_CAPACITY_BYTES worth of frames, which overwrites the oldest ones.
+     */
+    public AudioSignalFrameLogger() {
+        this(Constants.AudioRecordConfig.SIGNAL_LOG_CAPACITY_BYTES, Constants.AudioRecordConfig.SIGNAL_LOG_MAX_FRAMES,
+                FrameStore.POLICY_OVERWRITE_OLDEST);
+    }
 
-        public int getSampleRate() {
-            return mFs;
-        }
+    public AudioSignalFrameLogger(int capacityBytes, int maxFrames, int policy) {
+        mStore = new FrameStore(capacityBytes, maxFrames, policy, Constants.AudioRecordConfig.SIGNAL_LOG_BLOCK_MILLIS);
+        mIndex = ByteBuffer.allocateDirect(FrameIndex.HEADER_BYTES + DUMP_INDEX_RECORDS * FrameIndex.RECORD_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
 
-        public double[] getValues() {
-            return mValues;
-        }
+    /**
+     * What happens to a push that does not fit: see {@link FrameStore}.
+     */
+    public void setPolicy(int policy) {
+        mStore.setPolicy(policy, Constants.AudioRecordConfig.SIGNAL_LOG_BLOCK_MILLIS);
     }
 
-    public AudioSignalFrameLogger() {
-        mFrames = new ArrayList<>(100);
+    public FrameStore getStore() {
+        return mStore;
     }
 
     public void push(String name, double[] value) {
@@ -66,18 +69,109 @@ public class AudioSignalFrameLogger {
     }
 
     public void push(String name, int fs, double[] value) {
-        synchronized (mFrames) {
-            mFrames.add(new AudioSignalFrame(name, fs, value));
-        }
+        mStore.push(name, fs, value, value.length);
+    }
+
+    public void push(String name, float[] value) {
+        push(name, -1, value);
+    }
+
+    public void push(String name, int fs, float[] value) {
+        mStore.push(name, fs, value, value.length);
+    }
+
+    /**
+     * Logs the first length values only, for the arrays sized for the largest read.
+     */
+    public void push(String name, int fs, float[] value, int length) {
+        mStore.push(name, fs, value, length);
+    }
+
+    /**
+     * Logs mono PCM as it was read, rather than normalized: 2 or 4 bytes per sample instead of 8.
+     *
+     * @param format FrameStore.FORMAT_INT16 or FORMAT_INT24_IN_32
+     * @param scale the value of the full scale, recorded with the frame for the reader to normalize
+     */
+    public void pushPcm(String name, int fs, byte[] pcm, int length, int format, float scale) {
+        mStore.pushPcm(name, fs, pcm, 0, length, format, scale);
+    }
+
+    public void pushPcm(String name, int fs, ByteBuffer pcm, int length, int format, float scale) {
+        mStore.pushPcm(name, fs, pcm, length, format, scale);
     }
 
     public void clear() {
-        synchronized (mFrames) {
-            mFrames.clear();
+        mStore.clear();
+    }
+
+    /**
+     * Streams the frames to path from now on, in parts of at most rotateBytes of samples and
+     * rotateMillis of capture (0 for no limit), until stopStreaming(), with an info.json per part if
+     * json is set. Any previous stream is stopped.
+     */
+    public synchronized void startStreaming(String path, long rotateBytes, long rotateMillis, boolean json) {
+        stopStreaming();
+        FrameStreamWriter writer = new FrameStreamWriter(mStore, new File(path),
+                Constants.AudioRecordConfig.SIGNAL_STREAM_STAGING_BYTES, rotateBytes, rotateMillis,
+                Constants.AudioRecordConfig.SIGNAL_STREAM_SYNC_MILLIS, json);
+        writer.setErrorListener(new FrameStreamWriter.ErrorListener() {
+            @Override
+            public void onError(FrameStreamWriter writer, IOException e) {
+                Log.e(TAG, "the stream to \"" + writer.getFolder() + "\" failed, keep the frames in memory: "
+                        + e.getMessage());
+            }
+        });
+        try {
+            writer.start();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to stream to \"" + path + "\": " + e.getMessage());
+            return;
         }
+        Log.d(TAG, "stream to \"" + path + "\", rotate at " + rotateBytes + " bytes/" + rotateMillis + " ms");
+        mStreamWriter = writer;
+    }
+
+    /**
+     * Writes the frames left, and closes the stream.
+     */
+    public synchronized void stopStreaming() {
+        FrameStreamWriter writer = mStreamWriter;
+        if (writer == null)
+            return;
+        mStreamWriter = null;
+        writer.stop();
+        if (writer.getError() != null)
+            Log.w(TAG, "the stream to \"" + writer.getFolder() + "\" failed: " + writer.getError().getMessage());
+        Log.d(TAG, "stream stop, " + writer.getWrittenFrames() + " frames (" + writer.getWrittenBytes() + " bytes) in "
+                + writer.getPartCount() + " parts, " + mStore.getDroppedFrames() + " frames dropped");
+    }
+
+    /**
+     * Whether the frames are being streamed: false again once the stream has failed, when the frames
+     * are kept in memory for a dump.
+     */
+    public synchronized boolean isStreaming() {
+        return mStreamWriter != null && mStreamWriter.getError() == null;
     }
 
     public void dumpTo(String path) {
+        dumpTo(path, false);
+    }
+
+    /**
+     * Writes the frames to stream.bin and their index to index.bin, see {@link FrameIndex}, and clears
+     * the logger.
+     *
+     * @param json whether to also describe the frames in info.json, as the older dumps did
+     */
+    public void dumpTo(String path, boolean json) {
+        if (isStreaming()) {
+            Log.w(TAG, "the frames are being streamed, skip the dump");
+            return;
+        }
+        // a failed stream only has its counters left to log
+        stopStreaming();
         File folder = new File(path);
 
         boolean success;
@@ -92,25 +186,41 @@ public class AudioSignalFrameLogger {
         }
 
         try {
+            JSONArray info = json ? new JSONArray() : null;
+            SimpleDateFormat format = json ? FrameStreamWriter.newTimeFormat() : null;
             FileOutputStream os = new FileOutputStream(new File(path, DUMP_STREAM_NAME));
-            JSONArray info = new JSONArray();
-
-            synchronized (mFrames) {
-                for (AudioSignalFrame frame : mFrames) {
-                    info.put(toJson(frame));
-
-                    ByteBuffer buf = ByteBuffer.allocate(frame.getValues().length * 8);
-                    buf.clear();
-                    buf.asDoubleBuffer().put(frame.getValues());
-                    os.write(buf.array());
+            FileOutputStream indexOs = new FileOutputStream(new File(path, DUMP_INDEX_NAME));
+            try {
+                synchronized (mStore) {
+                    int numFrames = mStore.getFrameCount();
+                    if (mStore.getDroppedFrames() > 0)
+                        Log.d(TAG, mStore.getDroppedFrames() + " frames dropped since the start, " + numFrames + " kept");
+                    // the samples of all the frames in one or two writes, then their index
+                    mStore.writeFrames(0, numFrames, os.getChannel());
+                    FileChannel indexChannel = indexOs.getChannel();
+                    mIndex.clear();
+                    FrameIndex.putHeader(mIndex);
+                    long offset = 0;
+                    for (int i = 0; i < numFrames; i++) {
+                        if (mIndex.remaining() < FrameIndex.RECORD_BYTES)
+                            writeIndex(indexChannel);
+                        FrameIndex.putRecord(mIndex, mStore, i, offset);
+                        offset += mStore.getSizeInBytes(i);
+                        if (info != null)
+                            info.put(toJson(i, format));
+                    }
+                    writeIndex(indexChannel);
                 }
+            } finally {
+                os.close();
+                indexOs.close();
             }
 
-            os.close();
-
-            PrintWriter pw = new PrintWriter(new File(path, DUMP_INFO_NAME));
-            pw.write(info.toString());
-            pw.close();
+            if (info != null) {
+                PrintWriter pw = new PrintWriter(new File(path, DUMP_INFO_NAME));
+                pw.write(info.toString());
+                pw.close();
+            }
         } catch (Exception e) {
             Log.w(TAG, "failed to dump the buffer");
         }
@@ -118,13 +228,24 @@ public class AudioSignalFrameLogger {
         clear();
     }
 
-    private JSONObject toJson(AudioSignalFrame frame) {
+    private void writeIndex(FileChannel channel) throws IOException {
+        mIndex.flip();
+        while (mIndex.hasRemaining())
+            channel.write(mIndex);
+        mIndex.clear();
+    }
+
+    // called with the lock of the store held
+    private JSONObject toJson(int index, SimpleDateFormat format) {
         JSONObject obj = new JSONObject();
         try {
-            obj.put("name", frame.getName());
-            obj.put("fs", frame.getSampleRate());
-            obj.put("createAt", frame.getCreateAt());
-            obj.put("datasize-in-double", frame.getValues().length);
+            obj.put("name", mStore.getName(index));
+            obj.put("fs", mStore.getSampleRate(index));
+            obj.put("createAt", format.format(new Date(mStore.getTimestamp(index))));
+            obj.put("format", FrameStore.getFormatName(mStore.getFormat(index)));
+            obj.put("byteorder", "little");
+            obj.put("scale", mStore.getScale(index));
+            obj.put("datasize", mStore.getLength(index));
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,115 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.util.Locale;
+
+/**
+ * Instrumentation of a capture loop, which proves whether the reads kept up with the wall clock.
+ *
+ * The audio time read so far is compared with the wall-clock time elapsed since the capture
+ * started. Their difference, the lag, only moves within the buffering of the recorder as long as
+ * no sample is lost; a gap in the capture (an overrun of the recorder, a stalled read loop) makes
+ * it grow for good. Every such growth beyond the tolerance is counted as a gap, so a soak that
+ * ends with no gap has delivered every sample.
+ *
+ * Only the capture thread updates the stats; the getters may be called from any thread.
+ */
+public class CaptureStats {
+    private final int mSampleRate;
+    private final long mToleranceNanos;
+
+    private long mStartNanos = -1;
+    private long mLastReadNanos;
+    private volatile long mReads;
+    private volatile long mFrames;
+    private volatile long mShortReads;
+    private volatile long mGaps;
+    private volatile long mLostNanos;
+    private volatile long mMaxReadIntervalNanos;
+    private volatile long mLagNanos;
+    private long mMinLagNanos = Long.MAX_VALUE;
+
+    /**
+     * @param toleranceNanos how much the lag may grow without a gap being counted, i.e. the
+     *                       duration of the buffer of the recorder
+     */
+    public CaptureStats(int sampleRate, long toleranceNanos) {
+        mSampleRate = sampleRate;
+        mToleranceNanos = toleranceNanos;
+    }
+
+    /**
+     * Marks the start of the capture, right before the first read.
+     */
+    public void onStart(long nowNanos) {
+        mStartNanos = nowNanos;
+        mLastReadNanos = nowNanos;
+    }
+
+    /**
+     * @param frames the frames (samples per channel) the read returned
+     * @param requestedFrames the frames the read asked for
+     */
+    public void onRead(int frames, int requestedFrames, long nowNanos) {
+        if (mStartNanos < 0)
+            onStart(nowNanos);
+
+        mReads++;
+        mFrames += frames;
+        if (frames < requestedFrames)
+            mShortReads++;
+        mMaxReadIntervalNanos = Math.max(mMaxReadIntervalNanos, nowNanos - mLastReadNanos);
+        mLastReadNanos = nowNanos;
+
+        long audioNanos = mFrames * 1000000000L / mSampleRate;
+        long lag = (nowNanos - mStartNanos) - audioNanos;
+        mLagNanos = lag;
+        mMinLagNanos = Math.min(mMinLagNanos, lag);
+        // the samples lost so far are taken out, so that one gap is only counted once
+        if (lag - mMinLagNanos - mLostNanos > mToleranceNanos) {
+            mGaps++;
+            mLostNanos = lag - mMinLagNanos;
+        }
+    }
+
+    public long getReads() {
+        return mReads;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public long getShortReads() {
+        return mShortReads;
+    }
+
+    public long getGaps() {
+        return mGaps;
+    }
+
+    /**
+     * The audio time missing from the capture, as far as it exceeds the tolerance.
+     */
+    public long getLostNanos() {
+        return mLostNanos;
+    }
+
+    public long getMaxReadIntervalNanos() {
+        return mMaxReadIntervalNanos;
+    }
+
+    /**
+     * The wall-clock time elapsed minus the audio time read, at the last read.
+     */
+    public long getLagNanos() {
+        return mLagNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d reads (%d short), %.1f s of audio, %d gaps (%.1f ms lost), "
+                        + "max read interval %.1f ms, lag %.1f ms",
+                mReads, mShortReads, (double) mFrames / mSampleRate, mGaps, mLostNanos / 1e6,
+                mMaxReadIntervalNanos / 1e6, mLagNanos / 1e6);
+    }
+}
@@ -59,6 +59,22 @@ public class Constants {
         public static final int NORMALIZATION_FACTOR = 32768;
         public static final int BYTES_PER_ELEMENT = 2; // 2 bytes in 16bit format
         public static final int BUFFER_SIZE_MILLIS = 40;
+        public static final int RING_BUFFER_BLOCKS = 16; // reads queued for the analysis thread
+        public static final int LOW_LATENCY_PERIOD_MILLIS = 10;
+        public static final int LOW_LATENCY_BUFFER_PERIODS = 4;
+        public static final int CAPTURE_STATS_LOG_MILLIS = 10000;
+        // the frames kept for INTENT_RECORD_DUMP_BUFFER: about 6.5 minutes of a capture of 40 ms reads,
+        // whose signal and spectrum make about 1.7 kB per read; the frames of the low-latency periods,
+        // the STFT and the tones are smaller, so their window ends at the count of frames, e.g. about
+        // 5.5 minutes of 10 ms periods
+        public static final int SIGNAL_LOG_CAPACITY_BYTES = 16 * 1024 * 1024;
+        public static final int SIGNAL_LOG_MIN_FRAME_BYTES = 256;
+        public static final int SIGNAL_LOG_MAX_FRAMES = SIGNAL_LOG_CAPACITY_BYTES / SIGNAL_LOG_MIN_FRAME_BYTES;
+        public static final int SIGNAL_LOG_BLOCK_MILLIS = 200;
+        // the streaming of the frames to disk, when INTENT_RECORD_START asks for it
+        public static final int SIGNAL_STREAM_STAGING_BYTES = 1024 * 1024;
+        public static final int SIGNAL_STREAM_SYNC_MILLIS = 1000;
+        public static final int SIGNAL_STREAM_ROTATE_MB = 256;
         public static final String DETECTED_TONE_FREQ_PROP = "audio.htc.com.prop.detected.freq";
         public static final String DETECTED_TONE_AMP_PROP = "audio.htc.com.prop.detected.amp";
         public static final String PROP_FILE_PATH = SDCARD_PATH + "/" + PACKAGE_NAME + "-record-prop.txt";
@@ -69,6 +85,7 @@ public class Constants {
         public static final int ENCODING_CONFIG_HD = 15;
         public static final int NORMALIZATION_FACTOR_HD = 8388608;
         public static final int BYTES_PER_ELEMENT_HD = 4;
+        public static final int ANALYSIS_SAMPLING_RATE_HD = 8000; // any rate up to SAMPLING_RATE_HD
 
     }
     public static class VOIPConfig {
@@ -1,16 +1,308 @@
 package com.htc.audiofunctionsdemo.utils;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
 /**
  * Created by HWLee on 28/10/2017.
  */
 
 public class FFT {
-    final static private String TAG = Constants.packageTag("FFT");
+    public static final int WINDOW_NONE = FftEngine.WINDOW_NONE;
+    public static final int WINDOW_HANN = FftEngine.WINDOW_HANN;
 
     static {
         System.loadLibrary("native-fft");
     }
 
+    /**
+     * A handle of a native FFT plan. The plan owns the twiddle factors of the given size and
+     * direction, which are built once and cached on the native side, so a Plan is cheap to keep
+     * around and can be shared between threads.
+     */
+    public static final class Plan {
+        private final long mHandle;
+        private final int mSize;
+        private final boolean mInverse;
+
+        private Plan(long handle, int size, boolean inverse) {
+            mHandle = handle;
+            mSize = size;
+            mInverse = inverse;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public boolean isInverse() {
+            return mInverse;
+        }
+
+        /**
+         * The signal is zero-padded (or truncated) to the size of the plan, and the N/2+1
+         * non-redundant magnitudes of its spectrum are returned.
+         */
+        public double[] transformAbs(double[] signal) {
+            return nativeTransformAbs(mHandle, signal);
+        }
+
+        public float[] transformAbs(float[] signal) {
+            return nativeTransformAbsFloat(mHandle, signal);
+        }
+
+        /**
+         * @see FFT#transformAbs(FloatBuffer, FloatBuffer)
+         */
+        public int transformAbs(FloatBuffer signal, FloatBuffer spectrum) {
+            checkDirect(signal, signal.order(), spectrum, spectrum.order(), mSize);
+            return checkResult(nativeTransformAbsDirectFloat(mHandle, signal, signal.position(), signal.remaining(),
+                    spectrum, spectrum.position()));
+        }
+
+        /**
+         * @see FFT#transformAbs(DoubleBuffer, DoubleBuffer)
+         */
+        public int transformAbs(DoubleBuffer signal, DoubleBuffer spectrum) {
+            checkDirect(signal, signal.order(), spectrum, spectrum.order(), mSize);
+            return checkResult(nativeTransformAbsDirect(mHandle, signal, signal.position(), signal.remaining(),
+                    spectrum, spectrum.position()));
+        }
+
+        /**
+         * @see FFT#transformAbsBatch(FloatBuffer, int, int, FloatBuffer)
+         */
+        public int transformAbsBatch(FloatBuffer signals, int frameSize, int numFrames, FloatBuffer spectra) {
+            checkBatch(signals, signals.order(), frameSize, numFrames, spectra, spectra.order(), mSize);
+            return checkResult(nativeTransformAbsBatchFloat(mHandle, signals, signals.position(), frameSize, numFrames,
+                    spectra, spectra.position()));
+        }
+
+        /**
+         * @see FFT#transformAbsBatch(DoubleBuffer, int, int, DoubleBuffer)
+         */
+        public int transformAbsBatch(DoubleBuffer signals, int frameSize, int numFrames, DoubleBuffer spectra) {
+            checkBatch(signals, signals.order(), frameSize, numFrames, spectra, spectra.order(), mSize);
+            return checkResult(nativeTransformAbsBatch(mHandle, signals, signals.position(), frameSize, numFrames,
+                    spectra, spectra.position()));
+        }
+    }
+
+    /**
+     * @param size the transform size, which is rounded up to the next power of two
+     * @throws IllegalArgumentException if size is over {@link FftEngines#MAX_SIZE}
+     */
+    public static Plan getPlan(int size, boolean inverse) {
+        int n = FftEngines.ceilpw2(size);
+        return new Plan(nativeGetPlan(n, inverse), n, inverse);
+    }
+
+    /**
+     * The signal is real, so only the N/2+1 non-redundant magnitudes of its N-point spectrum are
+     * returned, where N is the length of the signal rounded up to the next power of two.
+     */
     native static public double[] transformAbs(double[] signal);
     native static public String getVersion();
+
+    /**
+     * The single-precision variant of {@link #transformAbs(double[])}, which halves the JNI copies
+     * and the memory traffic. Its error stays around 1e-7 of the spectrum peak, far below the
+     * quantization floor of the 16-bit captures.
+     */
+    public static float[] transformAbs(float[] signal) {
+        return transformAbsFloat(signal);
+    }
+
+    /**
+     * The zero-copy variant of {@link #transformAbs(float[])}: the remaining samples of the signal
+     * are read, and the N/2+1 magnitudes are written from the position of the spectrum, straight
+     * from and to the memory of the buffers, so nothing is copied nor allocated per call. The
+     * positions of the buffers are left untouched.
+     *
+     * @param signal a direct buffer in the native byte order
+     * @param spectrum a direct buffer in the native byte order, with room for the N/2+1 magnitudes
+     *                 between its position and its limit
+     * @return the number of magnitudes written
+     */
+    public static int transformAbs(FloatBuffer signal, FloatBuffer spectrum) {
+        checkDirect(signal, signal.order(), spectrum, spectrum.order(), signal.remaining());
+        return checkResult(nativeTransformAbsDirectFloat(0, signal, signal.position(), signal.remaining(),
+                spectrum, spectrum.position()));
+    }
+
+    /**
+     * The double-precision variant of {@link #transformAbs(FloatBuffer, FloatBuffer)}.
+     */
+    public static int transformAbs(DoubleBuffer signal, DoubleBuffer spectrum) {
+        checkDirect(signal, signal.order(), spectrum, spectrum.order(), signal.remaining());
+        return checkResult(nativeTransformAbsDirect(0, signal, signal.position(), signal.remaining(),
+                spectrum, spectrum.position()));
+    }
+
+    /**
+     * The number of threads, the calling one included, a batch is spread over. The native pool is
+     * sized once to the number of cores of the device.
+     */
+    native static public int getBatchThreads();
+
+    /**
+     * Transforms many frames in a single call, e.g. when re-analyzing a dump of
+     * {@link AudioSignalFrameLogger}: the frames are spread over the native thread pool instead of
+     * making one JNI round trip each on a single thread.
+     *
+     * @param signals a direct buffer in the native byte order, holding numFrames frames of frameSize
+     *                samples back to back from its position
+     * @param spectra a direct buffer in the native byte order; the N/2+1 magnitudes of frame i are
+     *                written at its position + i*(N/2+1), all of them before its limit
+     * @return the number of magnitudes per frame, N/2+1
+     */
+    public static int transformAbsBatch(FloatBuffer signals, int frameSize, int numFrames, FloatBuffer spectra) {
+        checkBatch(signals, signals.order(), frameSize, numFrames, spectra, spectra.order(), frameSize);
+        return checkResult(nativeTransformAbsBatchFloat(0, signals, signals.position(), frameSize, numFrames,
+                spectra, spectra.position()));
+    }
+
+    /**
+     * The double-precision variant of {@link #transformAbsBatch(FloatBuffer, int, int, FloatBuffer)}.
+     */
+    public static int transformAbsBatch(DoubleBuffer signals, int frameSize, int numFrames, DoubleBuffer spectra) {
+        checkBatch(signals, signals.order(), frameSize, numFrames, spectra, spectra.order(), frameSize);
+        return checkResult(nativeTransformAbsBatch(0, signals, signals.position(), frameSize, numFrames,
+                spectra, spectra.position()));
+    }
+
+    /**
+     * @see FftEngines#getNumSamples(int, int, int, int)
+     */
+    public static int getNumSamples(int length, int bytesPerSample, int numChannels, int decimation) {
+        return FftEngines.getNumSamples(length, bytesPerSample, numChannels, decimation);
+    }
+
+    /**
+     * @see FftEngines#getNumBins(int)
+     */
+    public static int getNumBins(int numSamples) {
+        return FftEngines.getNumBins(numSamples);
+    }
+
+    /**
+     * The allocation-free variant of {@link #transformAbs(float[])}: the first size samples of the
+     * signal are transformed and the N/2+1 magnitudes are written to the spectrum array.
+     *
+     * @return the number of magnitudes written
+     */
+    public static int transformAbs(float[] signal, int size, float[] spectrum) {
+        FftEngines.checkTransform(signal.length, size, spectrum.length);
+        return nativeTransformAbsArrayFloat(signal, size, spectrum);
+    }
+
+    public static int transformAbs(double[] signal, int size, double[] spectrum) {
+        FftEngines.checkTransform(signal.length, size, spectrum.length);
+        return nativeTransformAbsArray(signal, size, spectrum);
+    }
+
+    /**
+     * Computes the spectrum of the raw PCM read from AudioRecord in a single native pass: the first
+     * channel of every decimation-th frame is de-interleaved, divided by the normalization factor and
+     * windowed straight out of the byte array, then transformed, so none of the intermediate
+     * short[]/int[]/float[] copies of the Java-side decoding are needed.
+     *
+     * @param pcm the little-endian interleaved PCM
+     * @param length the number of valid bytes in pcm
+     * @param bytesPerSample 2 (16-bit), 3 (packed 24-bit) or 4 (32-bit containers)
+     * @param decimation 1 to take every frame, n to take every n-th frame
+     * @param window {@link #WINDOW_NONE} or {@link #WINDOW_HANN}
+     * @param signal receives the {@link #getNumSamples} decoded (and windowed) samples, may be null
+     * @param spectrum receives the {@link #getNumBins} magnitudes
+     * @return the number of magnitudes written
+     */
+    public static int spectrumFromPcm(byte[] pcm, int length, int bytesPerSample, int numChannels, int decimation,
+                                      float normalization, int window, float[] signal, float[] spectrum) {
+        FftEngines.checkPcm(pcm.length, length, bytesPerSample, numChannels, decimation, window, signal, spectrum);
+        return nativeSpectrumFromPcm(pcm, length, bytesPerSample, numChannels, decimation, normalization, window,
+                signal, spectrum);
+    }
+
+    /**
+     * The same as {@link #spectrumFromPcm(byte[], int, int, int, int, float, int, float[], float[])},
+     * but the PCM is decoded in place from a direct buffer, e.g. one AudioRecord.read() filled, without
+     * being copied to the Java heap first.
+     *
+     * @param pcm a direct buffer holding the PCM from its position on, whatever its byte order; its
+     *            position is not changed
+     */
+    public static int spectrumFromPcm(ByteBuffer pcm, int length, int bytesPerSample, int numChannels,
+                                      int decimation, float normalization, int window, float[] signal,
+                                      float[] spectrum) {
+        if (!pcm.isDirect())
+            throw new IllegalArgumentException("the buffer is not direct");
+        FftEngines.checkPcm(pcm.remaining(), length, bytesPerSample, numChannels, decimation, window, signal,
+                spectrum);
+        return nativeSpectrumFromPcmDirect(pcm, pcm.position(), length, bytesPerSample, numChannels, decimation,
+                normalization, window, signal, spectrum);
+    }
+
+    private static void checkDirect(Buffer buffer, ByteOrder order) {
+        if (!buffer.isDirect())
+            throw new IllegalArgumentException("the buffer is not direct");
+        if (order != ByteOrder.nativeOrder())
+            throw new IllegalArgumentException("the buffer is not in the native byte order");
+    }
+
+    // size: the transform size, rounded up to a power of two for the number of magnitudes
+    private static void checkDirect(Buffer signal, ByteOrder signalOrder, Buffer spectrum, ByteOrder spectrumOrder,
+                                    int size) {
+        checkDirect(signal, signalOrder);
+        checkDirect(spectrum, spectrumOrder);
+        if (signal.remaining() < 1)
+            throw new IllegalArgumentException("the signal buffer is empty");
+        if (spectrum.remaining() < FftEngines.getNumBins(size))
+            throw new IllegalArgumentException("the spectrum buffer holds less than " + FftEngines.getNumBins(size)
+                    + " magnitudes");
+    }
+
+    private static void checkBatch(Buffer signals, ByteOrder signalsOrder, int frameSize, int numFrames,
+                                   Buffer spectra, ByteOrder spectraOrder, int size) {
+        checkDirect(signals, signalsOrder);
+        checkDirect(spectra, spectraOrder);
+        if (frameSize < 1 || numFrames < 0)
+            throw new IllegalArgumentException("invalid frame size/count: " + frameSize + "/" + numFrames);
+        if ((long) frameSize * numFrames > signals.remaining())
+            throw new IllegalArgumentException("the signals buffer holds less than " + numFrames + " frames");
+        if ((long) FftEngines.getNumBins(size) * numFrames > spectra.remaining())
+            throw new IllegalArgumentException("the spectra buffer holds less than " + numFrames + " spectra");
+    }
+
+    private static int checkResult(int numBins) {
+        if (numBins < 0)
+            throw new IllegalArgumentException("the buffers are not direct, or do not fit the transform");
+        return numBins;
+    }
+
+    // overloaded natives would all bind to the same short JNI symbol, hence the distinct names
+    native static private float[] transformAbsFloat(float[] signal);
+    native static private long nativeGetPlan(int size, boolean inverse);
+    native static private double[] nativeTransformAbs(long plan, double[] signal);
+    native static private float[] nativeTransformAbsFloat(long plan, float[] signal);
+    native static private int nativeTransformAbsDirect(long plan, Buffer signal, int signalOffset, int size,
+                                                       Buffer spectrum, int spectrumOffset);
+    native static private int nativeTransformAbsDirectFloat(long plan, Buffer signal, int signalOffset, int size,
+                                                            Buffer spectrum, int spectrumOffset);
+    native static private int nativeTransformAbsArray(double[] signal, int size, double[] spectrum);
+    native static private int nativeTransformAbsArrayFloat(float[] signal, int size, float[] spectrum);
+    native static private int nativeSpectrumFromPcm(byte[] pcm, int length, int bytesPerSample, int numChannels,
+                                                    int decimation, float normalization, int window,
+                                                    float[] signal, float[] spectrum);
+    native static private int nativeSpectrumFromPcmDirect(ByteBuffer pcm, int offset, int length,
+                                                          int bytesPerSample, int numChannels, int decimation,
+                                                          float normalization, int window,
+                                                          float[] signal, float[] spectrum);
+    native static private int nativeTransformAbsBatch(long plan, Buffer signals, int signalsOffset, int frameSize,
+                                                      int numFrames, Buffer spectra, int spectraOffset);
+    native static private int nativeTransformAbsBatchFloat(long plan, Buffer signals, int signalsOffset,
+                                                           int frameSize, int numFrames,
+                                                           Buffer spectra, int spectraOffset);
 }
@@ -0,0 +1,45 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The spectrum analysis used by the tone detection, implemented either natively ({@link NativeFftEngine})
+ * or in plain Java ({@link JavaFftEngine}), so that the pipeline also runs on a JVM without the
+ * NDK library. Use {@link FftEngines} to get one.
+ *
+ * All the transforms compute the N/2+1 non-redundant magnitudes of the N-point spectrum of a real
+ * signal, where N is the signal size rounded up to the next power of two, with the unitary
+ * 1/sqrt(N) scaling. None of the methods allocate once the engine is warmed up for a size.
+ */
+public interface FftEngine {
+    int WINDOW_NONE = 0;
+    int WINDOW_HANN = 1;
+
+    String getName();
+
+    /**
+     * @param signal the first size samples are transformed
+     * @param spectrum receives the {@link FftEngines#getNumBins} magnitudes
+     * @return the number of magnitudes written
+     */
+    int transformAbs(float[] signal, int size, float[] spectrum);
+
+    int transformAbs(double[] signal, int size, double[] spectrum);
+
+    /**
+     * De-interleaves, normalizes, windows and transforms raw PCM as read from AudioRecord.
+     *
+     * @see FFT#spectrumFromPcm(byte[], int, int, int, int, float, int, float[], float[])
+     */
+    int spectrumFromPcm(byte[] pcm, int length, int bytesPerSample, int numChannels, int decimation,
+                        float normalization, int window, float[] signal, float[] spectrum);
+
+    /**
+     * The same, reading the PCM from the position of a buffer (direct ones for the native engine)
+     * without changing the position.
+     *
+     * @see FFT#spectrumFromPcm(ByteBuffer, int, int, int, int, float, int, float[], float[])
+     */
+    int spectrumFromPcm(ByteBuffer pcm, int length, int bytesPerSample, int numChannels, int decimation,
+                        float normalization, int window, float[] signal, float[] spectrum);
+}
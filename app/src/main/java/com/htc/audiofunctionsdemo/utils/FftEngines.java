@@ -0,0 +1,103 @@
+package com.htc.audiofunctionsdemo.utils;
+
+/**
+ * Selects the {@link FftEngine}, and holds what is common to all the engines.
+ *
+ * The default engine is the native one; the app takes another by its name, "native" or "java",
+ * from the fft_engine extra of INTENT_RECORD_START. The Java engine is also used whenever the
+ * native library cannot be loaded, e.g. in unit tests on a host JVM.
+ */
+public final class FftEngines {
+    // the largest transform, whose size still fits an int once rounded up to a power of two
+    public static final int MAX_SIZE = 1 << 30;
+
+    private static FftEngine sDefault;
+
+    private FftEngines() {
+    }
+
+    public static synchronized FftEngine getDefault() {
+        if (sDefault == null)
+            sDefault = get(NativeFftEngine.NAME);
+        return sDefault;
+    }
+
+    /**
+     * @param name {@link NativeFftEngine#NAME} or {@link JavaFftEngine#NAME}
+     * @return the engine, falling back to the Java one if the native library is not available
+     */
+    public static FftEngine get(String name) {
+        if (NativeFftEngine.NAME.equals(name)) {
+            try {
+                return new NativeFftEngine();
+            } catch (LinkageError e) {
+                return new JavaFftEngine();
+            }
+        }
+        if (JavaFftEngine.NAME.equals(name))
+            return new JavaFftEngine();
+        throw new IllegalArgumentException("unknown FFT engine: " + name);
+    }
+
+    public static boolean isNativeAvailable() {
+        try {
+            new NativeFftEngine();
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * The number of samples spectrumFromPcm() takes from length bytes of interleaved PCM.
+     */
+    public static int getNumSamples(int length, int bytesPerSample, int numChannels, int decimation) {
+        return length / bytesPerSample / (numChannels * decimation);
+    }
+
+    /**
+     * The number of magnitudes of the spectrum of numSamples real samples, i.e. N/2+1 where N is
+     * numSamples rounded up to the next power of two.
+     *
+     * @throws IllegalArgumentException if numSamples is over {@link #MAX_SIZE}
+     */
+    public static int getNumBins(int numSamples) {
+        return ceilpw2(numSamples)/2 + 1;
+    }
+
+    static int ceilpw2(int size) {
+        if (size > MAX_SIZE)
+            throw new IllegalArgumentException("the transform size " + size + " is over " + MAX_SIZE);
+        int n = 1;
+        while (n < size) n <<= 1;
+        return n;
+    }
+
+    static void checkTransform(int signalLength, int size, int spectrumLength) {
+        if (size < 1 || size > signalLength)
+            throw new IllegalArgumentException("invalid signal size: " + size);
+        if (spectrumLength < getNumBins(size))
+            throw new IllegalArgumentException("the spectrum array is too small");
+    }
+
+    static int checkPcm(int available, int length, int bytesPerSample, int numChannels, int decimation, int window,
+                        float[] signal, float[] spectrum) {
+        if (bytesPerSample < 2 || bytesPerSample > 4)
+            throw new IllegalArgumentException("unsupported bytes per sample: " + bytesPerSample);
+        if (numChannels < 1 || decimation < 1)
+            throw new IllegalArgumentException("invalid channels/decimation: " + numChannels + "/" + decimation);
+        if (window != FftEngine.WINDOW_NONE && window != FftEngine.WINDOW_HANN)
+            throw new IllegalArgumentException("unknown window: " + window);
+        if (length < 0 || length > available)
+            throw new IllegalArgumentException("invalid length: " + length);
+
+        int numSamples = getNumSamples(length, bytesPerSample, numChannels, decimation);
+        if (numSamples == 0)
+            throw new IllegalArgumentException("no complete frame in the PCM");
+        if (signal != null && signal.length < numSamples)
+            throw new IllegalArgumentException("the signal array is too small");
+        if (spectrum.length < getNumBins(numSamples))
+            throw new IllegalArgumentException("the spectrum array is too small");
+        return numSamples;
+    }
+}
@@ -0,0 +1,221 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The index of a dump, index.bin, and its reader: a fixed-width record per frame of stream.bin, so
+ * that a frame is found without going through the ones before it.
+ *
+ * The file is little-endian: a header of HEADER_BYTES (the magic "AFIX", the version, the size of a
+ * record, and a reserved int), then one record of RECORD_BYTES per frame, in the order of the frames:
+ *
+ *   0  name         16 bytes of ASCII, zero-padded, truncated beyond
+ *   16 fs           int32, -1 for the frames that are not a signal
+ *   20 format       uint8, one of the FrameStore formats, then 3 reserved bytes
+ *   24 scale        float32, the value of the full scale of the samples
+ *   28 length       int32, in samples
+ *   32 offset       int64, of the samples in stream.bin, in bytes
+ *   40 monotonic    int64, System.nanoTime() at the push
+ *   48 timestamp    int64, System.currentTimeMillis() at the push
+ *
+ * The records are appended once the samples they describe are written, so that a file cut short
+ * only lacks the last frames: the reader ignores an incomplete record.
+ */
+public class FrameIndex {
+    public static final String INDEX_NAME = "index.bin";
+    // "AFIX" read as a little-endian int
+    public static final int MAGIC = 0x58494641;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 56;
+    public static final int NAME_BYTES = 16;
+
+    private final ByteBuffer mIndex;
+    private final int mRecordBytes;
+    private final int mCount;
+    private final FileInputStream mStreamIn;
+    private final FileChannel mStream;
+    private ByteBuffer mSamples = ByteBuffer.allocate(0);
+
+    /**
+     * Writes the header to the position of out, which must be little-endian.
+     */
+    public static void putHeader(ByteBuffer out) {
+        out.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(0);
+    }
+
+    /**
+     * Writes the record of a frame to the position of out, which must be little-endian.
+     */
+    public static void putRecord(ByteBuffer out, String name, int samplingRate, int format, float scale, int length,
+                                 long offset, long nanoTime, long timestamp) {
+        int n = Math.min(name.length(), NAME_BYTES);
+        for (int i = 0; i < n; i++) {
+            char c = name.charAt(i);
+            out.put((byte) (c < 128 ? c : '?'));
+        }
+        for (int i = n; i < NAME_BYTES; i++)
+            out.put((byte) 0);
+        out.putInt(samplingRate);
+        out.put((byte) format).put((byte) 0).putShort((short) 0);
+        out.putFloat(scale);
+        out.putInt(length);
+        out.putLong(offset);
+        out.putLong(nanoTime);
+        out.putLong(timestamp);
+    }
+
+    /**
+     * Writes the record of the frame index of store, whose samples are at offset of stream.bin; called
+     * with the lock of the store held.
+     */
+    public static void putRecord(ByteBuffer out, FrameStore store, int index, long offset) {
+        putRecord(out, store.getName(index), store.getSampleRate(index), store.getFormat(index),
+                store.getScale(index), store.getLength(index), offset, store.getNanoTime(index),
+                store.getTimestamp(index));
+    }
+
+    /**
+     * Opens the index.bin and stream.bin of a dump, or of a part of a stream.
+     */
+    public static FrameIndex open(File folder) throws IOException {
+        FileInputStream in = new FileInputStream(new File(folder, INDEX_NAME));
+        ByteBuffer index;
+        try {
+            FileChannel channel = in.getChannel();
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+        return new FrameIndex(index.order(ByteOrder.LITTLE_ENDIAN),
+                new FileInputStream(new File(folder, FrameStreamWriter.STREAM_NAME)));
+    }
+
+    private FrameIndex(ByteBuffer index, FileInputStream streamIn) throws IOException {
+        if (index.limit() < HEADER_BYTES || index.getInt(0) != MAGIC) {
+            streamIn.close();
+            throw new IOException("not a frame index");
+        }
+        if (index.getInt(4) != VERSION || index.getInt(8) < RECORD_BYTES) {
+            streamIn.close();
+            throw new IOException("unsupported frame index, version " + index.getInt(4));
+        }
+        mIndex = index;
+        mRecordBytes = index.getInt(8);
+        mCount = (index.limit() - HEADER_BYTES) / mRecordBytes;
+        mStreamIn = streamIn;
+        mStream = streamIn.getChannel();
+    }
+
+    public void close() throws IOException {
+        mStreamIn.close();
+    }
+
+    public int getFrameCount() {
+        return mCount;
+    }
+
+    public String getName(int index) {
+        int at = record(index);
+        StringBuilder name = new StringBuilder(NAME_BYTES);
+        for (int i = 0; i < NAME_BYTES && mIndex.get(at + i) != 0; i++)
+            name.append((char) mIndex.get(at + i));
+        return name.toString();
+    }
+
+    public int getSampleRate(int index) {
+        return mIndex.getInt(record(index) + 16);
+    }
+
+    public int getFormat(int index) {
+        return mIndex.get(record(index) + 20);
+    }
+
+    public float getScale(int index) {
+        return mIndex.getFloat(record(index) + 24);
+    }
+
+    public int getLength(int index) {
+        return mIndex.getInt(record(index) + 28);
+    }
+
+    public long getOffset(int index) {
+        return mIndex.getLong(record(index) + 32);
+    }
+
+    public long getNanoTime(int index) {
+        return mIndex.getLong(record(index) + 40);
+    }
+
+    public long getTimestamp(int index) {
+        return mIndex.getLong(record(index) + 48);
+    }
+
+    /**
+     * The last frame pushed at or before nanoTime, by a binary search of the monotonic times, or -1.
+     */
+    public int findFrame(long nanoTime) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getNanoTime(mid) <= nanoTime)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+
+    /**
+     * Reads the samples of a frame from stream.bin, normalized as FrameStore.copyValues() does.
+     *
+     * @return the length of the frame
+     */
+    public int readValues(int index, double[] out) throws IOException {
+        int format = getFormat(index);
+        int bytes = FrameStore.getBytesPerSample(format);
+        int length = getLength(index);
+        if (out.length < length)
+            throw new IllegalArgumentException("the output holds less than " + length + " values");
+        int size = length * bytes;
+        if (mSamples.capacity() < size)
+            mSamples = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        mSamples.clear().limit(size);
+        long offset = getOffset(index);
+        while (mSamples.hasRemaining()) {
+            if (mStream.read(mSamples, offset + mSamples.position()) < 0)
+                throw new IOException("stream.bin ends before frame " + index);
+        }
+
+        double gain = 1.0 / getScale(index);
+        for (int i = 0; i < length; i++) {
+            switch (format) {
+                case FrameStore.FORMAT_FLOAT64:
+                    out[i] = mSamples.getDouble(i * bytes);
+                    break;
+                case FrameStore.FORMAT_FLOAT32:
+                    out[i] = mSamples.getFloat(i * bytes);
+                    break;
+                case FrameStore.FORMAT_INT16:
+                    out[i] = mSamples.getShort(i * bytes) * gain;
+                    break;
+                default:
+                    out[i] = mSamples.getInt(i * bytes) * gain;
+                    break;
+            }
+        }
+        return length;
+    }
+
+    private int record(int index) {
+        if (index < 0 || index >= mCount)
+            throw new IndexOutOfBoundsException("frame " + index + " of " + mCount);
+        return HEADER_BYTES + index * mRecordBytes;
+    }
+}
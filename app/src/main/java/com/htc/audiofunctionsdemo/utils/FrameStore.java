@@ -0,0 +1,492 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * A bounded store of named frames of samples, allocated once: the samples of all the frames share
+ * one direct buffer, filled as a ring, and the metadata of each frame (name, sampling rate, sample
+ * format, scale, timestamps, offset and length) lives in preallocated arrays. Pushing a frame copies
+ * its samples and allocates nothing, so a long capture keeps a flat heap whatever its duration.
+ *
+ * The samples keep the format they are pushed in: 16-bit or 24-bit PCM (in 32-bit containers) as
+ * read from AudioRecord, or floats. Their normalization (the division by the scale of the frame)
+ * only happens when they are read back with {@link #copyValues}, or by whoever reads the dump.
+ *
+ * When a frame does not fit, the store either drops the oldest frames to make room
+ * ({@link #POLICY_OVERWRITE_OLDEST}), or waits for {@link #clear()} to free it, for at most the
+ * block timeout, and drops the new frame if it still does not fit ({@link #POLICY_BLOCK}). The
+ * frames dropped either way are counted.
+ *
+ * The samples are kept little-endian, as captured, so that {@link #writeValues} hands them to a
+ * channel as they are. All the methods are synchronized on the store: hold its lock to read a
+ * consistent set of frames.
+ */
+public class FrameStore {
+    public static final int POLICY_OVERWRITE_OLDEST = 0;
+    public static final int POLICY_BLOCK = 1;
+
+    public static final int FORMAT_FLOAT64 = 0;
+    public static final int FORMAT_FLOAT32 = 1;
+    public static final int FORMAT_INT16 = 2;
+    // 24-bit samples, sign-extended to 32 bits
+    public static final int FORMAT_INT24_IN_32 = 3;
+
+    private static final String[] FORMAT_NAMES = {"float64", "float32", "int16", "int24in32"};
+    private static final int[] FORMAT_BYTES = {8, 4, 2, 4};
+
+    private final ByteBuffer mData;
+    // the views the bulk copies move around, so that mData itself never changes
+    private final ByteBuffer mPutView;
+    private final ByteBuffer mWriteView;
+    // the runs of contiguous frames of writeFrames(), at most two as the ring wraps once
+    private final ByteBuffer[] mRunViews;
+    private final int mCapacity;
+
+    // the frames, oldest first from mFirst, as a ring of mMaxFrames slots
+    private final int mMaxFrames;
+    private final int[] mNameIds;
+    private final int[] mSampleRates;
+    private final byte[] mFormats;
+    private final float[] mScales;
+    private final long[] mTimestamps;
+    private final long[] mNanoTimes;
+    // in bytes
+    private final int[] mOffsets;
+    private final int[] mSizes;
+    private int mFirst;
+    private int mCount;
+    // the byte offset the next frame goes to, unless it has to wrap to 0
+    private int mTail;
+
+    // the few names pushed, looked up by equals() rather than hashed
+    private final ArrayList<String> mNames = new ArrayList<>();
+
+    private int mPolicy;
+    private long mBlockTimeoutMillis;
+    private long mDropped;
+
+    /**
+     * @param capacityBytes the size of the samples buffer
+     * @param maxFrames the number of frames the metadata holds
+     * @param blockTimeoutMillis how long a push waits for room with POLICY_BLOCK
+     */
+    public FrameStore(int capacityBytes, int maxFrames, int policy, long blockTimeoutMillis) {
+        if (capacityBytes < 1 || maxFrames < 1)
+            throw new IllegalArgumentException("invalid store of " + capacityBytes + " bytes, " + maxFrames + " frames");
+        mCapacity = capacityBytes;
+        mData = ByteBuffer.allocateDirect(capacityBytes).order(ByteOrder.LITTLE_ENDIAN);
+        mPutView = mData.duplicate();
+        mWriteView = mData.duplicate();
+        mRunViews = new ByteBuffer[] {mData.duplicate(), mData.duplicate()};
+        mMaxFrames = maxFrames;
+        mNameIds = new int[maxFrames];
+        mSampleRates = new int[maxFrames];
+        mFormats = new byte[maxFrames];
+        mScales = new float[maxFrames];
+        mTimestamps = new long[maxFrames];
+        mNanoTimes = new long[maxFrames];
+        mOffsets = new int[maxFrames];
+        mSizes = new int[maxFrames];
+        setPolicy(policy, blockTimeoutMillis);
+    }
+
+    public synchronized void setPolicy(int policy, long blockTimeoutMillis) {
+        if (policy != POLICY_OVERWRITE_OLDEST && policy != POLICY_BLOCK)
+            throw new IllegalArgumentException("unknown policy: " + policy);
+        if (blockTimeoutMillis < 0)
+            throw new IllegalArgumentException("invalid timeout: " + blockTimeoutMillis);
+        mPolicy = policy;
+        mBlockTimeoutMillis = blockTimeoutMillis;
+        notifyAll();
+    }
+
+    public synchronized int getPolicy() {
+        return mPolicy;
+    }
+
+    public int getCapacityBytes() {
+        return mCapacity;
+    }
+
+    public int getMaxFrames() {
+        return mMaxFrames;
+    }
+
+    public synchronized int getFrameCount() {
+        return mCount;
+    }
+
+    /**
+     * The bytes held by the frames, not counting the end of the buffer skipped by a wrap.
+     */
+    public synchronized long getUsedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < mCount; i++)
+            bytes += mSizes[slot(i)];
+        return bytes;
+    }
+
+    /**
+     * The number of frames overwritten, or not stored, since the construction.
+     */
+    public synchronized long getDroppedFrames() {
+        return mDropped;
+    }
+
+    /**
+     * Stores the first length values as a FORMAT_FLOAT64 frame.
+     *
+     * @return false if the frame was dropped
+     */
+    public synchronized boolean push(String name, int samplingRate, double[] values, int length) {
+        int offset = reserve(length, FORMAT_FLOAT64);
+        if (offset < 0)
+            return false;
+        for (int i = 0; i < length; i++)
+            mData.putDouble(offset + 8*i, values[i]);
+        commit(name, samplingRate, FORMAT_FLOAT64, 1, offset, 8*length);
+        return true;
+    }
+
+    /**
+     * Stores the first length values as a FORMAT_FLOAT32 frame.
+     */
+    public synchronized boolean push(String name, int samplingRate, float[] values, int length) {
+        int offset = reserve(length, FORMAT_FLOAT32);
+        if (offset < 0)
+            return false;
+        for (int i = 0; i < length; i++)
+            mData.putFloat(offset + 4*i, values[i]);
+        commit(name, samplingRate, FORMAT_FLOAT32, 1, offset, 4*length);
+        return true;
+    }
+
+    /**
+     * Stores length bytes of little-endian PCM as they are.
+     *
+     * @param format FORMAT_INT16 or FORMAT_INT24_IN_32
+     * @param scale the value of the full scale, which the samples are divided by when read
+     */
+    public synchronized boolean pushPcm(String name, int samplingRate, byte[] pcm, int offset, int length,
+                                        int format, float scale) {
+        checkPcm(format, length, scale);
+        if (offset < 0 || length > pcm.length - offset)
+            throw new IllegalArgumentException("invalid offset/length: " + offset + "/" + length);
+        int at = reserve(length / FORMAT_BYTES[format], format);
+        if (at < 0)
+            return false;
+        mPutView.limit(at + length);
+        mPutView.position(at);
+        mPutView.put(pcm, offset, length);
+        commit(name, samplingRate, format, scale, at, length);
+        return true;
+    }
+
+    /**
+     * The same, from the position of the buffer, which does not move; the byte order of the buffer
+     * does not matter.
+     */
+    public synchronized boolean pushPcm(String name, int samplingRate, ByteBuffer pcm, int length,
+                                        int format, float scale) {
+        checkPcm(format, length, scale);
+        if (length > pcm.remaining())
+            throw new IllegalArgumentException("invalid length: " + length);
+        int at = reserve(length / FORMAT_BYTES[format], format);
+        if (at < 0)
+            return false;
+        int from = pcm.position();
+        for (int i = 0; i < length; i++)
+            mData.put(at + i, pcm.get(from + i));
+        commit(name, samplingRate, format, scale, at, length);
+        return true;
+    }
+
+    /**
+     * Frees the count oldest frames, once they are written elsewhere, and wakes up the pushes waiting
+     * for room. They do not count as dropped.
+     */
+    public synchronized void removeOldest(int count) {
+        if (count < 0 || count > mCount)
+            throw new IllegalArgumentException("cannot remove " + count + " of " + mCount + " frames");
+        mFirst = slot(count);
+        mCount -= count;
+        notifyAll();
+    }
+
+    /**
+     * Drops all the frames, and wakes up the pushes waiting for room.
+     */
+    public synchronized void clear() {
+        mFirst = 0;
+        mCount = 0;
+        mTail = 0;
+        notifyAll();
+    }
+
+    // the accessors of the frames, index 0 being the oldest one
+
+    public synchronized String getName(int index) {
+        return mNames.get(mNameIds[slot(checkIndex(index))]);
+    }
+
+    public synchronized int getSampleRate(int index) {
+        return mSampleRates[slot(checkIndex(index))];
+    }
+
+    /**
+     * The time of the push, in milliseconds since the epoch.
+     */
+    public synchronized long getTimestamp(int index) {
+        return mTimestamps[slot(checkIndex(index))];
+    }
+
+    /**
+     * The time of the push by System.nanoTime(), which unlike the timestamp never jumps.
+     */
+    public synchronized long getNanoTime(int index) {
+        return mNanoTimes[slot(checkIndex(index))];
+    }
+
+    public synchronized int getFormat(int index) {
+        return mFormats[slot(checkIndex(index))];
+    }
+
+    /**
+     * The value of the full scale of the samples, 1 for the floats.
+     */
+    public synchronized float getScale(int index) {
+        return mScales[slot(checkIndex(index))];
+    }
+
+    /**
+     * The number of samples of a frame.
+     */
+    public synchronized int getLength(int index) {
+        int slot = slot(checkIndex(index));
+        return mSizes[slot] / FORMAT_BYTES[mFormats[slot]];
+    }
+
+    public synchronized int getSizeInBytes(int index) {
+        return mSizes[slot(checkIndex(index))];
+    }
+
+    /**
+     * Copies the samples of a frame, normalized.
+     *
+     * @return the number of samples copied, the length of the frame
+     */
+    public synchronized int copyValues(int index, double[] out) {
+        int slot = slot(checkIndex(index));
+        int format = mFormats[slot];
+        int bytes = FORMAT_BYTES[format];
+        int length = mSizes[slot] / bytes;
+        if (out.length < length)
+            throw new IllegalArgumentException("the output holds less than " + length + " values");
+        double gain = 1.0 / mScales[slot];
+        for (int i = 0, at = mOffsets[slot]; i < length; i++, at += bytes) {
+            switch (format) {
+                case FORMAT_FLOAT64:
+                    out[i] = mData.getDouble(at);
+                    break;
+                case FORMAT_FLOAT32:
+                    out[i] = mData.getFloat(at);
+                    break;
+                case FORMAT_INT16:
+                    out[i] = mData.getShort(at) * gain;
+                    break;
+                default:
+                    out[i] = mData.getInt(at) * gain;
+                    break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the samples of a frame as they are stored, little-endian and not normalized.
+     */
+    public synchronized void writeValues(int index, WritableByteChannel channel) throws IOException {
+        int slot = slot(checkIndex(index));
+        mWriteView.limit(mOffsets[slot] + mSizes[slot]);
+        mWriteView.position(mOffsets[slot]);
+        while (mWriteView.hasRemaining())
+            channel.write(mWriteView);
+    }
+
+    /**
+     * Writes the samples of count frames from index on, as writeValues() does for each of them, with
+     * as few writes as the layout allows: the frames follow each other in the buffer up to where it
+     * wraps, so that the whole store goes in one gathering write of at most two runs.
+     *
+     * @return the number of bytes written
+     */
+    public synchronized long writeFrames(int index, int count, GatheringByteChannel channel) throws IOException {
+        if (count < 0 || index < 0 || index + count > mCount)
+            throw new IndexOutOfBoundsException("frames " + index + "+" + count + " of " + mCount);
+        long written = 0;
+        int i = index;
+        int end = index + count;
+        while (i < end) {
+            int runs = 0;
+            long bytes = 0;
+            while (i < end && runs < mRunViews.length) {
+                int slot = slot(i);
+                int start = mOffsets[slot];
+                int stop = start + mSizes[slot];
+                for (i++; i < end; i++) {
+                    int next = slot(i);
+                    if (mOffsets[next] != stop)
+                        break;
+                    stop += mSizes[next];
+                }
+                mRunViews[runs].limit(stop);
+                mRunViews[runs].position(start);
+                bytes += stop - start;
+                runs++;
+            }
+            for (long left = bytes; left > 0; )
+                left -= channel.write(mRunViews, 0, runs);
+            written += bytes;
+        }
+        return written;
+    }
+
+    /**
+     * Copies the samples of a frame as they are stored to the position of out, which moves past them.
+     */
+    public synchronized void copyBytes(int index, ByteBuffer out) {
+        int slot = slot(checkIndex(index));
+        if (out.remaining() < mSizes[slot])
+            throw new IllegalArgumentException("the output holds less than " + mSizes[slot] + " bytes");
+        mWriteView.limit(mOffsets[slot] + mSizes[slot]);
+        mWriteView.position(mOffsets[slot]);
+        out.put(mWriteView);
+    }
+
+    public static String getFormatName(int format) {
+        checkFormat(format);
+        return FORMAT_NAMES[format];
+    }
+
+    public static int getBytesPerSample(int format) {
+        checkFormat(format);
+        return FORMAT_BYTES[format];
+    }
+
+    private static void checkFormat(int format) {
+        if (format < 0 || format >= FORMAT_NAMES.length)
+            throw new IllegalArgumentException("unknown format: " + format);
+    }
+
+    private static void checkPcm(int format, int length, float scale) {
+        if (format != FORMAT_INT16 && format != FORMAT_INT24_IN_32)
+            throw new IllegalArgumentException("not a PCM format: " + format);
+        if (length < 0 || length % FORMAT_BYTES[format] != 0)
+            throw new IllegalArgumentException("invalid length: " + length);
+        if (!(scale > 0))
+            throw new IllegalArgumentException("invalid scale: " + scale);
+    }
+
+    private int slot(int index) {
+        int slot = mFirst + index;
+        return slot < mMaxFrames ? slot : slot - mMaxFrames;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= mCount)
+            throw new IndexOutOfBoundsException("frame " + index + " of " + mCount);
+        return index;
+    }
+
+    // the offset a frame of length samples can be written at, making room as the policy says, or -1
+    private int reserve(int length, int format) {
+        if (length < 0)
+            throw new IllegalArgumentException("invalid length: " + length);
+        long size = (long) length * FORMAT_BYTES[format];
+        if (size > mCapacity) {
+            mDropped++;
+            return -1;
+        }
+
+        long deadline = 0;
+        while (true) {
+            int offset = mCount < mMaxFrames ? findRoom((int) size) : -1;
+            if (offset >= 0)
+                return offset;
+
+            if (mPolicy == POLICY_OVERWRITE_OLDEST) {
+                dropOldest();
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            if (deadline == 0)
+                deadline = now + mBlockTimeoutMillis;
+            if (now >= deadline) {
+                mDropped++;
+                return -1;
+            }
+            try {
+                wait(deadline - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mDropped++;
+                return -1;
+            }
+        }
+    }
+
+    // the frames are contiguous, the live ones in [head, mTail) or, wrapped, in [head, end) + [0, mTail)
+    private int findRoom(int size) {
+        // the empty frames hold no bytes: head == mTail would read as a full store behind them
+        int head = -1;
+        for (int i = 0; i < mCount && head < 0; i++) {
+            int slot = slot(i);
+            if (mSizes[slot] > 0)
+                head = mOffsets[slot];
+        }
+        if (head < 0) {
+            mTail = 0;
+            return 0;
+        }
+        if (mTail > head) {
+            if (mTail + size <= mCapacity)
+                return mTail;
+            return size <= head ? 0 : -1;
+        }
+        return mTail + size <= head ? mTail : -1;
+    }
+
+    private void dropOldest() {
+        mFirst = slot(1);
+        mCount--;
+        mDropped++;
+    }
+
+    private void commit(String name, int samplingRate, int format, float scale, int offset, int size) {
+        int slot = slot(mCount);
+        mNameIds[slot] = nameId(name);
+        mSampleRates[slot] = samplingRate;
+        mFormats[slot] = (byte) format;
+        mScales[slot] = scale;
+        mTimestamps[slot] = System.currentTimeMillis();
+        mNanoTimes[slot] = System.nanoTime();
+        mOffsets[slot] = offset;
+        mSizes[slot] = size;
+        mCount++;
+        mTail = offset + size;
+    }
+
+    private int nameId(String name) {
+        for (int i = 0; i < mNames.size(); i++) {
+            if (mNames.get(i).equals(name))
+                return i;
+        }
+        mNames.add(name);
+        return mNames.size() - 1;
+    }
+}
@@ -0,0 +1,426 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Streams the frames of a {@link FrameStore} to disk as they are pushed, for captures longer than
+ * the store holds: a background thread moves the oldest frames, every DRAIN_MILLIS, into a staging
+ * buffer of a bounded size and frees their room in the store, then writes them out of its lock, so
+ * that the pushes only wait for the copy and never for the disk. When the disk falls behind, the
+ * store fills up and its policy applies, as it does between two dumps.
+ *
+ * The frames go to numbered parts of the folder, part-0000, part-0001..., each one laid out as a
+ * dump (stream.bin and index.bin, and info.json on demand), which start over once a part holds
+ * rotateBytes of samples or rotateMillis of frames. The files are synced to the storage every
+ * syncMillis, and the info.json of a part is only closed (its final ']') with the part. A frame is
+ * indexed once its samples are written, so an interrupted part loses at most the frames of the last
+ * sync.
+ *
+ * Nothing is logged from here: an I/O error stops the writing, is kept for {@link #getError()} and
+ * given to the {@link ErrorListener}. The store is then switched to overwrite its oldest frames, so
+ * that the pushes never wait for a writer that is gone.
+ */
+public class FrameStreamWriter {
+    public static final String STREAM_NAME = "stream.bin";
+    public static final String INFO_NAME = "info.json";
+    private static final String PART_NAME_FORMAT = "part-%04d";
+    private static final long DRAIN_MILLIS = Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS / 2;
+    // the frames moved out of the store at a time, which DRAIN_MILLIS of pushes never reach
+    private static final int MAX_STAGED_FRAMES = 4096;
+
+    private final FrameStore mStore;
+    private final File mFolder;
+    private final long mRotateBytes;
+    private final long mRotateMillis;
+    private final long mSyncMillis;
+    private final boolean mJson;
+
+    // the frames moved out of the store and not written yet, with their metadata
+    private final ByteBuffer mStaging;
+    private final ByteBuffer mStagingView;
+    private final String[] mNames;
+    private final int[] mSampleRates;
+    private final int[] mFormats;
+    private final float[] mScales;
+    private final long[] mTimestamps;
+    private final long[] mNanoTimes;
+    private final int[] mSizes;
+    // the index records of the frames written, not yet appended to index.bin
+    private final ByteBuffer mRecords;
+
+    private final SimpleDateFormat mTimeFormat = newTimeFormat();
+    private final StringBuilder mEntry = new StringBuilder();
+
+    private final Object mLock = new Object();
+    private ErrorListener mErrorListener;
+    private Thread mThread;
+    private volatile boolean mStopped;
+    private volatile IOException mError;
+
+    // the open part
+    private int mPartIndex = -1;
+    private FileOutputStream mStreamOut;
+    private FileChannel mStreamChannel;
+    private FileOutputStream mIndexOut;
+    private FileChannel mIndexChannel;
+    private FileOutputStream mInfoOut;
+    private Writer mInfo;
+    private long mPartBytes;
+    private int mPartFrames;
+    private long mPartStart;
+    private long mLastSync;
+
+    private long mWrittenFrames;
+    private long mWrittenBytes;
+
+    /**
+     * @param stagingBytes the size of the staging buffer; a larger frame is written straight from the
+     *                     store, holding its lock
+     * @param rotateBytes the size of the stream.bin of a part, 0 for no limit
+     * @param rotateMillis the time span of the frames of a part, by their timestamps, 0 for no limit
+     * @param syncMillis the interval of the syncs to the storage
+     * @param json whether to also describe the frames in an info.json per part
+     */
+    public FrameStreamWriter(FrameStore store, File folder, int stagingBytes, long rotateBytes, long rotateMillis,
+                             long syncMillis, boolean json) {
+        if (stagingBytes < 1 || rotateBytes < 0 || rotateMillis < 0 || syncMillis < 0)
+            throw new IllegalArgumentException("invalid staging/rotation/sync: " + stagingBytes + "/" + rotateBytes
+                    + "/" + rotateMillis + "/" + syncMillis);
+        mStore = store;
+        mFolder = folder;
+        mRotateBytes = rotateBytes;
+        mRotateMillis = rotateMillis;
+        mSyncMillis = syncMillis;
+        mJson = json;
+
+        mStaging = ByteBuffer.allocateDirect(stagingBytes);
+        mStagingView = mStaging.duplicate();
+        int maxFrames = Math.min(store.getMaxFrames(), MAX_STAGED_FRAMES);
+        mNames = new String[maxFrames];
+        mSampleRates = new int[maxFrames];
+        mFormats = new int[maxFrames];
+        mScales = new float[maxFrames];
+        mTimestamps = new long[maxFrames];
+        mNanoTimes = new long[maxFrames];
+        mSizes = new int[maxFrames];
+        mRecords = ByteBuffer.allocateDirect(Math.max(maxFrames * FrameIndex.RECORD_BYTES, FrameIndex.HEADER_BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The format of the createAt of info.json.
+     */
+    public static SimpleDateFormat newTimeFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS '(UTC+8)'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT+08:00"));
+        return format;
+    }
+
+    public static String getPartName(int index) {
+        return String.format(Locale.US, PART_NAME_FORMAT, index);
+    }
+
+    public interface ErrorListener {
+        /**
+         * Called on the thread of the writer, once the error has stopped it.
+         */
+        void onError(FrameStreamWriter writer, IOException e);
+    }
+
+    public File getFolder() {
+        return mFolder;
+    }
+
+    /**
+     * Set before start().
+     */
+    public void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    /**
+     * Creates the folder, and starts the thread.
+     */
+    public synchronized void start() throws IOException {
+        if (mThread != null)
+            throw new IllegalStateException("already started");
+        if (!mFolder.isDirectory() && !mFolder.mkdirs())
+            throw new IOException("cannot create " + mFolder);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "AATSignalWriterThread");
+        mThread.start();
+    }
+
+    /**
+     * Writes the frames left in the store, closes the last part, and waits for the thread to end.
+     */
+    public synchronized void stop() {
+        if (mThread == null)
+            return;
+        mStopped = true;
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * The error that stopped the writing, if any.
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    // the counters below are updated by the thread, and only consistent once it is stopped
+
+    public int getPartCount() {
+        return mPartIndex + 1;
+    }
+
+    public long getWrittenFrames() {
+        return mWrittenFrames;
+    }
+
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    private void loop() {
+        try {
+            while (!mStopped) {
+                drain();
+                synchronized (mLock) {
+                    if (!mStopped)
+                        mLock.wait(DRAIN_MILLIS);
+                }
+            }
+            while (drain() > 0) ;
+        } catch (IOException e) {
+            mError = e;
+        } catch (InterruptedException e) {
+            // stop() does not interrupt: whoever did wants the thread to end now
+        }
+        try {
+            closePart();
+        } catch (IOException e) {
+            if (mError == null)
+                mError = e;
+        }
+        IOException error = mError;
+        if (error != null) {
+            mStore.setPolicy(FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+            if (mErrorListener != null)
+                mErrorListener.onError(this, error);
+        }
+    }
+
+    // moves the oldest frames that fit the staging buffer out of the store, and writes them
+    private int drain() throws IOException {
+        int numFrames = 0;
+        mStaging.clear();
+        synchronized (mStore) {
+            int count = Math.min(mStore.getFrameCount(), mNames.length);
+            while (numFrames < count) {
+                int size = mStore.getSizeInBytes(numFrames);
+                if (size > mStaging.remaining()) {
+                    if (numFrames > 0)
+                        break;
+                    // too large to ever be staged: the pushes wait for this one
+                    stage(0, size);
+                    if (mStreamChannel == null || mustRotate(0, 0, size, mTimestamps[0]))
+                        nextPart(mTimestamps[0]);
+                    mStore.writeValues(0, mStreamChannel);
+                    describe(0);
+                    appendRecords();
+                    mStore.removeOldest(1);
+                    return 1;
+                }
+                stage(numFrames, size);
+                mStore.copyBytes(numFrames, mStaging);
+                numFrames++;
+            }
+            mStore.removeOldest(numFrames);
+        }
+
+        // the frames of a part go in one write
+        int runStart = 0;
+        int runOffset = 0;
+        int offset = 0;
+        for (int i = 0; i < numFrames; i++) {
+            if (mStreamChannel == null || mustRotate(i - runStart, offset - runOffset, mSizes[i], mTimestamps[i])) {
+                writeRun(runStart, i, runOffset, offset);
+                nextPart(mTimestamps[i]);
+                runStart = i;
+                runOffset = offset;
+            }
+            offset += mSizes[i];
+        }
+        writeRun(runStart, numFrames, runOffset, offset);
+        if (mStreamChannel != null && System.currentTimeMillis() - mLastSync >= mSyncMillis)
+            sync();
+        return numFrames;
+    }
+
+    // called with the lock of the store held
+    private void stage(int i, int size) {
+        mNames[i] = mStore.getName(i);
+        mSampleRates[i] = mStore.getSampleRate(i);
+        mFormats[i] = mStore.getFormat(i);
+        mScales[i] = mStore.getScale(i);
+        mTimestamps[i] = mStore.getTimestamp(i);
+        mNanoTimes[i] = mStore.getNanoTime(i);
+        mSizes[i] = size;
+    }
+
+    // writes the staged frames [from, to), found in the staging buffer in [start, end)
+    private void writeRun(int from, int to, int start, int end) throws IOException {
+        if (from == to)
+            return;
+        mStagingView.limit(end);
+        mStagingView.position(start);
+        while (mStagingView.hasRemaining())
+            mStreamChannel.write(mStagingView);
+        for (int i = from; i < to; i++)
+            describe(i);
+        appendRecords();
+    }
+
+    // indexes the staged frame i once written, and adds it to the info.json of the part
+    private void describe(int i) throws IOException {
+        int size = mSizes[i];
+        FrameIndex.putRecord(mRecords, mNames[i], mSampleRates[i], mFormats[i], mScales[i],
+                size / FrameStore.getBytesPerSample(mFormats[i]), mPartBytes, mNanoTimes[i], mTimestamps[i]);
+        mPartBytes += size;
+        mPartFrames++;
+        mWrittenBytes += size;
+        mWrittenFrames++;
+        if (!mJson) {
+            mNames[i] = null;
+            return;
+        }
+
+        mEntry.setLength(0);
+        if (mPartFrames > 1)
+            mEntry.append(",\n");
+        mEntry.append("{\"name\":");
+        appendQuoted(mEntry, mNames[i]);
+        mEntry.append(",\"fs\":").append(mSampleRates[i]);
+        mEntry.append(",\"createAt\":");
+        appendQuoted(mEntry, mTimeFormat.format(new Date(mTimestamps[i])));
+        mEntry.append(",\"format\":\"").append(FrameStore.getFormatName(mFormats[i]));
+        mEntry.append("\",\"byteorder\":\"little\",\"scale\":").append(mScales[i]);
+        mEntry.append(",\"datasize\":").append(size / FrameStore.getBytesPerSample(mFormats[i])).append('}');
+        mInfo.append(mEntry);
+        mNames[i] = null;
+    }
+
+    private void appendRecords() throws IOException {
+        mRecords.flip();
+        while (mRecords.hasRemaining())
+            mIndexChannel.write(mRecords);
+        mRecords.clear();
+    }
+
+    // whether a frame goes to a new part, after the pending frames not written to the open one yet
+    private boolean mustRotate(int pendingFrames, long pendingBytes, int size, long timestamp) {
+        if (mPartFrames + pendingFrames == 0)
+            return false;
+        if (mRotateBytes > 0 && mPartBytes + pendingBytes + size > mRotateBytes)
+            return true;
+        return mRotateMillis > 0 && timestamp - mPartStart >= mRotateMillis;
+    }
+
+    private void nextPart(long timestamp) throws IOException {
+        closePart();
+        openPart(timestamp);
+    }
+
+    private void openPart(long timestamp) throws IOException {
+        File part = new File(mFolder, getPartName(mPartIndex + 1));
+        if (!part.isDirectory() && !part.mkdirs())
+            throw new IOException("cannot create " + part);
+        mPartIndex++;
+        mStreamOut = new FileOutputStream(new File(part, STREAM_NAME));
+        mStreamChannel = mStreamOut.getChannel();
+        mIndexOut = new FileOutputStream(new File(part, FrameIndex.INDEX_NAME));
+        mIndexChannel = mIndexOut.getChannel();
+        mRecords.clear();
+        FrameIndex.putHeader(mRecords);
+        appendRecords();
+        if (mJson) {
+            mInfoOut = new FileOutputStream(new File(part, INFO_NAME));
+            mInfo = new OutputStreamWriter(mInfoOut, "UTF-8");
+            mInfo.write('[');
+        }
+        mPartBytes = 0;
+        mPartFrames = 0;
+        mPartStart = timestamp;
+        mLastSync = System.currentTimeMillis();
+    }
+
+    private void closePart() throws IOException {
+        if (mStreamChannel == null)
+            return;
+        try {
+            if (mInfo != null)
+                mInfo.write(']');
+            sync();
+        } finally {
+            mStreamOut.close();
+            mIndexOut.close();
+            if (mInfo != null)
+                mInfo.close();
+            mStreamOut = null;
+            mStreamChannel = null;
+            mIndexOut = null;
+            mIndexChannel = null;
+            mInfoOut = null;
+            mInfo = null;
+        }
+    }
+
+    private void sync() throws IOException {
+        mStreamChannel.force(false);
+        mIndexChannel.force(false);
+        if (mInfo != null) {
+            mInfo.flush();
+            mInfoOut.getFD().sync();
+        }
+        mLastSync = System.currentTimeMillis();
+    }
+
+    private static void appendQuoted(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                out.append('\\');
+            out.append(c);
+        }
+        out.append('"');
+    }
+}
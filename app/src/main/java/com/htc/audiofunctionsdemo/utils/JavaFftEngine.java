@@ -0,0 +1,267 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The pure-Java {@link FftEngine}. It runs the same real-input algorithm as the native library, an
+ * N/2-point radix-2 complex FFT over the even/odd samples untangled by a post-twiddle pass, in
+ * double precision whatever the precision of the arrays.
+ *
+ * The twiddle and bit-reversal tables are built once per size and shared by all the threads, and
+ * the working buffers are kept per thread and only grow, so the steady-state path does not allocate.
+ */
+public class JavaFftEngine implements FftEngine {
+    public static final String NAME = "java";
+
+    // indexed by log2(N); a Table only has final fields, so it is safely published without a lock
+    private static final Table[] sTables = new Table[31];
+
+    private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final class Table {
+        final int n;
+        // e^(-2*pi*i*k/N) for k in [0, N/2], the N/2-point transform takes every other one
+        final double[] cos;
+        final double[] sin;
+        // the bit-reversal permutation of the N/2-point transform
+        final int[] bitrev;
+
+        Table(int n) {
+            this.n = n;
+            int m = Math.max(1, n/2);
+            cos = new double[m + 1];
+            sin = new double[m + 1];
+            for (int k = 0; k <= m; k++) {
+                cos[k] = Math.cos(2 * Math.PI * k / n);
+                sin[k] = -Math.sin(2 * Math.PI * k / n);
+            }
+            bitrev = new int[m];
+            int bits = Integer.numberOfTrailingZeros(m);
+            for (int i = 0; i < m; i++)
+                bitrev[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    private static final class Scratch {
+        double[] re = new double[0];
+        double[] im = new double[0];
+        double[] amp = new double[0];
+        float[] signal = new float[0];
+        float[] window = new float[0];
+        int windowType = WINDOW_NONE;
+        final PcmDecoder decoder = new PcmDecoder(2, 1, 1, 1f);
+
+        void ensure(int n) {
+            int m = Math.max(1, n/2);
+            if (re.length < m) {
+                re = new double[m];
+                im = new double[m];
+            }
+            if (amp.length < m + 1)
+                amp = new double[m + 1];
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int transformAbs(float[] signal, int size, float[] spectrum) {
+        FftEngines.checkTransform(signal.length, size, spectrum.length);
+        Scratch scratch = mScratch.get();
+        Table table = getTable(FftEngines.ceilpw2(size));
+        scratch.ensure(table.n);
+
+        double[] re = scratch.re;
+        double[] im = scratch.im;
+        if (table.n == 1) {
+            re[0] = signal[0];
+            im[0] = 0;
+        } else {
+            for (int i = 0; i < table.n/2; i++) {
+                re[i] = 2*i < size ? signal[2*i] : 0;
+                im[i] = 2*i+1 < size ? signal[2*i+1] : 0;
+            }
+        }
+
+        int nbins = transformRealAbs(scratch, table);
+        for (int k = 0; k < nbins; k++)
+            spectrum[k] = (float) scratch.amp[k];
+        return nbins;
+    }
+
+    @Override
+    public int transformAbs(double[] signal, int size, double[] spectrum) {
+        FftEngines.checkTransform(signal.length, size, spectrum.length);
+        Scratch scratch = mScratch.get();
+        Table table = getTable(FftEngines.ceilpw2(size));
+        scratch.ensure(table.n);
+
+        double[] re = scratch.re;
+        double[] im = scratch.im;
+        if (table.n == 1) {
+            re[0] = signal[0];
+            im[0] = 0;
+        } else {
+            for (int i = 0; i < table.n/2; i++) {
+                re[i] = 2*i < size ? signal[2*i] : 0;
+                im[i] = 2*i+1 < size ? signal[2*i+1] : 0;
+            }
+        }
+
+        int nbins = transformRealAbs(scratch, table);
+        System.arraycopy(scratch.amp, 0, spectrum, 0, nbins);
+        return nbins;
+    }
+
+    @Override
+    public int spectrumFromPcm(byte[] pcm, int length, int bytesPerSample, int numChannels, int decimation,
+                               float normalization, int window, float[] signal, float[] spectrum) {
+        int numSamples = FftEngines.checkPcm(pcm.length, length, bytesPerSample, numChannels, decimation, window,
+                signal, spectrum);
+        Scratch scratch = mScratch.get();
+        if (signal == null) {
+            if (scratch.signal.length < numSamples)
+                scratch.signal = new float[numSamples];
+            signal = scratch.signal;
+        }
+
+        scratch.decoder.setFormat(bytesPerSample, numChannels, decimation, normalization);
+        scratch.decoder.decode(pcm, 0, length, 0, signal);
+        applyWindow(scratch, window, signal, numSamples);
+
+        return transformAbs(signal, numSamples, spectrum);
+    }
+
+    @Override
+    public int spectrumFromPcm(ByteBuffer pcm, int length, int bytesPerSample, int numChannels, int decimation,
+                               float normalization, int window, float[] signal, float[] spectrum) {
+        int numSamples = FftEngines.checkPcm(pcm.remaining(), length, bytesPerSample, numChannels, decimation,
+                window, signal, spectrum);
+        Scratch scratch = mScratch.get();
+        if (signal == null) {
+            if (scratch.signal.length < numSamples)
+                scratch.signal = new float[numSamples];
+            signal = scratch.signal;
+        }
+
+        scratch.decoder.setFormat(bytesPerSample, numChannels, decimation, normalization);
+        scratch.decoder.decode(pcm, length, 0, signal);
+        applyWindow(scratch, window, signal, numSamples);
+
+        return transformAbs(signal, numSamples, spectrum);
+    }
+
+    private static void applyWindow(Scratch scratch, int window, float[] signal, int size) {
+        if (window == WINDOW_NONE)
+            return;
+        float[] coefs = getWindow(scratch, window, size);
+        for (int i = 0; i < size; i++)
+            signal[i] *= coefs[i];
+    }
+
+    private static float[] getWindow(Scratch scratch, int window, int size) {
+        // the shared windows are behind a lock, so the last one is kept at hand; the periodic Hann
+        // has the same coefficients as the native one
+        if (scratch.windowType != window || scratch.window.length != size) {
+            scratch.window = Windows.get(window, size);
+            scratch.windowType = window;
+        }
+        return scratch.window;
+    }
+
+    private static Table getTable(int n) {
+        int log2n = Integer.numberOfTrailingZeros(n);
+        Table table = sTables[log2n];
+        if (table == null) {
+            // a race only builds the same table twice
+            table = new Table(n);
+            sTables[log2n] = table;
+        }
+        return table;
+    }
+
+    /**
+     * Transforms the even/odd samples loaded in scratch.re/im and leaves the N/2+1 magnitudes in
+     * scratch.amp; returns their number.
+     */
+    private static int transformRealAbs(Scratch scratch, Table table) {
+        double[] re = scratch.re;
+        double[] im = scratch.im;
+        double[] amp = scratch.amp;
+        int n = table.n;
+        if (n == 1) {
+            amp[0] = Math.abs(re[0]);
+            return 1;
+        }
+
+        int m = n/2;
+        transformComplex(re, im, table);
+
+        double scale = 1.0 / Math.sqrt(n);
+        double halfScale = 0.5 * scale;
+        amp[0] = Math.abs((re[0] + im[0]) * scale);
+        amp[m] = Math.abs((re[0] - im[0]) * scale);
+
+        double[] cos = table.cos;
+        double[] sin = table.sin;
+        for (int k = 1; k <= m/2; k++) {
+            // Z[k] and conj(Z[m-k]) give the spectra of the even and the odd samples
+            double zr = re[k], zi = im[k];
+            double cr = re[m-k], ci = -im[m-k];
+            double evenR = zr + cr, evenI = zi + ci;
+            double oddR = zi - ci, oddI = -(zr - cr);
+
+            double xr = evenR + cos[k]*oddR - sin[k]*oddI;
+            double xi = evenI + cos[k]*oddI + sin[k]*oddR;
+            amp[k] = Math.sqrt(xr*xr + xi*xi) * halfScale;
+
+            xr = evenR + cos[m-k]*oddR + sin[m-k]*oddI;
+            xi = -evenI - cos[m-k]*oddI + sin[m-k]*oddR;
+            amp[m-k] = Math.sqrt(xr*xr + xi*xi) * halfScale;
+        }
+        return m + 1;
+    }
+
+    /**
+     * The in-place, unscaled, N/2-point radix-2 decimation-in-time FFT.
+     */
+    private static void transformComplex(double[] re, double[] im, Table table) {
+        int n = table.n;
+        int m = n/2;
+        int[] bitrev = table.bitrev;
+        for (int i = 0; i < m; i++) {
+            int j = bitrev[i];
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+
+        double[] cos = table.cos;
+        double[] sin = table.sin;
+        for (int len = 2; len <= m; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            for (int i = 0; i < m; i += len) {
+                for (int j = 0; j < half; j++) {
+                    double wr = cos[j*step], wi = sin[j*step];
+                    int a = i + j, b = a + half;
+                    double tr = re[b]*wr - im[b]*wi;
+                    double ti = re[b]*wi + im[b]*wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
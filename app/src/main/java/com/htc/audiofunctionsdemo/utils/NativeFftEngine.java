@@ -0,0 +1,47 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link FftEngine} of the native-fft library. The library is only loaded when the engine is
+ * created, so referencing this class does not require it.
+ */
+public class NativeFftEngine implements FftEngine {
+    public static final String NAME = "native";
+
+    /**
+     * @throws UnsatisfiedLinkError if the native-fft library cannot be loaded
+     */
+    public NativeFftEngine() {
+        FFT.getVersion();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int transformAbs(float[] signal, int size, float[] spectrum) {
+        return FFT.transformAbs(signal, size, spectrum);
+    }
+
+    @Override
+    public int transformAbs(double[] signal, int size, double[] spectrum) {
+        return FFT.transformAbs(signal, size, spectrum);
+    }
+
+    @Override
+    public int spectrumFromPcm(byte[] pcm, int length, int bytesPerSample, int numChannels, int decimation,
+                               float normalization, int window, float[] signal, float[] spectrum) {
+        return FFT.spectrumFromPcm(pcm, length, bytesPerSample, numChannels, decimation, normalization, window,
+                signal, spectrum);
+    }
+
+    @Override
+    public int spectrumFromPcm(ByteBuffer pcm, int length, int bytesPerSample, int numChannels, int decimation,
+                               float normalization, int window, float[] signal, float[] spectrum) {
+        return FFT.spectrumFromPcm(pcm, length, bytesPerSample, numChannels, decimation, normalization, window,
+                signal, spectrum);
+    }
+}
@@ -0,0 +1,119 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of direct buffers for the PCM read from AudioRecord, so that the blocks can be handed
+ * over to their consumers (the native FFT, file writers) without being copied nor reallocated.
+ *
+ * A buffer taken from the pool with {@link #acquire()} is owned by whoever holds it: the owner may
+ * pass it on, or share it with {@link Buffer#retain()}, and every holder gives it back with
+ * {@link Buffer#release()}. The last release returns it to the pool. When all the buffers are out,
+ * acquire() returns null rather than allocating, and the miss is counted.
+ *
+ * Any thread may release; acquire() is meant to be called by the single producer, which the
+ * exhaustion count assumes.
+ */
+public class PcmBufferPool {
+    private final Buffer[] mBuffers;
+    private final ArrayBlockingQueue<Buffer> mFree;
+    private final int mBufferSize;
+    private volatile long mExhausted;
+
+    public static final class Buffer {
+        private final PcmBufferPool mPool;
+        private final ByteBuffer mData;
+        private final AtomicInteger mRefs = new AtomicInteger();
+
+        private Buffer(PcmBufferPool pool, int size) {
+            mPool = pool;
+            mData = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * The PCM, from position 0 to the limit. The holders of a shared buffer must only read it
+         * with absolute gets, or through a duplicate(), and leave its position and limit alone.
+         */
+        public ByteBuffer data() {
+            return mData;
+        }
+
+        public int getLength() {
+            return mData.limit();
+        }
+
+        /**
+         * Adds a holder, which will have to release() the buffer too.
+         */
+        public void retain() {
+            if (mRefs.getAndIncrement() <= 0)
+                throw new IllegalStateException("the buffer is back in its pool");
+        }
+
+        /**
+         * Gives the buffer up; the last holder returns it to its pool.
+         */
+        public void release() {
+            int refs = mRefs.decrementAndGet();
+            if (refs == 0)
+                mPool.recycle(this);
+            else if (refs < 0)
+                throw new IllegalStateException("the buffer was released more times than acquired");
+        }
+    }
+
+    public PcmBufferPool(int numBuffers, int bufferSize) {
+        if (numBuffers < 1 || bufferSize < 1)
+            throw new IllegalArgumentException("invalid pool " + numBuffers + "x" + bufferSize);
+        mBuffers = new Buffer[numBuffers];
+        mFree = new ArrayBlockingQueue<>(numBuffers);
+        mBufferSize = bufferSize;
+        for (int i = 0; i < numBuffers; i++) {
+            mBuffers[i] = new Buffer(this, bufferSize);
+            mFree.add(mBuffers[i]);
+        }
+    }
+
+    public int getCapacity() {
+        return mBuffers.length;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * The number of buffers in the pool, i.e. not held by anyone.
+     */
+    public int available() {
+        return mFree.size();
+    }
+
+    /**
+     * The number of times acquire() found the pool empty.
+     */
+    public long getExhausted() {
+        return mExhausted;
+    }
+
+    /**
+     * Takes a cleared buffer, held once by the caller, or returns null if all of them are held.
+     */
+    public Buffer acquire() {
+        Buffer buffer = mFree.poll();
+        if (buffer == null) {
+            mExhausted++;
+            return null;
+        }
+        buffer.mData.clear();
+        buffer.mRefs.set(1);
+        return buffer;
+    }
+
+    private void recycle(Buffer buffer) {
+        mFree.add(buffer);
+    }
+}
@@ -0,0 +1,213 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the interleaved little-endian PCM read from AudioRecord to normalized samples: 16-bit
+ * samples, packed 24-bit ones, or 24-bit ones in 32-bit containers (sign-extended, as the HD
+ * capture delivers them), into mono or planar stereo float/double arrays the caller provides.
+ *
+ * A decoder holds no buffer of its own, so it never allocates: keep one per format (or reuse one
+ * with {@link #setFormat}) and decode every read into the same arrays. Every decimation-th frame
+ * is taken, without filtering. A decoder is not thread-safe while its format changes.
+ */
+public class PcmDecoder {
+    /**
+     * As the channel of the mono decoding, averages all the channels.
+     */
+    public static final int CHANNEL_MIX = -1;
+
+    private int mBytesPerSample;
+    private int mNumChannels;
+    private int mDecimation;
+    private float mGain;
+    private double mGainDbl;
+
+    /**
+     * @param bytesPerSample 2 (16-bit), 3 (packed 24-bit) or 4 (32-bit containers)
+     * @param normalization the value of the full scale, e.g. 32768 for 16-bit samples
+     */
+    public PcmDecoder(int bytesPerSample, int numChannels, int decimation, float normalization) {
+        setFormat(bytesPerSample, numChannels, decimation, normalization);
+    }
+
+    public void setFormat(int bytesPerSample, int numChannels, int decimation, float normalization) {
+        if (bytesPerSample < 2 || bytesPerSample > 4)
+            throw new IllegalArgumentException("unsupported bytes per sample: " + bytesPerSample);
+        if (numChannels < 1 || decimation < 1)
+            throw new IllegalArgumentException("invalid channels/decimation: " + numChannels + "/" + decimation);
+        if (!(normalization > 0))
+            throw new IllegalArgumentException("invalid normalization: " + normalization);
+        mBytesPerSample = bytesPerSample;
+        mNumChannels = numChannels;
+        mDecimation = decimation;
+        mGain = 1.0f / normalization;
+        mGainDbl = 1.0 / normalization;
+    }
+
+    public int getBytesPerSample() {
+        return mBytesPerSample;
+    }
+
+    public int getNumChannels() {
+        return mNumChannels;
+    }
+
+    public int getDecimation() {
+        return mDecimation;
+    }
+
+    /**
+     * The number of samples per channel decoded out of length bytes of PCM.
+     */
+    public int getNumSamples(int length) {
+        return length / (mBytesPerSample * mNumChannels * mDecimation);
+    }
+
+    /**
+     * Decodes one channel, or the average of all of them with CHANNEL_MIX.
+     *
+     * @return the number of samples written, {@link #getNumSamples}(length)
+     */
+    public int decode(byte[] pcm, int offset, int length, int channel, float[] out) {
+        int n = checkDecode(pcm.length - offset, offset, length, channel, out.length);
+        int bps = mBytesPerSample;
+        int stride = bps * mNumChannels * mDecimation;
+        if (channel == CHANNEL_MIX) {
+            float gain = mGain / mNumChannels;
+            for (int i = 0; i < n; i++) {
+                int frame = offset + i*stride;
+                long sum = 0;
+                for (int c = 0; c < mNumChannels; c++)
+                    sum += readSample(pcm, frame + c*bps, bps);
+                out[i] = sum * gain;
+            }
+        } else {
+            float gain = mGain;
+            int base = offset + channel*bps;
+            for (int i = 0; i < n; i++)
+                out[i] = readSample(pcm, base + i*stride, bps) * gain;
+        }
+        return n;
+    }
+
+    public int decode(byte[] pcm, int offset, int length, int channel, double[] out) {
+        int n = checkDecode(pcm.length - offset, offset, length, channel, out.length);
+        int bps = mBytesPerSample;
+        int stride = bps * mNumChannels * mDecimation;
+        if (channel == CHANNEL_MIX) {
+            double gain = mGainDbl / mNumChannels;
+            for (int i = 0; i < n; i++) {
+                int frame = offset + i*stride;
+                long sum = 0;
+                for (int c = 0; c < mNumChannels; c++)
+                    sum += readSample(pcm, frame + c*bps, bps);
+                out[i] = sum * gain;
+            }
+        } else {
+            double gain = mGainDbl;
+            int base = offset + channel*bps;
+            for (int i = 0; i < n; i++)
+                out[i] = readSample(pcm, base + i*stride, bps) * gain;
+        }
+        return n;
+    }
+
+    /**
+     * The same, reading the PCM from the position of the buffer, which does not move; the byte
+     * order of the buffer does not matter.
+     */
+    public int decode(ByteBuffer pcm, int length, int channel, float[] out) {
+        int offset = pcm.position();
+        int n = checkDecode(pcm.remaining(), 0, length, channel, out.length);
+        int bps = mBytesPerSample;
+        int stride = bps * mNumChannels * mDecimation;
+        if (channel == CHANNEL_MIX) {
+            float gain = mGain / mNumChannels;
+            for (int i = 0; i < n; i++) {
+                int frame = offset + i*stride;
+                long sum = 0;
+                for (int c = 0; c < mNumChannels; c++)
+                    sum += readSample(pcm, frame + c*bps, bps);
+                out[i] = sum * gain;
+            }
+        } else {
+            float gain = mGain;
+            int base = offset + channel*bps;
+            for (int i = 0; i < n; i++)
+                out[i] = readSample(pcm, base + i*stride, bps) * gain;
+        }
+        return n;
+    }
+
+    /**
+     * Decodes the first two channels into left and right.
+     *
+     * @return the number of samples written to each of them
+     */
+    public int decodeStereo(byte[] pcm, int offset, int length, float[] left, float[] right) {
+        if (mNumChannels < 2)
+            throw new IllegalArgumentException("the PCM is mono");
+        int n = checkDecode(pcm.length - offset, offset, length, 0, Math.min(left.length, right.length));
+        int bps = mBytesPerSample;
+        int stride = bps * mNumChannels * mDecimation;
+        float gain = mGain;
+        for (int i = 0; i < n; i++) {
+            int frame = offset + i*stride;
+            left[i] = readSample(pcm, frame, bps) * gain;
+            right[i] = readSample(pcm, frame + bps, bps) * gain;
+        }
+        return n;
+    }
+
+    public int decodeStereo(byte[] pcm, int offset, int length, double[] left, double[] right) {
+        if (mNumChannels < 2)
+            throw new IllegalArgumentException("the PCM is mono");
+        int n = checkDecode(pcm.length - offset, offset, length, 0, Math.min(left.length, right.length));
+        int bps = mBytesPerSample;
+        int stride = bps * mNumChannels * mDecimation;
+        double gain = mGainDbl;
+        for (int i = 0; i < n; i++) {
+            int frame = offset + i*stride;
+            left[i] = readSample(pcm, frame, bps) * gain;
+            right[i] = readSample(pcm, frame + bps, bps) * gain;
+        }
+        return n;
+    }
+
+    private int checkDecode(int available, int offset, int length, int channel, int outLength) {
+        if (offset < 0 || length < 0 || length > available)
+            throw new IllegalArgumentException("invalid offset/length: " + offset + "/" + length);
+        if (channel != CHANNEL_MIX && (channel < 0 || channel >= mNumChannels))
+            throw new IllegalArgumentException("invalid channel: " + channel);
+        int n = getNumSamples(length);
+        if (outLength < n)
+            throw new IllegalArgumentException("the output holds less than " + n + " samples");
+        return n;
+    }
+
+    static int readSample(byte[] pcm, int offset, int bytesPerSample) {
+        switch (bytesPerSample) {
+            case 2:
+                return (short) ((pcm[offset] & 0xff) | (pcm[offset+1] << 8));
+            case 3:
+                return ((pcm[offset] & 0xff) << 8 | (pcm[offset+1] & 0xff) << 16 | pcm[offset+2] << 24) >> 8;
+            default:
+                return (pcm[offset] & 0xff) | (pcm[offset+1] & 0xff) << 8 | (pcm[offset+2] & 0xff) << 16
+                        | pcm[offset+3] << 24;
+        }
+    }
+
+    // absolute gets of the single bytes, so the byte order of the buffer does not matter
+    static int readSample(ByteBuffer pcm, int offset, int bytesPerSample) {
+        switch (bytesPerSample) {
+            case 2:
+                return (short) ((pcm.get(offset) & 0xff) | (pcm.get(offset+1) << 8));
+            case 3:
+                return ((pcm.get(offset) & 0xff) << 8 | (pcm.get(offset+1) & 0xff) << 16 | pcm.get(offset+2) << 24) >> 8;
+            default:
+                return (pcm.get(offset) & 0xff) | (pcm.get(offset+1) & 0xff) << 8 | (pcm.get(offset+2) & 0xff) << 16
+                        | pcm.get(offset+3) << 24;
+        }
+    }
+}
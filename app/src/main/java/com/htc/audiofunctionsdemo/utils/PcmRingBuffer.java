@@ -0,0 +1,149 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free single-producer/single-consumer ring of PCM blocks, which decouples the capture
+ * thread from the analysis of what it reads.
+ *
+ * All the blocks are allocated up front and handed out in place: the producer fills the array
+ * returned by {@link #acquireWrite()} and publishes it with {@link #commitWrite(int)}, the consumer
+ * processes the array returned by {@link #acquireRead(long)} and gives it back with
+ * {@link #releaseRead()}. When the consumer falls behind and the ring is full, the producer is not
+ * held up: acquireWrite() returns null and the block it would have written is counted as dropped.
+ *
+ * Exactly one thread may produce and one thread may consume at a time.
+ */
+public class PcmRingBuffer {
+    private final byte[][] mBlocks;
+    private final int[] mLengths;
+    private final int mBlockSize;
+
+    // the total number of blocks written and read; each one only moves forward and is only set by
+    // its own side, with a release store so that the other side sees the block content first
+    private final AtomicLong mWriteIndex = new AtomicLong();
+    private final AtomicLong mReadIndex = new AtomicLong();
+
+    // only set by the producer
+    private volatile long mOverruns;
+    private volatile long mDroppedBlocks;
+    private boolean mOverrunning;
+
+    private volatile Thread mConsumer;
+
+    public PcmRingBuffer(int numBlocks, int blockSize) {
+        if (numBlocks < 1 || blockSize < 1)
+            throw new IllegalArgumentException("invalid ring " + numBlocks + "x" + blockSize);
+        mBlocks = new byte[numBlocks][blockSize];
+        mLengths = new int[numBlocks];
+        mBlockSize = blockSize;
+    }
+
+    public int getCapacity() {
+        return mBlocks.length;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * The number of blocks written but not released by the consumer yet.
+     */
+    public int size() {
+        return (int) (mWriteIndex.get() - mReadIndex.get());
+    }
+
+    /**
+     * The number of times the producer found the ring full, counting a run of consecutive dropped
+     * blocks once.
+     */
+    public long getOverruns() {
+        return mOverruns;
+    }
+
+    public long getDroppedBlocks() {
+        return mDroppedBlocks;
+    }
+
+    public long getWrittenBlocks() {
+        return mWriteIndex.get();
+    }
+
+    /**
+     * Producer side: returns the block to fill next, or null if the ring is full, in which case the
+     * block is counted as dropped and the producer is expected to discard what it has to write.
+     */
+    public byte[] acquireWrite() {
+        long write = mWriteIndex.get();
+        if (write - mReadIndex.get() == mBlocks.length) {
+            mDroppedBlocks++;
+            if (!mOverrunning) {
+                mOverrunning = true;
+                mOverruns++;
+            }
+            return null;
+        }
+        return mBlocks[(int) (write % mBlocks.length)];
+    }
+
+    /**
+     * Producer side: publishes the block returned by the last acquireWrite(), holding length bytes.
+     */
+    public void commitWrite(int length) {
+        long write = mWriteIndex.get();
+        mLengths[(int) (write % mBlocks.length)] = length;
+        mOverrunning = false;
+        mWriteIndex.lazySet(write + 1);
+
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Consumer side: returns the oldest block written, waiting up to timeoutMillis for one, or null
+     * if there is still none.
+     */
+    public byte[] acquireRead(long timeoutMillis) throws InterruptedException {
+        long read = mReadIndex.get();
+        if (read == mWriteIndex.get()) {
+            mConsumer = Thread.currentThread();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (read == mWriteIndex.get()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return null;
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+        }
+        return mBlocks[(int) (read % mBlocks.length)];
+    }
+
+    /**
+     * Consumer side: the number of valid bytes of the block returned by the last acquireRead().
+     */
+    public int getReadLength() {
+        return mLengths[(int) (mReadIndex.get() % mBlocks.length)];
+    }
+
+    /**
+     * Consumer side: gives the block returned by the last acquireRead() back to the producer.
+     */
+    public void releaseRead() {
+        mReadIndex.lazySet(mReadIndex.get() + 1);
+    }
+
+    /**
+     * Wakes up the consumer if it waits in acquireRead(), e.g. to let it notice a shutdown.
+     */
+    public void wakeUpConsumer() {
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+}
@@ -0,0 +1,141 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.util.Locale;
+
+/**
+ * The search of the tone in a magnitude spectrum, kept free of Android dependencies so that it can
+ * be tested and benchmarked on a JVM.
+ *
+ * The peak bin alone quantizes the frequency to the bin width, fs/N. {@link #interpolate} places
+ * the peak between the bins from the magnitudes of its neighbours, and {@link #zoom} refines it
+ * further from the signal itself, so that short frames still give sub-Hz readings.
+ */
+public class PeakFinder {
+    public static final int INTERPOLATION_NONE = 0;
+    // a parabola through the magnitudes of the peak and its neighbours
+    public static final int INTERPOLATION_QUADRATIC = 1;
+    // the same through their logarithms, exact for a Gaussian peak and closer for the windowed ones
+    public static final int INTERPOLATION_GAUSSIAN = 2;
+
+    private static final String[] INTERPOLATION_NAMES = {"none", "quadratic", "gaussian"};
+
+    private PeakFinder() {
+    }
+
+    /**
+     * Returns the index of the largest magnitude within [from, to], the first one among equal
+     * maxima; indexes past the end of the spectrum count as a magnitude of 0. Returns from-1 if the
+     * range is empty.
+     */
+    public static int findPeak(float[] spectrum, int from, int to) {
+        int maxIdx = from - 1;
+        float maxValue = -1;
+        for (int i = from; i <= to; i++) {
+            float v = (i < spectrum.length) ? spectrum[i] : 0;
+            if (v > maxValue || maxIdx < from) {
+                maxIdx = i;
+                maxValue = v;
+            }
+        }
+        return maxIdx;
+    }
+
+    /**
+     * The position of the peak at the bin peak, in (fractional) bins, within half a bin of it. The
+     * bins at the ends of the spectrum are returned as they are.
+     */
+    public static double interpolate(float[] spectrum, int peak, int method) {
+        if (method == INTERPOLATION_NONE || peak <= 0 || peak >= spectrum.length - 1)
+            return peak;
+        double a = spectrum[peak - 1];
+        double b = spectrum[peak];
+        double c = spectrum[peak + 1];
+        if (method == INTERPOLATION_GAUSSIAN) {
+            // a bin may be exactly 0, e.g. next to a tone on a bin with no window
+            a = Math.log(Math.max(a, Float.MIN_NORMAL));
+            b = Math.log(Math.max(b, Float.MIN_NORMAL));
+            c = Math.log(Math.max(c, Float.MIN_NORMAL));
+        } else if (method != INTERPOLATION_QUADRATIC) {
+            throw new IllegalArgumentException("unknown interpolation: " + method);
+        }
+        return peak + vertex(a, b, c);
+    }
+
+    /**
+     * Refines the frequency of a peak by evaluating the spectrum of the signal on a fine grid
+     * around it, with one Goertzel filter per point, and interpolating the best of them: a zoom on
+     * the band around the peak, at O(N) per point instead of a longer FFT.
+     *
+     * @param frequency the estimate to refine, in Hz
+     * @param halfSpan the half width of the band searched, in Hz, e.g. one bin width
+     * @param points the number of frequencies evaluated over the band, at least 3
+     * @param window one of the {@link Windows} types, applied to the length samples
+     * @return the refined frequency, in Hz
+     */
+    public static double zoom(float[] signal, int length, int samplingRate, int window,
+                              double frequency, double halfSpan, int points) {
+        if (length < 2 || length > signal.length || points < 3 || !(halfSpan > 0))
+            throw new IllegalArgumentException("invalid zoom of " + length + " samples over " + points + " points");
+        float[] w = Windows.get(window, length);
+        double nyquist = samplingRate / 2.0;
+        double from = Math.max(0, frequency - halfSpan);
+        double to = Math.min(nyquist, frequency + halfSpan);
+        double step = (to - from) / (points - 1);
+        if (!(step > 0))
+            return frequency;
+
+        int best = 0;
+        double bestPower = -1;
+        for (int i = 0; i < points; i++) {
+            double power = power(signal, w, length, samplingRate, from + i*step);
+            if (power > bestPower) {
+                best = i;
+                bestPower = power;
+            }
+        }
+        double f = from + best*step;
+        if (best == 0 || best == points - 1)
+            return f;
+        // the main lobe of the window is close to a Gaussian at this scale
+        double left = Math.log(Math.max(power(signal, w, length, samplingRate, f - step), Double.MIN_NORMAL));
+        double right = Math.log(Math.max(power(signal, w, length, samplingRate, f + step), Double.MIN_NORMAL));
+        return f + step * vertex(left, Math.log(Math.max(bestPower, Double.MIN_NORMAL)), right);
+    }
+
+    public static String getInterpolationName(int method) {
+        if (method < 0 || method >= INTERPOLATION_NAMES.length)
+            throw new IllegalArgumentException("unknown interpolation: " + method);
+        return INTERPOLATION_NAMES[method];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the name is none of the getInterpolationName() ones
+     */
+    public static int interpolationFromName(String name) {
+        for (int method = 0; method < INTERPOLATION_NAMES.length; method++) {
+            if (INTERPOLATION_NAMES[method].equals(name.toLowerCase(Locale.US)))
+                return method;
+        }
+        throw new IllegalArgumentException("unknown interpolation: " + name);
+    }
+
+    // the offset of the vertex of the parabola through (-1, a), (0, b), (1, c), within [-0.5, 0.5]
+    private static double vertex(double a, double b, double c) {
+        double d = a - 2*b + c;
+        if (!(d < 0))
+            return 0;
+        return Math.max(-0.5, Math.min(0.5, 0.5 * (a - c) / d));
+    }
+
+    // |X(f)|^2 of the windowed signal, by the Goertzel recursion
+    private static double power(float[] signal, float[] window, int length, int samplingRate, double frequency) {
+        double coef = 2 * Math.cos(2 * Math.PI * frequency / samplingRate);
+        double s1 = 0, s2 = 0;
+        for (int i = 0; i < length; i++) {
+            double s = signal[i] * window[i] + coef * s1 - s2;
+            s2 = s1;
+            s1 = s;
+        }
+        return s1*s1 + s2*s2 - coef*s1*s2;
+    }
+}
@@ -0,0 +1,184 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.util.Arrays;
+
+/**
+ * A streaming anti-aliased sample rate reduction by any rational factor, e.g. from the 96 kHz HD
+ * capture down to the analysis rate, as a polyphase FIR filter.
+ *
+ * The rates reduce to outputRate/inputRate = L/M. The prototype low-pass is a Kaiser-windowed sinc
+ * at the L-times upsampled rate, flat up to 80% of the output Nyquist frequency and down by
+ * {@link #STOPBAND_ATTENUATION_DB} from the output Nyquist frequency on, so nothing aliases into
+ * the band below 80% of it. It is split into its L phases, so that every output sample only costs
+ * the taps of one phase and the upsampled zeros are never computed.
+ *
+ * The filter keeps its history across the calls of {@link #process}, so a stream fed in blocks of
+ * any size comes out the same as if fed at once, delayed by {@link #getDelay()} output samples.
+ * Nothing is allocated after the construction. Not thread-safe: one decimator per stream.
+ */
+public class PolyphaseDecimator {
+    public static final double STOPBAND_ATTENUATION_DB = 80;
+    // the pass band and the transition band, relative to the output Nyquist frequency
+    private static final double PASSBAND_EDGE = 0.8;
+    private static final double STOPBAND_EDGE = 1.0;
+
+    private final int mInputRate;
+    private final int mOutputRate;
+    private final int mUp;
+    private final int mDown;
+    private final int mTapsPerPhase;
+    // [phase][tap], the taps reversed so that they line up with the history, oldest sample first
+    private final float[][] mCoefs;
+    private final double mDelay;
+
+    // the last mTapsPerPhase inputs, twice, so that they are always contiguous from mWrite on
+    private final float[] mHistory;
+    private int mWrite;
+    // the phase of the next output, and the number of inputs to take before it
+    private int mPhase;
+    private int mWait;
+
+    public PolyphaseDecimator(int inputRate, int outputRate) {
+        if (inputRate <= 0 || outputRate <= 0 || outputRate > inputRate)
+            throw new IllegalArgumentException("cannot decimate " + inputRate + " Hz to " + outputRate + " Hz");
+        int gcd = gcd(inputRate, outputRate);
+        mInputRate = inputRate;
+        mOutputRate = outputRate;
+        mUp = outputRate / gcd;
+        mDown = inputRate / gcd;
+
+        // Kaiser's estimates, with the band edges normalized to the upsampled rate
+        double nyquist = 0.5 / mDown;
+        double cutoff = 0.5 * (PASSBAND_EDGE + STOPBAND_EDGE) * nyquist;
+        double transition = (STOPBAND_EDGE - PASSBAND_EDGE) * nyquist;
+        double beta = 0.1102 * (STOPBAND_ATTENUATION_DB - 8.7);
+        int length = (int) Math.ceil((STOPBAND_ATTENUATION_DB - 8) / (2.285 * 2 * Math.PI * transition)) + 1;
+        mTapsPerPhase = (length + mUp - 1) / mUp;
+        length = mTapsPerPhase * mUp;
+
+        double[] prototype = new double[length];
+        double center = 0.5 * (length - 1);
+        double norm = besselI0(beta);
+        for (int n = 0; n < length; n++) {
+            double t = n - center;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double r = t / center;
+            double window = center == 0 ? 1 : besselI0(beta * Math.sqrt(Math.max(0, 1 - r*r))) / norm;
+            // the gain of L makes up for the zeros of the upsampling
+            prototype[n] = mUp * sinc * window;
+        }
+
+        mCoefs = new float[mUp][mTapsPerPhase];
+        for (int phase = 0; phase < mUp; phase++) {
+            for (int k = 0; k < mTapsPerPhase; k++)
+                mCoefs[phase][mTapsPerPhase - 1 - k] = (float) prototype[phase + k*mUp];
+        }
+        mDelay = center / mDown;
+        mHistory = new float[2 * mTapsPerPhase];
+        reset();
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // the zeroth-order modified Bessel function of the first kind, by its power series
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-16)
+                break;
+        }
+        return sum;
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int getOutputRate() {
+        return mOutputRate;
+    }
+
+    /**
+     * The number of taps evaluated per output sample.
+     */
+    public int getTapsPerPhase() {
+        return mTapsPerPhase;
+    }
+
+    /**
+     * The group delay of the filter, in output samples.
+     */
+    public double getDelay() {
+        return mDelay;
+    }
+
+    /**
+     * An upper bound of the number of samples process() outputs for length inputs.
+     */
+    public int getMaxOutput(int length) {
+        return (int) ((long) length * mUp / mDown) + 1;
+    }
+
+    /**
+     * Forgets the history, as at the start of a new stream.
+     */
+    public void reset() {
+        Arrays.fill(mHistory, 0f);
+        mWrite = 0;
+        mPhase = 0;
+        mWait = 1;
+    }
+
+    /**
+     * Filters and decimates the next length samples of the stream.
+     *
+     * @param out receives the output samples, at least {@link #getMaxOutput}(length) of them
+     * @return the number of samples written
+     */
+    public int process(float[] in, int offset, int length, float[] out) {
+        if (offset < 0 || length < 0 || offset + length > in.length)
+            throw new IllegalArgumentException("invalid offset/length: " + offset + "/" + length);
+        if (out.length < getMaxOutput(length))
+            throw new IllegalArgumentException("the output holds less than " + getMaxOutput(length) + " samples");
+
+        float[] history = mHistory;
+        int taps = mTapsPerPhase;
+        int write = mWrite;
+        int phase = mPhase;
+        int wait = mWait;
+        int produced = 0;
+        for (int i = offset; i < offset + length; i++) {
+            float x = in[i];
+            history[write] = x;
+            history[write + taps] = x;
+            if (++write == taps)
+                write = 0;
+
+            if (--wait == 0) {
+                // history[write .. write+taps) holds the last inputs, oldest first
+                float[] coefs = mCoefs[phase];
+                float acc = 0;
+                for (int k = 0; k < taps; k++)
+                    acc += coefs[k] * history[write + k];
+                out[produced++] = acc;
+
+                phase += mDown;
+                wait = phase / mUp;
+                phase %= mUp;
+            }
+        }
+        mWrite = write;
+        mPhase = phase;
+        mWait = wait;
+        return produced;
+    }
+}
@@ -14,10 +14,23 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class RecorderIO extends Thread {
     private static final String TAG = Constants.packageTag("RecorderIO");
 
+    /**
+     * The loop is only paced by the blocking reads of the whole buffer of bufMillis.
+     */
+    public static final int CAPTURE_MODE_BLOCKING = 0;
+    /**
+     * The loop reads one period at a time out of a recorder buffer of a few periods, so that every
+     * block reaches the listener a period after it was captured.
+     */
+    public static final int CAPTURE_MODE_LOW_LATENCY = 1;
+
     private int mSampleRate;
     private int mChannelConfig;
     private int mNumChannels;
@@ -29,14 +42,28 @@ public class RecorderIO extends Thread {
     private Runnable content;
     private AudioRecord mRecorder;
     private int mBufferSize = 0;
-    private boolean isTerminated = false;
+    private int mReadSize = 0;
+    private volatile boolean isTerminated = false;
     private int mBufferMillis = 0;
+    private int mCaptureMode = CAPTURE_MODE_BLOCKING;
+    private int mPeriodMillis = Constants.AudioRecordConfig.LOW_LATENCY_PERIOD_MILLIS;
+    private volatile CaptureStats mCaptureStats;
+
+    // the reads are handed over to the analysis thread, so that the listener never holds up the capture;
+    // set by the capture thread for each capture, and read by the others for the counters
+    private volatile PcmRingBuffer mRingBuffer;
+    private Thread mAnalysisThread;
+    // the direct capture reads into pooled buffers instead, and hands them over to the buffer listener
+    private boolean mDirectCapture = false;
+    private volatile PcmBufferPool mBufferPool;
+    private ArrayBlockingQueue<PcmBufferPool.Buffer> mBufferQueue;
 
     // error
     public Exception excep = null;
     public String errorMsg = "";
 
     private RecorderIOListener mListener = null;
+    private RecorderIOBufferListener mBufferListener = null;
 
     public RecorderIO() {
         createRecordContent();
@@ -74,22 +101,87 @@ public class RecorderIO extends Thread {
         mListener = listener;
     }
 
+    public void setRecorderIOBufferListener(RecorderIOBufferListener listener) {
+        mBufferListener = listener;
+    }
+
+    /**
+     * Selects the direct capture, which reads into direct buffers of a fixed pool and hands them
+     * over to the RecorderIOBufferListener instead of the RecorderIOListener. Takes effect on the
+     * next startRecord().
+     */
+    public void setDirectCapture(boolean direct) {
+        mDirectCapture = direct;
+    }
+
+    /**
+     * Takes effect on the next startRecord().
+     *
+     * @param mode CAPTURE_MODE_BLOCKING (the default) or CAPTURE_MODE_LOW_LATENCY
+     * @param periodMillis the size of the reads in CAPTURE_MODE_LOW_LATENCY
+     */
+    public void setCaptureMode(int mode, int periodMillis) {
+        if (mode != CAPTURE_MODE_BLOCKING && mode != CAPTURE_MODE_LOW_LATENCY)
+            throw new IllegalArgumentException("unknown capture mode " + mode);
+        if (periodMillis <= 0)
+            throw new IllegalArgumentException("invalid period " + periodMillis + " ms");
+        mCaptureMode = mode;
+        mPeriodMillis = periodMillis;
+    }
+
+    /**
+     * The instrumentation of the current (or last) capture, null before the first one.
+     */
+    public CaptureStats getCaptureStats() {
+        return mCaptureStats;
+    }
+
     private void createRecordContent()
     {
         content = new Runnable() {
             @Override
             public void run() {
                 int ret;
-                byte data[];
-                int limit = -1;
+                byte data[] = null;
+                PcmBufferPool.Buffer buffer = null;
 
                 android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+                int bytesPerFrame = mNumChannels*mBytesPerElement;
                 mBufferSize = AudioRecord.getMinBufferSize(mSampleRate,
                         mChannelConfig, mEncodingConfig);
-                if (mBufferMillis*mSampleRate/1000*mNumChannels*mBytesPerElement > mBufferSize)
-                    mBufferSize = mBufferMillis*mSampleRate/1000*mNumChannels*mBytesPerElement;
-                Log.d(TAG, "thread start, read buffer size=" + mBufferSize);
-                data = new byte[mBufferSize];
+                if (mCaptureMode == CAPTURE_MODE_LOW_LATENCY) {
+                    mReadSize = mPeriodMillis*mSampleRate/1000*bytesPerFrame;
+                    if (Constants.AudioRecordConfig.LOW_LATENCY_BUFFER_PERIODS*mReadSize > mBufferSize)
+                        mBufferSize = Constants.AudioRecordConfig.LOW_LATENCY_BUFFER_PERIODS*mReadSize;
+                } else {
+                    if (mBufferMillis*mSampleRate/1000*bytesPerFrame > mBufferSize)
+                        mBufferSize = mBufferMillis*mSampleRate/1000*bytesPerFrame;
+                    mReadSize = mBufferSize;
+                }
+                Log.d(TAG, "thread start, mode=" + mCaptureMode + ", buffer size=" + mBufferSize + ", read size=" + mReadSize
+                        + (mDirectCapture ? ", direct" : ""));
+                // the reads are discarded into these while the ring or the pool is exhausted
+                byte[] spare = null;
+                ByteBuffer spareDirect = null;
+                final boolean direct = mDirectCapture;
+                if (direct) {
+                    spareDirect = ByteBuffer.allocateDirect(mReadSize);
+                    mBufferPool = new PcmBufferPool(Constants.AudioRecordConfig.RING_BUFFER_BLOCKS, mReadSize);
+                    // it can hold the whole pool, so handing a buffer over never fails
+                    mBufferQueue = new ArrayBlockingQueue<>(Constants.AudioRecordConfig.RING_BUFFER_BLOCKS);
+                    mRingBuffer = null;
+                } else {
+                    spare = new byte[mReadSize];
+                    mRingBuffer = new PcmRingBuffer(Constants.AudioRecordConfig.RING_BUFFER_BLOCKS, mReadSize);
+                    mBufferPool = null;
+                }
+                // the recorder may legitimately hold up to its whole buffer before a read returns
+                CaptureStats stats = new CaptureStats(mSampleRate, 1000000000L * (mBufferSize / bytesPerFrame) / mSampleRate);
+                mCaptureStats = stats;
+                long statsLogFrames = (long) Constants.AudioRecordConfig.CAPTURE_STATS_LOG_MILLIS * mSampleRate / 1000;
+                mAnalysisThread = new Thread(direct ? createDirectAnalysisContent(mBufferQueue)
+                        : createAnalysisContent(mRingBuffer), "AATAnalysisThread");
+                mAnalysisThread.start();
 
                 try {
                     mRecorder = new AudioRecord(MediaRecorder.AudioSource.DEFAULT,
@@ -110,19 +202,43 @@ public class RecorderIO extends Thread {
                         isTerminated = true;
                     } else {
                         mRecorder.startRecording();
+                        stats.onStart(System.nanoTime());
                     }
 
+                    // paced by the blocking reads alone: sleeping in between would let the recorder overrun
+                    long nextStatsLog = statsLogFrames;
                     while(!isTerminated) {
-                        ret = mRecorder.read(data, 0, mBufferSize);
+                        if (direct) {
+                            buffer = mBufferPool.acquire();
+                            ret = mRecorder.read(buffer != null ? buffer.data() : spareDirect, mReadSize);
+                        } else {
+                            data = mRingBuffer.acquireWrite();
+                            if (data == null)
+                                data = spare;
+                            ret = mRecorder.read(data, 0, mReadSize);
+                        }
                         if (ret == AudioRecord.ERROR_INVALID_OPERATION || ret == AudioRecord.ERROR_BAD_VALUE) {
                             Log.e(TAG, "RecordIO error reading audio data! force stop AudioRecord and thread");
                             errorMsg = "AudioRecord read data error";
                             isTerminated = true;
-                        } else {
-                            if (mListener != null)
-                                mListener.onDataRead(data, mBytesPerElement, mNumChannels);
+                        } else if (ret > 0) {
+                            stats.onRead(ret / bytesPerFrame, mReadSize / bytesPerFrame, System.nanoTime());
+                            if (buffer != null) {
+                                buffer.data().limit(ret);
+                                mBufferQueue.add(buffer);
+                                buffer = null;
+                            } else if (!direct && data != spare) {
+                                mRingBuffer.commitWrite(ret);
+                            }
+                            if (stats.getFrames() >= nextStatsLog) {
+                                Log.d(TAG, "capture: " + stats + ", " + getDroppedBlocks() + " blocks dropped");
+                                nextStatsLog += statsLogFrames;
+                            }
+                        }
+                        if (buffer != null) {
+                            buffer.release();
+                            buffer = null;
                         }
-                        Thread.sleep(20);
                     }
                 }
                 catch(Exception e) {
@@ -137,6 +253,84 @@ public class RecorderIO extends Thread {
         };
     }
 
+    /**
+     * Drains the ring into the listener until the capture stops, off the URGENT_AUDIO thread.
+     */
+    private Runnable createAnalysisContent(final PcmRingBuffer ring) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!isTerminated || ring.size() > 0) {
+                        byte[] data = ring.acquireRead(mBufferMillis > 0 ? 2*mBufferMillis : 100);
+                        if (data == null)
+                            continue;
+                        try {
+                            if (mListener != null)
+                                mListener.onDataRead(data, ring.getReadLength(), mBytesPerElement, mNumChannels);
+                        } finally {
+                            ring.releaseRead();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "analysis thread interrupted");
+                } catch (Exception e) {
+                    Log.d(TAG, "analysis thread got exception, stop analyzing and recording");
+                    e.printStackTrace();
+                    excep = e;
+                    // the capture would otherwise go on with none to drain it
+                    errorMsg = "analysis error: " + e.getMessage();
+                    isTerminated = true;
+                }
+            }
+        };
+    }
+
+    /**
+     * Drains the pooled buffers into the buffer listener until the capture stops; each buffer is
+     * released once the listener returns, or throws.
+     */
+    private Runnable createDirectAnalysisContent(final ArrayBlockingQueue<PcmBufferPool.Buffer> queue) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!isTerminated || !queue.isEmpty()) {
+                        PcmBufferPool.Buffer buffer = queue.poll(mBufferMillis > 0 ? 2*mBufferMillis : 100,
+                                TimeUnit.MILLISECONDS);
+                        if (buffer == null)
+                            continue;
+                        try {
+                            if (mBufferListener != null)
+                                mBufferListener.onBufferRead(buffer, mBytesPerElement, mNumChannels);
+                        } finally {
+                            buffer.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "analysis thread interrupted");
+                } catch (Exception e) {
+                    Log.d(TAG, "analysis thread got exception, stop analyzing and recording");
+                    e.printStackTrace();
+                    excep = e;
+                    // the capture would otherwise go on with none to drain it
+                    errorMsg = "analysis error: " + e.getMessage();
+                    isTerminated = true;
+                }
+            }
+        };
+    }
+
+    public long getOverruns() {
+        return mRingBuffer != null ? mRingBuffer.getOverruns() : 0;
+    }
+
+    public long getDroppedBlocks() {
+        if (mBufferPool != null)
+            return mBufferPool.getExhausted();
+        return mRingBuffer != null ? mRingBuffer.getDroppedBlocks() : 0;
+    }
+
     private void terminate() {
         isTerminated = true;
         interrupt();
@@ -144,6 +338,25 @@ public class RecorderIO extends Thread {
 
     private void doWorkBeforeShutdown() {
         Log.d(TAG, "thread stop");
+        isTerminated = true;
+        if (mAnalysisThread != null) {
+            if (mRingBuffer != null)
+                mRingBuffer.wakeUpConsumer();
+            try {
+                mAnalysisThread.join();
+            } catch (InterruptedException e) {
+                mAnalysisThread.interrupt();
+            }
+            mAnalysisThread = null;
+            if (mRingBuffer != null)
+                Log.d(TAG, "analysis stop, " + mRingBuffer.getWrittenBlocks() + " blocks, "
+                        + mRingBuffer.getDroppedBlocks() + " dropped in " + mRingBuffer.getOverruns() + " overruns");
+            else
+                Log.d(TAG, "analysis stop, " + mBufferPool.getExhausted() + " blocks dropped, "
+                        + mBufferPool.available() + "/" + mBufferPool.getCapacity() + " buffers back in the pool");
+        }
+        if (mCaptureStats != null)
+            Log.d(TAG, "capture: " + mCaptureStats);
         if (mRecorder != null) {
             if (mRecorder.getState() == AudioRecord.STATE_INITIALIZED)
                 mRecorder.stop();
@@ -184,6 +397,20 @@ public class RecorderIO extends Thread {
     }
 
     public interface RecorderIOListener {
-        void onDataRead(byte[] data, int bytesPerSample, int numChannels);
+        /**
+         * Called on the analysis thread with a block of the ring, of which only the first length bytes
+         * are the PCM of the read: a short read leaves the end of an older one behind it.
+         */
+        void onDataRead(byte[] data, int length, int bytesPerSample, int numChannels);
+    }
+
+    public interface RecorderIOBufferListener {
+        /**
+         * Called on the analysis thread with a buffer holding the PCM of one read, which is released
+         * once the listener returns. A listener that keeps it longer retain()s it, and release()s it
+         * once done, possibly from another thread; the capture drops reads while all the buffers of
+         * the pool are held.
+         */
+        void onBufferRead(PcmBufferPool.Buffer buffer, int bytesPerSample, int numChannels);
     }
 }
@@ -0,0 +1,131 @@
+package com.htc.audiofunctionsdemo.utils;
+
+/**
+ * A streaming short-time Fourier transform: the signal is cut into windowed frames of a fixed FFT
+ * size, one every hop samples, whatever the size of the blocks it is fed in. The frame rate and
+ * the frequency resolution then only depend on the configuration, not on the buffer size of the
+ * capture.
+ *
+ * The samples of an incomplete frame are kept across the calls of {@link #process}. The window is
+ * taken once from {@link Windows}, and nothing is allocated after the construction. Not
+ * thread-safe: one analyzer per stream.
+ */
+public class StftAnalyzer {
+    private final FftEngine mEngine;
+    private final int mFftSize;
+    private final int mHopSize;
+    private final int mWindowType;
+    private final float[] mWindow;
+
+    // the samples of the frame being filled, and the windowed copy the engine transforms
+    private final float[] mInput;
+    private final float[] mFrame;
+    private final float[] mSpectrum;
+    private int mFill;
+    // the samples between two frames, when the hop is larger than the FFT size
+    private int mSkip;
+    private long mFrameIndex;
+
+    public interface FrameListener {
+        /**
+         * Called by process() for every complete frame. The arrays are reused for the next frame.
+         *
+         * @param frame the fftSize samples of the frame, before the window
+         * @param spectrum the fftSize/2+1 magnitudes of the windowed frame
+         * @param index the number of frames before this one
+         */
+        void onFrame(float[] frame, float[] spectrum, long index);
+    }
+
+    /**
+     * @param fftSize a power of two
+     * @param hopSize the samples between the starts of two frames; half of fftSize for a 50% overlap
+     * @param window one of the {@link Windows} types
+     */
+    public StftAnalyzer(FftEngine engine, int fftSize, int hopSize, int window) {
+        if (fftSize < 2 || Integer.bitCount(fftSize) != 1)
+            throw new IllegalArgumentException("the FFT size is not a power of two: " + fftSize);
+        if (hopSize < 1)
+            throw new IllegalArgumentException("invalid hop size: " + hopSize);
+        mEngine = engine;
+        mFftSize = fftSize;
+        mHopSize = hopSize;
+        mWindowType = window;
+        mWindow = Windows.get(window, fftSize);
+        mInput = new float[fftSize];
+        mFrame = new float[fftSize];
+        mSpectrum = new float[FftEngines.getNumBins(fftSize)];
+    }
+
+    public FftEngine getEngine() {
+        return mEngine;
+    }
+
+    public int getFftSize() {
+        return mFftSize;
+    }
+
+    public int getHopSize() {
+        return mHopSize;
+    }
+
+    public int getWindow() {
+        return mWindowType;
+    }
+
+    public int getNumBins() {
+        return mSpectrum.length;
+    }
+
+    /**
+     * Forgets the incomplete frame, as at the start of a new stream.
+     */
+    public void reset() {
+        mFill = 0;
+        mSkip = 0;
+        mFrameIndex = 0;
+    }
+
+    /**
+     * Appends the next length samples of the stream, and transforms the frames they complete.
+     *
+     * @return the number of frames passed to the listener
+     */
+    public int process(float[] in, int offset, int length, FrameListener listener) {
+        if (offset < 0 || length < 0 || offset + length > in.length)
+            throw new IllegalArgumentException("invalid offset/length: " + offset + "/" + length);
+
+        int end = offset + length;
+        int frames = 0;
+        while (offset < end) {
+            if (mSkip > 0) {
+                int n = Math.min(mSkip, end - offset);
+                mSkip -= n;
+                offset += n;
+                continue;
+            }
+
+            int n = Math.min(mFftSize - mFill, end - offset);
+            System.arraycopy(in, offset, mInput, mFill, n);
+            mFill += n;
+            offset += n;
+            if (mFill < mFftSize)
+                break;
+
+            for (int i = 0; i < mFftSize; i++)
+                mFrame[i] = mInput[i] * mWindow[i];
+            mEngine.transformAbs(mFrame, mFftSize, mSpectrum);
+            listener.onFrame(mInput, mSpectrum, mFrameIndex++);
+            frames++;
+
+            if (mHopSize < mFftSize) {
+                System.arraycopy(mInput, mHopSize, mInput, 0, mFftSize - mHopSize);
+                mFill = mFftSize - mHopSize;
+            } else {
+                mFill = 0;
+                mSkip = mHopSize - mFftSize;
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,196 @@
+package com.htc.audiofunctionsdemo.utils;
+
+/**
+ * Measures a few known frequencies, e.g. the test tones played back, instead of the whole spectrum:
+ * the stream is cut into frames of a fixed size and every frame is run through one Goertzel filter
+ * per frequency, for O(N*k) work rather than the O(N log N) of an FFT and the scan of all its bins.
+ *
+ * The frequencies need not fall on the bins of the frame size. Every frame reports, per frequency,
+ * the amplitude of a sine at that frequency (corrected for the coherent gain of the window) and its
+ * phase at the first sample of the frame, as of a cosine. The frequency resolution is about the
+ * sampling rate over the frame size, widened by the window.
+ *
+ * The samples of an incomplete frame are kept across the calls of {@link #process}, and nothing is
+ * allocated after the construction. Not thread-safe: one tracker per stream.
+ */
+public class ToneTracker {
+    private final int mSamplingRate;
+    private final float[] mFrequencies;
+    private final int mFrameSize;
+    private final int mWindowType;
+    private final float[] mWindow;
+
+    // per frequency: the coefficient of the recursion, and the rotations of its output
+    private final double[] mCoef;
+    private final double[] mCos;
+    private final double[] mSin;
+    private final double[] mRefCos;
+    private final double[] mRefSin;
+    private final double mScale;
+
+    private final float[] mFrame;
+    private final float[] mWindowed;
+    private final float[] mAmplitudes;
+    private final float[] mPhases;
+    private int mFill;
+    private long mFrameIndex;
+
+    public interface FrameListener {
+        /**
+         * Called by process() for every complete frame. The arrays are reused for the next frame.
+         *
+         * @param frame the frameSize samples of the frame, before the window
+         * @param amplitudes the amplitude at each of the frequencies, in the order of the constructor
+         * @param phases the phase at each of them, in radians, within [-pi, pi]
+         * @param index the number of frames before this one
+         */
+        void onFrame(float[] frame, float[] amplitudes, float[] phases, long index);
+    }
+
+    /**
+     * @param frequencies in Hz, below the Nyquist frequency
+     * @param window one of the {@link Windows} types
+     */
+    public ToneTracker(int samplingRate, float[] frequencies, int frameSize, int window) {
+        if (samplingRate <= 0 || frameSize < 2)
+            throw new IllegalArgumentException("invalid rate/frame size: " + samplingRate + "/" + frameSize);
+        if (frequencies.length == 0)
+            throw new IllegalArgumentException("no frequency to track");
+        for (float frequency : frequencies) {
+            if (!(frequency >= 0 && frequency < samplingRate / 2.0))
+                throw new IllegalArgumentException("cannot track " + frequency + " Hz at " + samplingRate + " Hz");
+        }
+        mSamplingRate = samplingRate;
+        mFrequencies = frequencies.clone();
+        mFrameSize = frameSize;
+        mWindowType = window;
+        mWindow = Windows.get(window, frameSize);
+
+        int k = frequencies.length;
+        mCoef = new double[k];
+        mCos = new double[k];
+        mSin = new double[k];
+        mRefCos = new double[k];
+        mRefSin = new double[k];
+        for (int t = 0; t < k; t++) {
+            double w = 2 * Math.PI * frequencies[t] / samplingRate;
+            mCos[t] = Math.cos(w);
+            mSin[t] = Math.sin(w);
+            mCoef[t] = 2 * mCos[t];
+            // the recursion ends on the last sample; the phase is referred back to the first one
+            mRefCos[t] = Math.cos(w * (frameSize - 1));
+            mRefSin[t] = Math.sin(w * (frameSize - 1));
+        }
+        // a sine of amplitude A comes out at A*N/2 times the coherent gain
+        mScale = 2.0 / (frameSize * Windows.getCoherentGain(window));
+
+        mFrame = new float[frameSize];
+        mWindowed = new float[frameSize];
+        mAmplitudes = new float[k];
+        mPhases = new float[k];
+    }
+
+    public int getSamplingRate() {
+        return mSamplingRate;
+    }
+
+    public float[] getFrequencies() {
+        return mFrequencies.clone();
+    }
+
+    public int getNumTones() {
+        return mFrequencies.length;
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public int getWindow() {
+        return mWindowType;
+    }
+
+    /**
+     * Forgets the incomplete frame, as at the start of a new stream.
+     */
+    public void reset() {
+        mFill = 0;
+        mFrameIndex = 0;
+    }
+
+    /**
+     * Appends the next length samples of the stream, and measures the frames they complete.
+     *
+     * @return the number of frames passed to the listener
+     */
+    public int process(float[] in, int offset, int length, FrameListener listener) {
+        if (offset < 0 || length < 0 || offset + length > in.length)
+            throw new IllegalArgumentException("invalid offset/length: " + offset + "/" + length);
+
+        int end = offset + length;
+        int frames = 0;
+        while (offset < end) {
+            int n = Math.min(mFrameSize - mFill, end - offset);
+            System.arraycopy(in, offset, mFrame, mFill, n);
+            mFill += n;
+            offset += n;
+            if (mFill < mFrameSize)
+                break;
+
+            measure();
+            listener.onFrame(mFrame, mAmplitudes, mPhases, mFrameIndex++);
+            frames++;
+            mFill = 0;
+        }
+        return frames;
+    }
+
+    private void measure() {
+        float[] x = mWindowed;
+        for (int i = 0; i < mFrameSize; i++)
+            x[i] = mFrame[i] * mWindow[i];
+
+        int numTones = mFrequencies.length;
+        int t = 0;
+        // four filters per pass, as every one of them waits on its own previous sample otherwise
+        for (; t + 4 <= numTones; t += 4) {
+            double c0 = mCoef[t], c1 = mCoef[t+1], c2 = mCoef[t+2], c3 = mCoef[t+3];
+            double a0 = 0, a1 = 0, a2 = 0, a3 = 0;
+            double b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+            for (int i = 0; i < mFrameSize; i++) {
+                double v = x[i];
+                double s0 = v + c0 * a0 - b0;
+                double s1 = v + c1 * a1 - b1;
+                double s2 = v + c2 * a2 - b2;
+                double s3 = v + c3 * a3 - b3;
+                b0 = a0; b1 = a1; b2 = a2; b3 = a3;
+                a0 = s0; a1 = s1; a2 = s2; a3 = s3;
+            }
+            finish(t, a0, b0);
+            finish(t + 1, a1, b1);
+            finish(t + 2, a2, b2);
+            finish(t + 3, a3, b3);
+        }
+        for (; t < numTones; t++) {
+            double coef = mCoef[t];
+            double s1 = 0, s2 = 0;
+            for (int i = 0; i < mFrameSize; i++) {
+                double s = x[i] + coef * s1 - s2;
+                s2 = s1;
+                s1 = s;
+            }
+            finish(t, s1, s2);
+        }
+    }
+
+    // s1 and s2 are the last two outputs of the recursion of the tone t
+    private void finish(int t, double s1, double s2) {
+        // s1 - e^(-jw) s2 is the DFT at w, rotated by w(N-1)
+        double re = s1 - mCos[t] * s2;
+        double im = mSin[t] * s2;
+        double refRe = re * mRefCos[t] + im * mRefSin[t];
+        double refIm = im * mRefCos[t] - re * mRefSin[t];
+        mAmplitudes[t] = (float) (Math.hypot(refRe, refIm) * mScale);
+        mPhases[t] = (float) Math.atan2(refIm, refRe);
+    }
+}
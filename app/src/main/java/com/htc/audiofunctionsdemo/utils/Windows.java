@@ -0,0 +1,93 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The analysis windows, as periodic (DFT-even) cosine sums, computed once per type and size and
+ * shared: the arrays returned by {@link #get} must not be modified.
+ */
+public final class Windows {
+    public static final int RECTANGULAR = FftEngine.WINDOW_NONE;
+    public static final int HANN = FftEngine.WINDOW_HANN;
+    // the 4-term Blackman-Harris, -92 dB side lobes
+    public static final int BLACKMAN_HARRIS = 2;
+    // the 5-term flat top (as in Matlab), for amplitude readings within 0.01 dB anywhere in a bin
+    public static final int FLAT_TOP = 3;
+
+    private static final String[] NAMES = {"rectangular", "hann", "blackman-harris", "flat-top"};
+    private static final double[][] COEFS = {
+            {1},
+            {0.5, 0.5},
+            {0.35875, 0.48829, 0.14128, 0.01168},
+            {0.21557895, 0.41663158, 0.277263158, 0.083578947, 0.006947368},
+    };
+
+    private static final Map<Long, float[]> sCache = new HashMap<>();
+
+    private Windows() {
+    }
+
+    /**
+     * @return the size coefficients of the window, shared by all the callers
+     */
+    public static float[] get(int type, int size) {
+        checkType(type);
+        if (size < 1)
+            throw new IllegalArgumentException("invalid window size: " + size);
+        Long key = ((long) type << 32) | size;
+        synchronized (sCache) {
+            float[] window = sCache.get(key);
+            if (window == null) {
+                window = compute(type, size);
+                sCache.put(key, window);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * The mean of the coefficients, i.e. the amplitude a window gives a sine at the center of a
+     * bin, relative to the rectangular window.
+     */
+    public static double getCoherentGain(int type) {
+        checkType(type);
+        return COEFS[type][0];
+    }
+
+    public static String getName(int type) {
+        checkType(type);
+        return NAMES[type];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the name is none of the getName() ones
+     */
+    public static int fromName(String name) {
+        for (int type = 0; type < NAMES.length; type++) {
+            if (NAMES[type].equals(name.toLowerCase(Locale.US)))
+                return type;
+        }
+        throw new IllegalArgumentException("unknown window: " + name);
+    }
+
+    private static void checkType(int type) {
+        if (type < 0 || type >= COEFS.length)
+            throw new IllegalArgumentException("unknown window: " + type);
+    }
+
+    private static float[] compute(int type, int size) {
+        double[] a = COEFS[type];
+        float[] window = new float[size];
+        for (int i = 0; i < size; i++) {
+            double v = a[0];
+            for (int k = 1; k < a.length; k++) {
+                double term = a[k] * Math.cos(2 * Math.PI * k * i / size);
+                v += (k % 2 == 1) ? -term : term;
+            }
+            window[i] = (float) v;
+        }
+        return window;
+    }
+}
@@ -4,8 +4,17 @@ include $(CLEAR_VARS)
 
 
 LOCAL_MODULE    := native-fft
-LOCAL_SRC_FILES := native-fft.cpp FFT.cpp
+LOCAL_SRC_FILES := native-fft.cpp FFT.cpp FFTWorkerPool.cpp Pcm.cpp
+# only the kernels are built with NEON on armeabi-v7a, and they check the CPU for it at run time
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+LOCAL_SRC_FILES += FFTKernels.cpp.neon
+else
+LOCAL_SRC_FILES += FFTKernels.cpp
+endif
 
 LOCAL_LDLIBS    += -llog -ldl
+LOCAL_STATIC_LIBRARIES := cpufeatures
 
-include $(BUILD_SHARED_LIBRARY)
\ No newline at end of file
+include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
\ No newline at end of file
@@ -1,4 +1,4 @@
 APP_STL := c++_shared
 APP_CPPFLAGS := -frtti -fexceptions
-APP_ABI := armeabi-v7a x86 armeabi
+APP_ABI := armeabi-v7a arm64-v8a x86
 #APP_PLATFORM := android-26
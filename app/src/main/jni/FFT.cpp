@@ -3,28 +3,9 @@
 //
 
 #include "FFT.h"
+#include "FFTWorkerPool.h"
 
-std::string FFT::getVersion() { return std::string("FFT-0.9.0"); }
-
-void bitReversalSwap(std::vector<complexdbl>& data)
-{
-    uint32_t i_br = 0;
-    uint32_t N = (uint32_t) data.size();
-    for (uint32_t i = 1; i < N-1; i++) {
-        uint32_t k = N >> 1;
-        while (k & i_br) {
-            i_br &= ~k;
-            k >>= 1;
-        }
-        i_br |= k;
-
-        if (i < i_br) {
-            complexdbl temp = data[i];
-            data[i] = data[i_br];
-            data[i_br] = temp;
-        }
-    }
-}
+std::string FFT::getVersion() { return std::string("FFT-0.15.0"); }
 
 std::vector<complexdbl> getTwiddleFactors(uint32_t N)
 {
@@ -37,6 +18,43 @@ std::vector<complexdbl> getTwiddleFactors(uint32_t N)
     return twiddle_factors;
 }
 
+std::map<uint64_t, FFTPlan*> FFTPlan::sCache;
+std::mutex FFTPlan::sCacheLock;
+
+FFTPlan::FFTPlan(uint32_t N, bool inverse) : mN(N), mInverse(inverse), mTwiddle(getTwiddleFactors(N)),
+    mTwiddleFloat(N), mScale(1.0 / sqrt((double) N)), mHalf(N > 1 ? FFTPlan::get(N/2, inverse) : NULL)
+{
+    for (uint32_t i = 0; i < N; i++) {
+        if (inverse)
+            mTwiddle[i] = std::conj(mTwiddle[i]);
+        mTwiddleFloat[i] = complexflt((float) mTwiddle[i].real(), (float) mTwiddle[i].imag());
+    }
+}
+
+const FFTPlan* FFTPlan::get(uint32_t N, bool inverse)
+{
+    uint64_t key = ((uint64_t) N << 1) | (inverse ? 1 : 0);
+
+    {
+        std::lock_guard<std::mutex> lock(sCacheLock);
+        std::map<uint64_t, FFTPlan*>::iterator it = sCache.find(key);
+        if (it != sCache.end())
+            return it->second;
+    }
+
+    // built outside of the lock since a plan looks up its half-size plan on construction
+    FFTPlan* plan = new FFTPlan(N, inverse);
+
+    std::lock_guard<std::mutex> lock(sCacheLock);
+    std::map<uint64_t, FFTPlan*>::iterator it = sCache.find(key);
+    if (it != sCache.end()) {
+        delete plan;
+        return it->second;
+    }
+    sCache[key] = plan;
+    return plan;
+}
+
 uint32_t ceilpw2(uint32_t k)
 {
     uint32_t N = 1;
@@ -44,23 +62,251 @@ uint32_t ceilpw2(uint32_t k)
     return N;
 }
 
-std::vector<complexdbl> internal_FFT(std::vector<complexdbl> data, std::vector<complexdbl> twiddle)
+static FFTKernel sKernel = FFT_DEFAULT_KERNEL;
+
+void FFT::setKernel(FFTKernel kernel) { sKernel = kernel; }
+
+FFTKernel FFT::getKernel() { return sKernel; }
+
+static const FFTKernelTable* sKernelTable = getKernelTable(detectSimdLevel());
+
+bool FFT::setSimdLevel(FFTSimdLevel level)
+{
+    const FFTKernelTable* table = getKernelTable(level);
+    if (table == NULL)
+        return false;
+    sKernelTable = table;
+    return true;
+}
+
+FFTSimdLevel FFT::getSimdLevel() { return sKernelTable->level; }
+
+// the kernel table entries of the precision R
+static inline void radix4Pass(const FFTKernelTable* kernels, complexdbl* data, uint32_t N, uint32_t m,
+                              const complexdbl* twiddle, double rot)
+{
+    kernels->radix4Pass(data, N, m, twiddle, rot);
+}
+
+static inline void radix4Pass(const FFTKernelTable* kernels, complexflt* data, uint32_t N, uint32_t m,
+                              const complexflt* twiddle, double rot)
+{
+    kernels->radix4PassFloat(data, N, m, twiddle, (float) rot);
+}
+
+static inline void magnitude(const FFTKernelTable* kernels, const complexdbl* in, double* out, uint32_t n, double scale)
+{
+    kernels->magnitude(in, out, n, scale);
+}
+
+static inline void magnitude(const FFTKernelTable* kernels, const complexflt* in, float* out, uint32_t n, double scale)
+{
+    kernels->magnitudeFloat(in, out, n, (float) scale);
+}
+
+/*
+ * The kernels below are unscaled, i.e. they compute the plain DFT sum over bit-reversed input;
+ * the unitary 1/sqrt(N) scaling is folded into whatever single pass consumes their output.
+ */
+template<class R>
+void internal_FFT(std::complex<R>* data, uint32_t N, const std::complex<R>* twiddle)
 {
-    std::vector<complexdbl> buf(data);
-    uint32_t N = (uint32_t) data.size();
     uint32_t twiddle_step = N;
 
     while (twiddle_step >>= 1) {
-        for (uint32_t offset = 0; offset < N; offset+=(N/twiddle_step)) {
-            for (uint32_t i = 0; i < (N/twiddle_step/2); i++) {
-                complexdbl W = twiddle[i*twiddle_step];
-                complexdbl f_even = buf[offset+i] * UNITARY_FACTOR;
-                complexdbl f_odd = buf[offset+i+N/twiddle_step/2] * UNITARY_FACTOR;
-                buf[offset+i] = f_even + W * f_odd;
-                buf[offset+i+N/twiddle_step/2] = f_even - W * f_odd;
+        uint32_t half = N/twiddle_step/2;
+        for (uint32_t offset = 0; offset < N; offset+=(half*2)) {
+            for (uint32_t i = 0; i < half; i++) {
+                std::complex<R> W = twiddle[i*twiddle_step];
+                std::complex<R> f_even = data[offset+i];
+                std::complex<R> f_odd = W * data[offset+i+half];
+                data[offset+i] = f_even + f_odd;
+                data[offset+i+half] = f_even - f_odd;
             }
         }
     }
+}
+
+/*
+ * Radix-2^2 decimation-in-time: every pass merges two radix-2 stages, combining four blocks of
+ * size m into one of size 4m with three twiddle multiplications per four outputs instead of four.
+ * A single radix-2 stage (with trivial twiddles) runs first when log2(N) is odd.
+ */
+template<class R>
+void internal_FFT_radix4(std::complex<R>* data, uint32_t N, const std::complex<R>* twiddle, bool inverse,
+                         const FFTKernelTable* kernels)
+{
+    uint32_t m = 1;
+    uint32_t log2N = 0;
+    while ((1u << log2N) < N) log2N++;
+
+    if (log2N & 1) {
+        for (uint32_t offset = 0; offset < N; offset += 2) {
+            std::complex<R> a = data[offset];
+            std::complex<R> b = data[offset+1];
+            data[offset] = a + b;
+            data[offset+1] = a - b;
+        }
+        m = 2;
+    }
+
+    // multiplying by -j (forward) or +j (inverse)
+    double rot = inverse ? 1.0 : -1.0;
+
+    for (; m < N; m <<= 2)
+        radix4Pass(kernels, data, N, m, twiddle, rot);
+}
+
+template void internal_FFT<double>(complexdbl*, uint32_t, const complexdbl*);
+template void internal_FFT<float>(complexflt*, uint32_t, const complexflt*);
+template void internal_FFT_radix4<double>(complexdbl*, uint32_t, const complexdbl*, bool, const FFTKernelTable*);
+template void internal_FFT_radix4<float>(complexflt*, uint32_t, const complexflt*, bool, const FFTKernelTable*);
+
+// bit reversal and the selected kernel, without the final scaling
+template<class R>
+static void transformUnscaled(std::complex<R>* data, const FFTPlan* plan)
+{
+    bitReversalSwap(data, plan->size());
+    if (sKernel == FFT_KERNEL_RADIX4)
+        internal_FFT_radix4(data, plan->size(), plan->twiddles<R>(), plan->isInverse(), sKernelTable);
+    else
+        internal_FFT(data, plan->size(), plan->twiddles<R>());
+}
+
+template<class R>
+static void transformScaled(std::complex<R>* data, const FFTPlan* plan)
+{
+    transformUnscaled(data, plan);
+
+    uint32_t N = plan->size();
+    R scale = (R) plan->scale();
+    for (uint32_t i = 0; i < N; i++)
+        data[i] *= scale;
+}
+
+template<class R>
+static void transformAbsImpl(const R* signal, uint32_t size, R* spectrum_amp,
+                             std::complex<R>* scratch, const FFTPlan* plan)
+{
+    uint32_t N = plan->size();
+    for (uint32_t i = 0; i < N; i++)
+        scratch[i] = std::complex<R>(i < size ? signal[i] : (R) 0, (R) 0);
+
+    transformUnscaled(scratch, plan);
+    magnitude(sKernelTable, scratch, spectrum_amp, N, plan->scale());
+}
+
+template<class R>
+static void transformRealImpl(const R* signal, uint32_t size, std::complex<R>* spectrum, const FFTPlan* plan)
+{
+    uint32_t N = plan->size();
+    if (N < 2) {
+        spectrum[0] = std::complex<R>(size > 0 ? signal[0] : (R) 0, (R) 0);
+        return;
+    }
+
+    uint32_t M = N/2;
+    for (uint32_t n = 0; n < M; n++) {
+        R re = (2*n < size) ? signal[2*n] : (R) 0;
+        R im = (2*n+1 < size) ? signal[2*n+1] : (R) 0;
+        spectrum[n] = std::complex<R>(re, im);
+    }
+
+    transformUnscaled(spectrum, plan->half());
+
+    // the halves of the even/odd split and the 1/sqrt(N) scaling are applied in the same pass
+    const std::complex<R>* twiddle = plan->twiddles<R>();
+    R scale = (R) plan->scale();
+    R half_scale = (R) (0.5 * plan->scale());
+    std::complex<R> Z0 = spectrum[0];
+    spectrum[0] = std::complex<R>((Z0.real() + Z0.imag()) * scale, (R) 0);
+    spectrum[M] = std::complex<R>((Z0.real() - Z0.imag()) * scale, (R) 0);
+
+    for (uint32_t k = 1; k <= M/2; k++) {
+        std::complex<R> Zk = spectrum[k];
+        std::complex<R> Zmk = std::conj(spectrum[M-k]);
+        std::complex<R> f_even = Zk + Zmk;
+        std::complex<R> diff = Zk - Zmk;
+        std::complex<R> f_odd(diff.imag(), -diff.real());
+
+        spectrum[k] = (f_even + twiddle[k] * f_odd) * half_scale;
+        spectrum[M-k] = (std::conj(f_even) + twiddle[M-k] * std::conj(f_odd)) * half_scale;
+    }
+}
+
+template<class R>
+static void transformRealAbsImpl(const R* signal, uint32_t size, R* spectrum_amp,
+                                 std::complex<R>* scratch, const FFTPlan* plan)
+{
+    transformRealImpl(signal, size, scratch, plan);
+    magnitude(sKernelTable, scratch, spectrum_amp, plan->size()/2 + 1, 1.0);
+}
+
+/*
+ * Every frame is an independent task; the worker threads keep their own scratch, which only grows.
+ */
+template<class R>
+static void transformRealAbsBatchImpl(const R* signals, uint32_t frame_size, uint32_t num_frames,
+                                      R* spectra_amp, const FFTPlan* plan)
+{
+    uint32_t nbins = plan->size()/2 + 1;
+    std::function<void(uint32_t)> task = [=](uint32_t i) {
+        static thread_local std::vector< std::complex<R> > scratch;
+        if (scratch.size() < nbins) scratch.resize(nbins);
+        transformRealAbsImpl(signals + (size_t) i*frame_size, frame_size, spectra_amp + (size_t) i*nbins,
+                             scratch.data(), plan);
+    };
+    FFTWorkerPool::get()->parallelFor(num_frames, task);
+}
+
+void FFT::transform(complexdbl* data, const FFTPlan* plan) { transformScaled(data, plan); }
+
+void FFT::transform(complexflt* data, const FFTPlan* plan) { transformScaled(data, plan); }
+
+void FFT::transformAbs(const double* signal, uint32_t size, double* spectrum_amp,
+                       complexdbl* scratch, const FFTPlan* plan)
+{
+    transformAbsImpl(signal, size, spectrum_amp, scratch, plan);
+}
+
+void FFT::transformAbs(const float* signal, uint32_t size, float* spectrum_amp,
+                       complexflt* scratch, const FFTPlan* plan)
+{
+    transformAbsImpl(signal, size, spectrum_amp, scratch, plan);
+}
+
+void FFT::transformReal(const double* signal, uint32_t size, complexdbl* spectrum, const FFTPlan* plan)
+{
+    transformRealImpl(signal, size, spectrum, plan);
+}
+
+void FFT::transformReal(const float* signal, uint32_t size, complexflt* spectrum, const FFTPlan* plan)
+{
+    transformRealImpl(signal, size, spectrum, plan);
+}
 
-    return buf;
+void FFT::transformRealAbs(const double* signal, uint32_t size, double* spectrum_amp,
+                           complexdbl* scratch, const FFTPlan* plan)
+{
+    transformRealAbsImpl(signal, size, spectrum_amp, scratch, plan);
+}
+
+void FFT::transformRealAbs(const float* signal, uint32_t size, float* spectrum_amp,
+                           complexflt* scratch, const FFTPlan* plan)
+{
+    transformRealAbsImpl(signal, size, spectrum_amp, scratch, plan);
+}
+
+uint32_t FFT::getBatchThreads() { return FFTWorkerPool::get()->size(); }
+
+void FFT::transformRealAbsBatch(const double* signals, uint32_t frame_size, uint32_t num_frames,
+                                double* spectra_amp, const FFTPlan* plan)
+{
+    transformRealAbsBatchImpl(signals, frame_size, num_frames, spectra_amp, plan);
+}
+
+void FFT::transformRealAbsBatch(const float* signals, uint32_t frame_size, uint32_t num_frames,
+                                float* spectra_amp, const FFTPlan* plan)
+{
+    transformRealAbsBatchImpl(signals, frame_size, num_frames, spectra_amp, plan);
 }
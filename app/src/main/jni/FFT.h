@@ -11,15 +11,38 @@
 #include <complex>
 #include <cmath>
 #include <type_traits>
+#include <map>
+#include <mutex>
+#include "FFTKernels.h"
 
 #define UNITARY_FACTOR 0.70710678118
 typedef std::complex<double> complexdbl;
+typedef std::complex<float> complexflt;
+
+enum FFTKernel {
+    FFT_KERNEL_RADIX2,
+    FFT_KERNEL_RADIX4
+};
+
+#ifndef FFT_DEFAULT_KERNEL
+#define FFT_DEFAULT_KERNEL FFT_KERNEL_RADIX4
+#endif
+
+class FFTPlan;
 
 class FFT
 {
 public:
     static std::string getVersion();
 
+    // selects the butterfly kernel used by all the transforms, FFT_DEFAULT_KERNEL by default
+    static void setKernel(FFTKernel kernel);
+    static FFTKernel getKernel();
+    // selects the instruction set of the kernels, the best one of the CPU by default;
+    // returns false (and keeps the current one) if the level is not supported
+    static bool setSimdLevel(FFTSimdLevel level);
+    static FFTSimdLevel getSimdLevel();
+
     template<class T>
     static std::vector< std::complex<T> > transform(std::vector< std::complex<T> > signal);
     template<class T>
@@ -28,24 +51,127 @@ public:
     static std::vector< std::complex<T> > transform(std::vector< std::complex<T> > signal, uint32_t Nfft);
     template<class T>
     static std::vector< std::complex<T> > transform(std::vector<T> signal, uint32_t Nfft);
+    template<class T>
+    static std::vector< std::complex<T> > transform(std::vector< std::complex<T> > signal, const FFTPlan* plan);
+    template<class T>
+    static std::vector< std::complex<T> > transform(std::vector<T> signal, const FFTPlan* plan);
 
     template<class T>
     static std::vector< std::complex<T> > inv_transform(std::vector< std::complex<T> > spectrum);
+
+    /*
+     * The copy-free entry points: they work in-place on caller-owned buffers of plan->size()
+     * elements and never allocate, which makes them suitable for the per-frame path.
+     */
+    static void transform(complexdbl* data, const FFTPlan* plan);
+    static void transformAbs(const double* signal, uint32_t size, double* spectrum_amp,
+                             complexdbl* scratch, const FFTPlan* plan);
+    static void transform(complexflt* data, const FFTPlan* plan);
+    static void transformAbs(const float* signal, uint32_t size, float* spectrum_amp,
+                             complexflt* scratch, const FFTPlan* plan);
+
+    /*
+     * Real-input transforms: the N-point spectrum of a real signal is conjugate symmetric, so only
+     * the N/2+1 non-redundant bins are computed, by running an N/2-point complex FFT over the
+     * even/odd samples and untangling the result with a post-twiddle pass.
+     * The spectrum (and scratch) buffers must hold plan->size()/2+1 elements, and the plan must be
+     * a forward one.
+     */
+    static void transformReal(const double* signal, uint32_t size, complexdbl* spectrum, const FFTPlan* plan);
+    static void transformRealAbs(const double* signal, uint32_t size, double* spectrum_amp,
+                                 complexdbl* scratch, const FFTPlan* plan);
+    /*
+     * The single-precision variants halve the memory traffic and double the SIMD lane width.
+     * Their error stays around 1e-7 of the spectrum peak (see app/src/test/jni/fft_float_test.cpp),
+     * well below the quantization floor of 16-bit captures but above the one of 24-bit captures.
+     */
+    static void transformReal(const float* signal, uint32_t size, complexflt* spectrum, const FFTPlan* plan);
+    static void transformRealAbs(const float* signal, uint32_t size, float* spectrum_amp,
+                                 complexflt* scratch, const FFTPlan* plan);
+
+    /*
+     * Batched real-input transforms: num_frames frames of frame_size samples, laid out back to back
+     * in signals, are spread over a fixed-size pool of native threads, and the plan->size()/2+1
+     * magnitudes of frame i are written at spectra_amp + i*(plan->size()/2+1).
+     */
+    static uint32_t getBatchThreads();
+    static void transformRealAbsBatch(const double* signals, uint32_t frame_size, uint32_t num_frames,
+                                      double* spectra_amp, const FFTPlan* plan);
+    static void transformRealAbsBatch(const float* signals, uint32_t frame_size, uint32_t num_frames,
+                                      float* spectra_amp, const FFTPlan* plan);
 };
 
+/*
+ * An FFTPlan keeps everything of a transform that only depends on its size and direction,
+ * i.e. the twiddle factors, so that they are evaluated once instead of on every frame.
+ * The plans are built on demand and cached for the lifetime of the process; get() is thread-safe
+ * and always returns the same instance for the same (size, direction) pair.
+ */
+class FFTPlan
+{
+public:
+    static const FFTPlan* get(uint32_t N, bool inverse);
+
+    uint32_t size() const { return mN; }
+    bool isInverse() const { return mInverse; }
+    const std::vector<complexdbl>& twiddleFactors() const { return mTwiddle; }
+    // the twiddle factors in the precision of the transform, R is either double or float
+    template<class R>
+    const std::complex<R>* twiddles() const;
+    // the unitary scaling 1/sqrt(N), applied once after the butterflies
+    double scale() const { return mScale; }
+    // the N/2-point plan of the same direction, used by the real-input transforms
+    const FFTPlan* half() const { return mHalf; }
+
+private:
+    FFTPlan(uint32_t N, bool inverse);
+    FFTPlan(const FFTPlan&);
+    FFTPlan& operator=(const FFTPlan&);
+
+    static std::map<uint64_t, FFTPlan*> sCache;
+    static std::mutex sCacheLock;
+
+    uint32_t mN;
+    bool mInverse;
+    std::vector<complexdbl> mTwiddle;
+    std::vector<complexflt> mTwiddleFloat;
+    double mScale;
+    const FFTPlan* mHalf;
+};
+
+template<>
+inline const complexdbl* FFTPlan::twiddles<double>() const { return mTwiddle.data(); }
+
+template<>
+inline const complexflt* FFTPlan::twiddles<float>() const { return mTwiddleFloat.data(); }
+
 uint32_t ceilpw2(uint32_t k);
-void bitReversalSwap(std::vector<complexdbl>& data);
 std::vector<complexdbl> getTwiddleFactors(uint32_t N);
-std::vector<complexdbl> internal_FFT(std::vector<complexdbl> data, std::vector<complexdbl> twiddle);
 
-template<class T>
-std::vector<complexdbl> toDouble(std::vector< std::complex<T> > arr)
+template<class R>
+void internal_FFT(std::complex<R>* data, uint32_t N, const std::complex<R>* twiddle);
+template<class R>
+void internal_FFT_radix4(std::complex<R>* data, uint32_t N, const std::complex<R>* twiddle, bool inverse,
+                         const FFTKernelTable* kernels);
+
+template<class R>
+void bitReversalSwap(std::complex<R>* data, uint32_t N)
 {
-    std::vector<complexdbl> v(arr.size());
-    for (uint32_t i = 0; i < arr.size(); i++)
-        v[i] = complexdbl((double) arr[i].real(), (double) arr[i].imag());
+    uint32_t i_br = 0;
+    for (uint32_t i = 1; i < N-1; i++) {
+        uint32_t k = N >> 1;
+        while (k & i_br) {
+            i_br &= ~k;
+            k >>= 1;
+        }
+        i_br |= k;
 
-    return v;
+        if (i < i_br) {
+            std::complex<R> temp = data[i];
+            data[i] = data[i_br];
+            data[i_br] = temp;
+        }
+    }
 }
 
 template<class T>
@@ -63,62 +189,51 @@ std::vector< std::complex<T> > FFT::transform(std::vector<T> signal)
 template<class T>
 std::vector< std::complex<T> > FFT::transform(std::vector< std::complex<T> > signal, uint32_t Nfft)
 {
-    while (signal.size() < Nfft) {
-        signal.push_back(std::complex<T>(0));
-    }
+    return FFT::transform(signal, FFTPlan::get(Nfft, false));
+}
+
+template<class T>
+std::vector< std::complex<T> > FFT::transform(std::vector<T> signal, uint32_t Nfft)
+{
+    return FFT::transform(signal, FFTPlan::get(Nfft, false));
+}
+
+template<class T>
+std::vector< std::complex<T> > FFT::transform(std::vector< std::complex<T> > signal, const FFTPlan* plan)
+{
+    uint32_t Nfft = plan->size();
+    std::vector<complexdbl> buf(Nfft);
+    for (uint32_t i = 0; i < Nfft && i < signal.size(); i++)
+        buf[i] = complexdbl((double) signal[i].real(), (double) signal[i].imag());
 
-    std::vector<complexdbl> dbl_signal = toDouble(signal);
-    bitReversalSwap(dbl_signal);
-    std::vector<complexdbl> twiddle_factors = getTwiddleFactors(Nfft);
+    FFT::transform(buf.data(), plan);
 
-    std::vector<complexdbl> dbl_spectrum = internal_FFT(dbl_signal, twiddle_factors);
     std::vector< std::complex<T> > spectrum(Nfft);
     for (uint32_t i = 0; i < Nfft; i++) {
         if (std::is_integral<T>::value) {
-            dbl_spectrum[i] = complexdbl(round(dbl_spectrum[i].real()), round(dbl_spectrum[i].imag()));
+            buf[i] = complexdbl(round(buf[i].real()), round(buf[i].imag()));
         }
-        spectrum[i] = std::complex<T>(dbl_spectrum[i].real(), dbl_spectrum[i].imag());
+        spectrum[i] = std::complex<T>(buf[i].real(), buf[i].imag());
     }
 
     return spectrum;
 }
 
 template<class T>
-std::vector< std::complex<T> > FFT::transform(std::vector<T> signal, uint32_t Nfft)
+std::vector< std::complex<T> > FFT::transform(std::vector<T> signal, const FFTPlan* plan)
 {
     std::vector<std::complex<T> > cplx_signal(signal.size());
     for (uint32_t i = 0; i < signal.size(); i++) {
         cplx_signal[i] = std::complex<T>(signal[i]);
     }
 
-    return FFT::transform(cplx_signal, Nfft);
+    return FFT::transform(cplx_signal, plan);
 }
 
 template<class T>
 std::vector< std::complex<T> > FFT::inv_transform(std::vector< std::complex<T> > spectrum)
 {
-    uint32_t N = ceilpw2(spectrum.size());
-    while (spectrum.size() < N) {
-        spectrum.push_back(complexdbl(0, 0));
-    }
-
-    std::vector<complexdbl> dbl_spectrum = toDouble(spectrum);
-    bitReversalSwap(dbl_spectrum);
-    std::vector<complexdbl> twiddle_factors = getTwiddleFactors(N);
-    for (uint32_t i = 0; i < N; i++)
-        twiddle_factors[i] = std::conj(twiddle_factors[i]);
-
-    std::vector<complexdbl> dbl_signal = internal_FFT(dbl_spectrum, twiddle_factors);
-
-    std::vector< std::complex<T> > signal(N);
-    for (uint32_t i = 0; i < N; i++) {
-        if (std::is_integral<T>::value) {
-            dbl_signal[i] = complexdbl(round(dbl_signal[i].real()), round(dbl_signal[i].imag()));
-        }
-        signal[i] = std::complex<T>(dbl_signal[i].real(), dbl_signal[i].imag());
-    }
-
-    return signal;
+    return FFT::transform(spectrum, FFTPlan::get(ceilpw2(spectrum.size()), true));
 }
 
 #endif //TONEDETECTOR_FFT_H
@@ -0,0 +1,570 @@
+//
+// Vectorized kernels of the native FFT and their runtime dispatch.
+//
+
+#include <cmath>
+#include "FFTKernels.h"
+
+#if defined(__x86_64__) || defined(__i386__)
+#define FFT_HAVE_X86 1
+#include <immintrin.h>
+#endif
+
+#if defined(__aarch64__)
+#define FFT_HAVE_NEON 1
+#define FFT_HAVE_NEON_FLOAT64 1
+#include <arm_neon.h>
+#elif defined(__ARM_NEON) || defined(__ARM_NEON__)
+#define FFT_HAVE_NEON 1
+#include <arm_neon.h>
+#ifdef __ANDROID__
+#include <cpu-features.h>
+#endif
+#endif
+
+/* scalar */
+
+template<class R>
+static void radix4PassScalar(std::complex<R>* data, uint32_t N, uint32_t m, const std::complex<R>* twiddle, R rot)
+{
+    uint32_t twiddle_step = N / (4*m);
+    for (uint32_t offset = 0; offset < N; offset += 4*m) {
+        std::complex<R>* A = data + offset;
+        std::complex<R>* B = A + m;
+        std::complex<R>* C = B + m;
+        std::complex<R>* D = C + m;
+        for (uint32_t i = 0; i < m; i++) {
+            std::complex<R> a = A[i];
+            std::complex<R> b = B[i] * twiddle[2*i*twiddle_step];
+            std::complex<R> c = C[i] * twiddle[i*twiddle_step];
+            std::complex<R> d = D[i] * twiddle[3*i*twiddle_step];
+
+            std::complex<R> apb = a + b, amb = a - b;
+            std::complex<R> cpd = c + d, cmd = c - d;
+            std::complex<R> jcmd(-rot * cmd.imag(), rot * cmd.real());
+
+            A[i] = apb + cpd;
+            B[i] = amb + jcmd;
+            C[i] = apb - cpd;
+            D[i] = amb - jcmd;
+        }
+    }
+}
+
+template<class R>
+static void magnitudeScalar(const std::complex<R>* in, R* out, uint32_t n, R scale)
+{
+    for (uint32_t i = 0; i < n; i++)
+        out[i] = std::abs(in[i]) * scale;
+}
+
+static const FFTKernelTable sScalarTable = {
+    FFT_SIMD_SCALAR, "scalar",
+    radix4PassScalar<double>, magnitudeScalar<double>,
+    radix4PassScalar<float>, magnitudeScalar<float>
+};
+
+/* x86: SSE2 (one complex double or two complex floats per register) and AVX (twice as many) */
+
+#ifdef FFT_HAVE_X86
+
+__attribute__((target("sse2")))
+static inline __m128d cmulSse2(__m128d a, __m128d b)
+{
+    __m128d br = _mm_unpacklo_pd(b, b);
+    __m128d bi = _mm_unpackhi_pd(b, b);
+    __m128d as = _mm_shuffle_pd(a, a, 1);
+    __m128d t1 = _mm_mul_pd(a, br);
+    __m128d t2 = _mm_xor_pd(_mm_mul_pd(as, bi), _mm_set_pd(0.0, -0.0));
+    return _mm_add_pd(t1, t2);
+}
+
+__attribute__((target("sse2")))
+static void radix4PassSse2(complexdbl* data, uint32_t N, uint32_t m, const complexdbl* twiddle, double rot)
+{
+    uint32_t twiddle_step = N / (4*m);
+    const double* tw = (const double*) twiddle;
+    const __m128d jrot = _mm_set_pd(rot, -rot);
+
+    for (uint32_t offset = 0; offset < N; offset += 4*m) {
+        double* A = (double*) (data + offset);
+        double* B = A + 2*m;
+        double* C = B + 2*m;
+        double* D = C + 2*m;
+        for (uint32_t i = 0; i < m; i++) {
+            __m128d a = _mm_loadu_pd(A + 2*i);
+            __m128d b = cmulSse2(_mm_loadu_pd(B + 2*i), _mm_loadu_pd(tw + 2*(2*i*twiddle_step)));
+            __m128d c = cmulSse2(_mm_loadu_pd(C + 2*i), _mm_loadu_pd(tw + 2*(i*twiddle_step)));
+            __m128d d = cmulSse2(_mm_loadu_pd(D + 2*i), _mm_loadu_pd(tw + 2*(3*i*twiddle_step)));
+
+            __m128d apb = _mm_add_pd(a, b), amb = _mm_sub_pd(a, b);
+            __m128d cpd = _mm_add_pd(c, d), cmd = _mm_sub_pd(c, d);
+            __m128d jcmd = _mm_mul_pd(_mm_shuffle_pd(cmd, cmd, 1), jrot);
+
+            _mm_storeu_pd(A + 2*i, _mm_add_pd(apb, cpd));
+            _mm_storeu_pd(B + 2*i, _mm_add_pd(amb, jcmd));
+            _mm_storeu_pd(C + 2*i, _mm_sub_pd(apb, cpd));
+            _mm_storeu_pd(D + 2*i, _mm_sub_pd(amb, jcmd));
+        }
+    }
+}
+
+__attribute__((target("sse2")))
+static void magnitudeSse2(const complexdbl* in, double* out, uint32_t n, double scale)
+{
+    const double* p = (const double*) in;
+    const __m128d vscale = _mm_set1_pd(scale);
+    uint32_t i = 0;
+    for (; i + 2 <= n; i += 2) {
+        __m128d z0 = _mm_loadu_pd(p + 2*i);
+        __m128d z1 = _mm_loadu_pd(p + 2*i + 2);
+        z0 = _mm_mul_pd(z0, z0);
+        z1 = _mm_mul_pd(z1, z1);
+        __m128d power = _mm_add_pd(_mm_unpacklo_pd(z0, z1), _mm_unpackhi_pd(z0, z1));
+        _mm_storeu_pd(out + i, _mm_mul_pd(_mm_sqrt_pd(power), vscale));
+    }
+    magnitudeScalar<double>(in + i, out + i, n - i, scale);
+}
+
+__attribute__((target("avx")))
+static inline __m256d cmulAvx(__m256d a, __m256d b)
+{
+    __m256d br = _mm256_movedup_pd(b);
+    __m256d bi = _mm256_permute_pd(b, 0xF);
+    __m256d as = _mm256_permute_pd(a, 0x5);
+    return _mm256_addsub_pd(_mm256_mul_pd(a, br), _mm256_mul_pd(as, bi));
+}
+
+__attribute__((target("avx")))
+static inline __m256d loadTwiddlePairAvx(const double* tw, uint32_t k0, uint32_t k1)
+{
+    return _mm256_insertf128_pd(_mm256_castpd128_pd256(_mm_loadu_pd(tw + 2*k0)), _mm_loadu_pd(tw + 2*k1), 1);
+}
+
+__attribute__((target("avx")))
+static void radix4PassAvx(complexdbl* data, uint32_t N, uint32_t m, const complexdbl* twiddle, double rot)
+{
+    if (m < 2) {
+        radix4PassSse2(data, N, m, twiddle, rot);
+        return;
+    }
+
+    uint32_t twiddle_step = N / (4*m);
+    const double* tw = (const double*) twiddle;
+    const __m256d jrot = _mm256_set_pd(rot, -rot, rot, -rot);
+
+    for (uint32_t offset = 0; offset < N; offset += 4*m) {
+        double* A = (double*) (data + offset);
+        double* B = A + 2*m;
+        double* C = B + 2*m;
+        double* D = C + 2*m;
+        for (uint32_t i = 0; i < m; i += 2) {
+            __m256d wb = loadTwiddlePairAvx(tw, 2*i*twiddle_step, 2*(i+1)*twiddle_step);
+            __m256d wc = loadTwiddlePairAvx(tw, i*twiddle_step, (i+1)*twiddle_step);
+            __m256d wd = loadTwiddlePairAvx(tw, 3*i*twiddle_step, 3*(i+1)*twiddle_step);
+
+            __m256d a = _mm256_loadu_pd(A + 2*i);
+            __m256d b = cmulAvx(_mm256_loadu_pd(B + 2*i), wb);
+            __m256d c = cmulAvx(_mm256_loadu_pd(C + 2*i), wc);
+            __m256d d = cmulAvx(_mm256_loadu_pd(D + 2*i), wd);
+
+            __m256d apb = _mm256_add_pd(a, b), amb = _mm256_sub_pd(a, b);
+            __m256d cpd = _mm256_add_pd(c, d), cmd = _mm256_sub_pd(c, d);
+            __m256d jcmd = _mm256_mul_pd(_mm256_permute_pd(cmd, 0x5), jrot);
+
+            _mm256_storeu_pd(A + 2*i, _mm256_add_pd(apb, cpd));
+            _mm256_storeu_pd(B + 2*i, _mm256_add_pd(amb, jcmd));
+            _mm256_storeu_pd(C + 2*i, _mm256_sub_pd(apb, cpd));
+            _mm256_storeu_pd(D + 2*i, _mm256_sub_pd(amb, jcmd));
+        }
+    }
+}
+
+__attribute__((target("avx")))
+static void magnitudeAvx(const complexdbl* in, double* out, uint32_t n, double scale)
+{
+    const double* p = (const double*) in;
+    const __m256d vscale = _mm256_set1_pd(scale);
+    uint32_t i = 0;
+    for (; i + 4 <= n; i += 4) {
+        __m256d z01 = _mm256_loadu_pd(p + 2*i);
+        __m256d z23 = _mm256_loadu_pd(p + 2*i + 4);
+        z01 = _mm256_mul_pd(z01, z01);
+        z23 = _mm256_mul_pd(z23, z23);
+        // regroup as (z0, z2) and (z1, z3) so that the horizontal add comes out in order
+        __m256d z02 = _mm256_permute2f128_pd(z01, z23, 0x20);
+        __m256d z13 = _mm256_permute2f128_pd(z01, z23, 0x31);
+        __m256d power = _mm256_hadd_pd(z02, z13);
+        _mm256_storeu_pd(out + i, _mm256_mul_pd(_mm256_sqrt_pd(power), vscale));
+    }
+    magnitudeSse2(in + i, out + i, n - i, scale);
+}
+
+__attribute__((target("sse2")))
+static inline __m128 cmulSse2(__m128 a, __m128 b)
+{
+    __m128 br = _mm_shuffle_ps(b, b, _MM_SHUFFLE(2, 2, 0, 0));
+    __m128 bi = _mm_shuffle_ps(b, b, _MM_SHUFFLE(3, 3, 1, 1));
+    __m128 as = _mm_shuffle_ps(a, a, _MM_SHUFFLE(2, 3, 0, 1));
+    __m128 t1 = _mm_mul_ps(a, br);
+    __m128 t2 = _mm_xor_ps(_mm_mul_ps(as, bi), _mm_set_ps(0.0f, -0.0f, 0.0f, -0.0f));
+    return _mm_add_ps(t1, t2);
+}
+
+__attribute__((target("sse2")))
+static inline __m128 loadTwiddlePairSse2(const float* tw, uint32_t k0, uint32_t k1)
+{
+    __m128 lo = _mm_castpd_ps(_mm_load_sd((const double*) (tw + 2*k0)));
+    __m128 hi = _mm_castpd_ps(_mm_load_sd((const double*) (tw + 2*k1)));
+    return _mm_movelh_ps(lo, hi);
+}
+
+__attribute__((target("sse2")))
+static void radix4PassFloatSse2(complexflt* data, uint32_t N, uint32_t m, const complexflt* twiddle, float rot)
+{
+    if (m < 2) {
+        radix4PassScalar<float>(data, N, m, twiddle, rot);
+        return;
+    }
+
+    uint32_t twiddle_step = N / (4*m);
+    const float* tw = (const float*) twiddle;
+    const __m128 jrot = _mm_set_ps(rot, -rot, rot, -rot);
+
+    for (uint32_t offset = 0; offset < N; offset += 4*m) {
+        float* A = (float*) (data + offset);
+        float* B = A + 2*m;
+        float* C = B + 2*m;
+        float* D = C + 2*m;
+        for (uint32_t i = 0; i < m; i += 2) {
+            __m128 wb = loadTwiddlePairSse2(tw, 2*i*twiddle_step, 2*(i+1)*twiddle_step);
+            __m128 wc = loadTwiddlePairSse2(tw, i*twiddle_step, (i+1)*twiddle_step);
+            __m128 wd = loadTwiddlePairSse2(tw, 3*i*twiddle_step, 3*(i+1)*twiddle_step);
+
+            __m128 a = _mm_loadu_ps(A + 2*i);
+            __m128 b = cmulSse2(_mm_loadu_ps(B + 2*i), wb);
+            __m128 c = cmulSse2(_mm_loadu_ps(C + 2*i), wc);
+            __m128 d = cmulSse2(_mm_loadu_ps(D + 2*i), wd);
+
+            __m128 apb = _mm_add_ps(a, b), amb = _mm_sub_ps(a, b);
+            __m128 cpd = _mm_add_ps(c, d), cmd = _mm_sub_ps(c, d);
+            __m128 jcmd = _mm_mul_ps(_mm_shuffle_ps(cmd, cmd, _MM_SHUFFLE(2, 3, 0, 1)), jrot);
+
+            _mm_storeu_ps(A + 2*i, _mm_add_ps(apb, cpd));
+            _mm_storeu_ps(B + 2*i, _mm_add_ps(amb, jcmd));
+            _mm_storeu_ps(C + 2*i, _mm_sub_ps(apb, cpd));
+            _mm_storeu_ps(D + 2*i, _mm_sub_ps(amb, jcmd));
+        }
+    }
+}
+
+__attribute__((target("sse2")))
+static void magnitudeFloatSse2(const complexflt* in, float* out, uint32_t n, float scale)
+{
+    const float* p = (const float*) in;
+    const __m128 vscale = _mm_set1_ps(scale);
+    uint32_t i = 0;
+    for (; i + 4 <= n; i += 4) {
+        __m128 z01 = _mm_loadu_ps(p + 2*i);
+        __m128 z23 = _mm_loadu_ps(p + 2*i + 4);
+        z01 = _mm_mul_ps(z01, z01);
+        z23 = _mm_mul_ps(z23, z23);
+        __m128 re = _mm_shuffle_ps(z01, z23, _MM_SHUFFLE(2, 0, 2, 0));
+        __m128 im = _mm_shuffle_ps(z01, z23, _MM_SHUFFLE(3, 1, 3, 1));
+        _mm_storeu_ps(out + i, _mm_mul_ps(_mm_sqrt_ps(_mm_add_ps(re, im)), vscale));
+    }
+    magnitudeScalar<float>(in + i, out + i, n - i, scale);
+}
+
+__attribute__((target("avx")))
+static inline __m256 cmulAvx(__m256 a, __m256 b)
+{
+    __m256 br = _mm256_moveldup_ps(b);
+    __m256 bi = _mm256_movehdup_ps(b);
+    __m256 as = _mm256_permute_ps(a, _MM_SHUFFLE(2, 3, 0, 1));
+    return _mm256_addsub_ps(_mm256_mul_ps(a, br), _mm256_mul_ps(as, bi));
+}
+
+__attribute__((target("avx")))
+static inline __m256 loadTwiddleQuadAvx(const float* tw, uint32_t k, uint32_t step)
+{
+    __m128 lo = _mm_movelh_ps(_mm_castpd_ps(_mm_load_sd((const double*) (tw + 2*k))),
+                              _mm_castpd_ps(_mm_load_sd((const double*) (tw + 2*(k+step)))));
+    __m128 hi = _mm_movelh_ps(_mm_castpd_ps(_mm_load_sd((const double*) (tw + 2*(k+2*step)))),
+                              _mm_castpd_ps(_mm_load_sd((const double*) (tw + 2*(k+3*step)))));
+    return _mm256_insertf128_ps(_mm256_castps128_ps256(lo), hi, 1);
+}
+
+__attribute__((target("avx")))
+static void radix4PassFloatAvx(complexflt* data, uint32_t N, uint32_t m, const complexflt* twiddle, float rot)
+{
+    if (m < 4) {
+        radix4PassFloatSse2(data, N, m, twiddle, rot);
+        return;
+    }
+
+    uint32_t twiddle_step = N / (4*m);
+    const float* tw = (const float*) twiddle;
+    const __m256 jrot = _mm256_set_ps(rot, -rot, rot, -rot, rot, -rot, rot, -rot);
+
+    for (uint32_t offset = 0; offset < N; offset += 4*m) {
+        float* A = (float*) (data + offset);
+        float* B = A + 2*m;
+        float* C = B + 2*m;
+        float* D = C + 2*m;
+        for (uint32_t i = 0; i < m; i += 4) {
+            __m256 wb = loadTwiddleQuadAvx(tw, 2*i*twiddle_step, 2*twiddle_step);
+            __m256 wc = loadTwiddleQuadAvx(tw, i*twiddle_step, twiddle_step);
+            __m256 wd = loadTwiddleQuadAvx(tw, 3*i*twiddle_step, 3*twiddle_step);
+
+            __m256 a = _mm256_loadu_ps(A + 2*i);
+            __m256 b = cmulAvx(_mm256_loadu_ps(B + 2*i), wb);
+            __m256 c = cmulAvx(_mm256_loadu_ps(C + 2*i), wc);
+            __m256 d = cmulAvx(_mm256_loadu_ps(D + 2*i), wd);
+
+            __m256 apb = _mm256_add_ps(a, b), amb = _mm256_sub_ps(a, b);
+            __m256 cpd = _mm256_add_ps(c, d), cmd = _mm256_sub_ps(c, d);
+            __m256 jcmd = _mm256_mul_ps(_mm256_permute_ps(cmd, _MM_SHUFFLE(2, 3, 0, 1)), jrot);
+
+            _mm256_storeu_ps(A + 2*i, _mm256_add_ps(apb, cpd));
+            _mm256_storeu_ps(B + 2*i, _mm256_add_ps(amb, jcmd));
+            _mm256_storeu_ps(C + 2*i, _mm256_sub_ps(apb, cpd));
+            _mm256_storeu_ps(D + 2*i, _mm256_sub_ps(amb, jcmd));
+        }
+    }
+}
+
+__attribute__((target("avx")))
+static void magnitudeFloatAvx(const complexflt* in, float* out, uint32_t n, float scale)
+{
+    const float* p = (const float*) in;
+    const __m256 vscale = _mm256_set1_ps(scale);
+    uint32_t i = 0;
+    for (; i + 8 <= n; i += 8) {
+        __m256 z0123 = _mm256_loadu_ps(p + 2*i);
+        __m256 z4567 = _mm256_loadu_ps(p + 2*i + 8);
+        z0123 = _mm256_mul_ps(z0123, z0123);
+        z4567 = _mm256_mul_ps(z4567, z4567);
+        // regroup as (z0, z1, z4, z5) and (z2, z3, z6, z7) so that the in-lane shuffles come out in order
+        __m256 z0145 = _mm256_permute2f128_ps(z0123, z4567, 0x20);
+        __m256 z2367 = _mm256_permute2f128_ps(z0123, z4567, 0x31);
+        __m256 re = _mm256_shuffle_ps(z0145, z2367, _MM_SHUFFLE(2, 0, 2, 0));
+        __m256 im = _mm256_shuffle_ps(z0145, z2367, _MM_SHUFFLE(3, 1, 3, 1));
+        _mm256_storeu_ps(out + i, _mm256_mul_ps(_mm256_sqrt_ps(_mm256_add_ps(re, im)), vscale));
+    }
+    magnitudeFloatSse2(in + i, out + i, n - i, scale);
+}
+
+static const FFTKernelTable sSse2Table = {
+    FFT_SIMD_SSE2, "sse2",
+    radix4PassSse2, magnitudeSse2,
+    radix4PassFloatSse2, magnitudeFloatSse2
+};
+
+static const FFTKernelTable sAvxTable = {
+    FFT_SIMD_AVX, "avx",
+    radix4PassAvx, magnitudeAvx,
+    radix4PassFloatAvx, magnitudeFloatAvx
+};
+
+#endif // FFT_HAVE_X86
+
+/* ARM: NEON (two complex floats per register, and one complex double on AArch64) */
+
+#ifdef FFT_HAVE_NEON
+
+static inline float32x4_t cmulNeon(float32x4_t a, float32x4_t b)
+{
+    static const float SIGN[4] = { -1.0f, 1.0f, -1.0f, 1.0f };
+    float32x4x2_t b_dup = vtrnq_f32(b, b);
+    float32x4_t as = vrev64q_f32(a);
+    return vmlaq_f32(vmulq_f32(a, b_dup.val[0]), vmulq_f32(as, b_dup.val[1]), vld1q_f32(SIGN));
+}
+
+static inline float32x4_t loadTwiddlePairNeon(const float* tw, uint32_t k0, uint32_t k1)
+{
+    return vcombine_f32(vld1_f32(tw + 2*k0), vld1_f32(tw + 2*k1));
+}
+
+static void radix4PassFloatNeon(complexflt* data, uint32_t N, uint32_t m, const complexflt* twiddle, float rot)
+{
+    if (m < 2) {
+        radix4PassScalar<float>(data, N, m, twiddle, rot);
+        return;
+    }
+
+    uint32_t twiddle_step = N / (4*m);
+    const float* tw = (const float*) twiddle;
+    const float JROT[4] = { -rot, rot, -rot, rot };
+    const float32x4_t jrot = vld1q_f32(JROT);
+
+    for (uint32_t offset = 0; offset < N; offset += 4*m) {
+        float* A = (float*) (data + offset);
+        float* B = A + 2*m;
+        float* C = B + 2*m;
+        float* D = C + 2*m;
+        for (uint32_t i = 0; i < m; i += 2) {
+            float32x4_t wb = loadTwiddlePairNeon(tw, 2*i*twiddle_step, 2*(i+1)*twiddle_step);
+            float32x4_t wc = loadTwiddlePairNeon(tw, i*twiddle_step, (i+1)*twiddle_step);
+            float32x4_t wd = loadTwiddlePairNeon(tw, 3*i*twiddle_step, 3*(i+1)*twiddle_step);
+
+            float32x4_t a = vld1q_f32(A + 2*i);
+            float32x4_t b = cmulNeon(vld1q_f32(B + 2*i), wb);
+            float32x4_t c = cmulNeon(vld1q_f32(C + 2*i), wc);
+            float32x4_t d = cmulNeon(vld1q_f32(D + 2*i), wd);
+
+            float32x4_t apb = vaddq_f32(a, b), amb = vsubq_f32(a, b);
+            float32x4_t cpd = vaddq_f32(c, d), cmd = vsubq_f32(c, d);
+            float32x4_t jcmd = vmulq_f32(vrev64q_f32(cmd), jrot);
+
+            vst1q_f32(A + 2*i, vaddq_f32(apb, cpd));
+            vst1q_f32(B + 2*i, vaddq_f32(amb, jcmd));
+            vst1q_f32(C + 2*i, vsubq_f32(apb, cpd));
+            vst1q_f32(D + 2*i, vsubq_f32(amb, jcmd));
+        }
+    }
+}
+
+static void magnitudeFloatNeon(const complexflt* in, float* out, uint32_t n, float scale)
+{
+    const float* p = (const float*) in;
+    uint32_t i = 0;
+    for (; i + 4 <= n; i += 4) {
+        float32x4x2_t z = vuzpq_f32(vld1q_f32(p + 2*i), vld1q_f32(p + 2*i + 4));
+        float32x4_t power = vmlaq_f32(vmulq_f32(z.val[0], z.val[0]), z.val[1], z.val[1]);
+#ifdef FFT_HAVE_NEON_FLOAT64
+        vst1q_f32(out + i, vmulq_n_f32(vsqrtq_f32(power), scale));
+#else
+        // ARMv7 has no vector square root
+        vst1q_f32(out + i, power);
+        for (uint32_t j = i; j < i + 4; j++)
+            out[j] = sqrtf(out[j]) * scale;
+#endif
+    }
+    magnitudeScalar<float>(in + i, out + i, n - i, scale);
+}
+
+#ifdef FFT_HAVE_NEON_FLOAT64
+
+static inline float64x2_t cmulNeon(float64x2_t a, float64x2_t b)
+{
+    static const double SIGN[2] = { -1.0, 1.0 };
+    float64x2_t br = vdupq_laneq_f64(b, 0);
+    float64x2_t bi = vdupq_laneq_f64(b, 1);
+    float64x2_t as = vextq_f64(a, a, 1);
+    return vfmaq_f64(vmulq_f64(a, br), vmulq_f64(as, bi), vld1q_f64(SIGN));
+}
+
+static void radix4PassNeon(complexdbl* data, uint32_t N, uint32_t m, const complexdbl* twiddle, double rot)
+{
+    uint32_t twiddle_step = N / (4*m);
+    const double* tw = (const double*) twiddle;
+    const double JROT[2] = { -rot, rot };
+    const float64x2_t jrot = vld1q_f64(JROT);
+
+    for (uint32_t offset = 0; offset < N; offset += 4*m) {
+        double* A = (double*) (data + offset);
+        double* B = A + 2*m;
+        double* C = B + 2*m;
+        double* D = C + 2*m;
+        for (uint32_t i = 0; i < m; i++) {
+            float64x2_t a = vld1q_f64(A + 2*i);
+            float64x2_t b = cmulNeon(vld1q_f64(B + 2*i), vld1q_f64(tw + 2*(2*i*twiddle_step)));
+            float64x2_t c = cmulNeon(vld1q_f64(C + 2*i), vld1q_f64(tw + 2*(i*twiddle_step)));
+            float64x2_t d = cmulNeon(vld1q_f64(D + 2*i), vld1q_f64(tw + 2*(3*i*twiddle_step)));
+
+            float64x2_t apb = vaddq_f64(a, b), amb = vsubq_f64(a, b);
+            float64x2_t cpd = vaddq_f64(c, d), cmd = vsubq_f64(c, d);
+            float64x2_t jcmd = vmulq_f64(vextq_f64(cmd, cmd, 1), jrot);
+
+            vst1q_f64(A + 2*i, vaddq_f64(apb, cpd));
+            vst1q_f64(B + 2*i, vaddq_f64(amb, jcmd));
+            vst1q_f64(C + 2*i, vsubq_f64(apb, cpd));
+            vst1q_f64(D + 2*i, vsubq_f64(amb, jcmd));
+        }
+    }
+}
+
+static void magnitudeNeon(const complexdbl* in, double* out, uint32_t n, double scale)
+{
+    const double* p = (const double*) in;
+    const float64x2_t vscale = vdupq_n_f64(scale);
+    uint32_t i = 0;
+    for (; i + 2 <= n; i += 2) {
+        float64x2_t z0 = vld1q_f64(p + 2*i);
+        float64x2_t z1 = vld1q_f64(p + 2*i + 2);
+        float64x2_t power = vpaddq_f64(vmulq_f64(z0, z0), vmulq_f64(z1, z1));
+        vst1q_f64(out + i, vmulq_f64(vsqrtq_f64(power), vscale));
+    }
+    magnitudeScalar<double>(in + i, out + i, n - i, scale);
+}
+
+static const FFTKernelTable sNeonTable = {
+    FFT_SIMD_NEON, "neon",
+    radix4PassNeon, magnitudeNeon,
+    radix4PassFloatNeon, magnitudeFloatNeon
+};
+
+#else
+
+static const FFTKernelTable sNeonTable = {
+    FFT_SIMD_NEON, "neon",
+    radix4PassScalar<double>, magnitudeScalar<double>,
+    radix4PassFloatNeon, magnitudeFloatNeon
+};
+
+#endif // FFT_HAVE_NEON_FLOAT64
+
+static bool isNeonSupported()
+{
+#if defined(FFT_HAVE_NEON_FLOAT64) || !defined(__ANDROID__)
+    return true;
+#else
+    return android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM &&
+           (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0;
+#endif
+}
+
+#endif // FFT_HAVE_NEON
+
+FFTSimdLevel detectSimdLevel()
+{
+#if defined(FFT_HAVE_X86)
+    __builtin_cpu_init();
+    if (__builtin_cpu_supports("avx"))
+        return FFT_SIMD_AVX;
+    if (__builtin_cpu_supports("sse2"))
+        return FFT_SIMD_SSE2;
+#elif defined(FFT_HAVE_NEON)
+    if (isNeonSupported())
+        return FFT_SIMD_NEON;
+#endif
+    return FFT_SIMD_SCALAR;
+}
+
+bool isSimdLevelSupported(FFTSimdLevel level)
+{
+    return getKernelTable(level) != NULL;
+}
+
+const FFTKernelTable* getKernelTable(FFTSimdLevel level)
+{
+    switch (level) {
+        case FFT_SIMD_SCALAR:
+            return &sScalarTable;
+#ifdef FFT_HAVE_X86
+        case FFT_SIMD_SSE2:
+            __builtin_cpu_init();
+            return __builtin_cpu_supports("sse2") ? &sSse2Table : NULL;
+        case FFT_SIMD_AVX:
+            __builtin_cpu_init();
+            return __builtin_cpu_supports("avx") ? &sAvxTable : NULL;
+#endif
+#ifdef FFT_HAVE_NEON
+        case FFT_SIMD_NEON:
+            return isNeonSupported() ? &sNeonTable : NULL;
+#endif
+        default:
+            return NULL;
+    }
+}
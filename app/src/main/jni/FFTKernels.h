@@ -0,0 +1,47 @@
+//
+// Vectorized kernels of the native FFT and their runtime dispatch.
+//
+
+#ifndef TONEDETECTOR_FFTKERNELS_H
+#define TONEDETECTOR_FFTKERNELS_H
+
+#include <stdint.h>
+#include <complex>
+
+typedef std::complex<double> complexdbl;
+typedef std::complex<float> complexflt;
+
+enum FFTSimdLevel {
+    FFT_SIMD_SCALAR,
+    FFT_SIMD_SSE2,
+    FFT_SIMD_AVX,
+    FFT_SIMD_NEON
+};
+
+/*
+ * The hot loops of the transforms, one table per instruction set. The vectorized ones are compiled
+ * in per-function (no global -mavx is needed), and the table to use is picked at runtime from the
+ * features of the CPU, with the scalar one as the fallback on every architecture. NEON covers both
+ * precisions on AArch64 but only the single-precision kernels on ARMv7, which has no double lanes.
+ */
+struct FFTKernelTable {
+    FFTSimdLevel level;
+    const char* name;
+
+    // one radix-2^2 pass merging the blocks of size m into blocks of size 4m, rot is -1 for the
+    // forward transform and +1 for the inverse one
+    void (*radix4Pass)(complexdbl* data, uint32_t N, uint32_t m, const complexdbl* twiddle, double rot);
+    // out[i] = |in[i]| * scale
+    void (*magnitude)(const complexdbl* in, double* out, uint32_t n, double scale);
+
+    // the single-precision variants of the above
+    void (*radix4PassFloat)(complexflt* data, uint32_t N, uint32_t m, const complexflt* twiddle, float rot);
+    void (*magnitudeFloat)(const complexflt* in, float* out, uint32_t n, float scale);
+};
+
+FFTSimdLevel detectSimdLevel();
+bool isSimdLevelSupported(FFTSimdLevel level);
+// returns NULL if the level is not supported by this build or CPU
+const FFTKernelTable* getKernelTable(FFTSimdLevel level);
+
+#endif //TONEDETECTOR_FFTKERNELS_H
@@ -0,0 +1,85 @@
+//
+// A fixed-size pool of native threads shared by the batched transforms.
+//
+
+#include <algorithm>
+#include "FFTWorkerPool.h"
+
+FFTWorkerPool* FFTWorkerPool::get()
+{
+    // never destroyed: the workers must not be joined from a static destructor at exit
+    static FFTWorkerPool* sPool = new FFTWorkerPool(std::max(1u, std::thread::hardware_concurrency()) - 1);
+    return sPool;
+}
+
+FFTWorkerPool::FFTWorkerPool(uint32_t num_workers)
+{
+    for (uint32_t i = 0; i < num_workers; i++)
+        mWorkers.push_back(std::thread(&FFTWorkerPool::workerLoop, this));
+    for (uint32_t i = 0; i < num_workers; i++)
+        mWorkers[i].detach();
+}
+
+void FFTWorkerPool::drain(Batch* batch)
+{
+    uint32_t i;
+    while ((i = batch->next.fetch_add(1)) < batch->count)
+        (*batch->task)(i);
+}
+
+/*
+ * Drops a batch that has no index left from the queue and wakes up its submitter once the last
+ * worker let go of it; the batch lives on the stack of the submitter.
+ */
+void FFTWorkerPool::release(Batch* batch)
+{
+    std::lock_guard<std::mutex> lock(mLock);
+    std::deque<Batch*>::iterator it = std::find(mQueue.begin(), mQueue.end(), batch);
+    if (it != mQueue.end())
+        mQueue.erase(it);
+    if (--batch->users == 0)
+        mDoneCond.notify_all();
+}
+
+void FFTWorkerPool::workerLoop()
+{
+    while (true) {
+        Batch* batch;
+        {
+            std::unique_lock<std::mutex> lock(mLock);
+            while (mQueue.empty())
+                mQueueCond.wait(lock);
+            batch = mQueue.front();
+            batch->users++;
+        }
+        drain(batch);
+        release(batch);
+    }
+}
+
+void FFTWorkerPool::parallelFor(uint32_t count, const std::function<void(uint32_t)>& task)
+{
+    if (count <= 1 || mWorkers.empty()) {
+        for (uint32_t i = 0; i < count; i++)
+            task(i);
+        return;
+    }
+
+    Batch batch;
+    batch.task = &task;
+    batch.count = count;
+    batch.next = 0;
+    batch.users = 1;
+    {
+        std::lock_guard<std::mutex> lock(mLock);
+        mQueue.push_back(&batch);
+    }
+    mQueueCond.notify_all();
+
+    drain(&batch);
+    release(&batch);
+
+    std::unique_lock<std::mutex> lock(mLock);
+    while (batch.users > 0)
+        mDoneCond.wait(lock);
+}
@@ -0,0 +1,57 @@
+//
+// A fixed-size pool of native threads shared by the batched transforms.
+//
+
+#ifndef TONEDETECTOR_FFTWORKERPOOL_H
+#define TONEDETECTOR_FFTWORKERPOOL_H
+
+#include <stdint.h>
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <functional>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+/*
+ * The workers are started once, on the first batch, and live for the lifetime of the process.
+ * Several threads may submit batches at the same time; the workers then drain them in order.
+ */
+class FFTWorkerPool
+{
+public:
+    // the process-wide pool, with one thread per online core (the calling thread included)
+    static FFTWorkerPool* get();
+
+    // the number of threads a batch is spread over, the calling thread included
+    uint32_t size() const { return (uint32_t) mWorkers.size() + 1; }
+
+    // runs task(i) for every i in [0, count) and returns once all of them are done;
+    // the calling thread takes its share of the indexes instead of just waiting
+    void parallelFor(uint32_t count, const std::function<void(uint32_t)>& task);
+
+private:
+    struct Batch {
+        const std::function<void(uint32_t)>* task;
+        uint32_t count;
+        std::atomic<uint32_t> next;
+        uint32_t users;
+    };
+
+    explicit FFTWorkerPool(uint32_t num_workers);
+    FFTWorkerPool(const FFTWorkerPool&);
+    FFTWorkerPool& operator=(const FFTWorkerPool&);
+
+    void workerLoop();
+    static void drain(Batch* batch);
+    void release(Batch* batch);
+
+    std::vector<std::thread> mWorkers;
+    std::deque<Batch*> mQueue;
+    std::mutex mLock;
+    std::condition_variable mQueueCond;
+    std::condition_variable mDoneCond;
+};
+
+#endif //TONEDETECTOR_FFTWORKERPOOL_H
@@ -0,0 +1,67 @@
+//
+// Decoding of the raw PCM delivered by AudioRecord into the analysis signal.
+//
+
+#include <cmath>
+#include <map>
+#include <mutex>
+#include <vector>
+#include "Pcm.h"
+
+static std::map<uint64_t, std::vector<float>*> sWindowCache;
+static std::mutex sWindowCacheLock;
+
+const float* getPcmWindow(PcmWindow window, uint32_t size)
+{
+    if (window == PCM_WINDOW_NONE)
+        return NULL;
+
+    uint64_t key = ((uint64_t) size << 8) | (uint64_t) window;
+    std::lock_guard<std::mutex> lock(sWindowCacheLock);
+    std::map<uint64_t, std::vector<float>*>::iterator it = sWindowCache.find(key);
+    if (it != sWindowCache.end())
+        return it->second->data();
+
+    std::vector<float>* coefs = new std::vector<float>(size);
+    for (uint32_t i = 0; i < size; i++) {
+        // periodic Hann, which tiles without gaps for the analysis of consecutive frames
+        (*coefs)[i] = (float) (0.5 - 0.5 * cos(2 * M_PI * i / size));
+    }
+    sWindowCache[key] = coefs;
+    return coefs->data();
+}
+
+uint32_t getPcmNumSamples(uint32_t length, int bytes_per_sample, int num_channels, int decimation)
+{
+    return length / bytes_per_sample / (num_channels * decimation);
+}
+
+static inline int32_t readSample(const uint8_t* p, int bytes_per_sample)
+{
+    switch (bytes_per_sample) {
+        case 2:
+            return (int16_t) (p[0] | (p[1] << 8));
+        case 3:
+            return ((int32_t) ((uint32_t) p[0] << 8 | (uint32_t) p[1] << 16 | (uint32_t) p[2] << 24)) >> 8;
+        default:
+            return (int32_t) ((uint32_t) p[0] | (uint32_t) p[1] << 8 | (uint32_t) p[2] << 16 | (uint32_t) p[3] << 24);
+    }
+}
+
+uint32_t decodePcm(const uint8_t* pcm, uint32_t length, int bytes_per_sample, int num_channels, int decimation,
+                   float normalization, const float* window, float* out)
+{
+    uint32_t n = getPcmNumSamples(length, bytes_per_sample, num_channels, decimation);
+    uint32_t stride = (uint32_t) (bytes_per_sample * num_channels * decimation);
+    float gain = 1.0f / normalization;
+
+    if (window == NULL) {
+        for (uint32_t i = 0; i < n; i++)
+            out[i] = readSample(pcm + i*stride, bytes_per_sample) * gain;
+    } else {
+        for (uint32_t i = 0; i < n; i++)
+            out[i] = readSample(pcm + i*stride, bytes_per_sample) * gain * window[i];
+    }
+
+    return n;
+}
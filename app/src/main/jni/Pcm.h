@@ -0,0 +1,34 @@
+//
+// Decoding of the raw PCM delivered by AudioRecord into the analysis signal.
+//
+
+#ifndef TONEDETECTOR_PCM_H
+#define TONEDETECTOR_PCM_H
+
+#include <stdint.h>
+
+enum PcmWindow {
+    PCM_WINDOW_NONE = 0,
+    PCM_WINDOW_HANN = 1
+};
+
+/*
+ * Returns the window coefficients of the given length, which are computed once and cached for the
+ * lifetime of the process, or NULL for PCM_WINDOW_NONE.
+ */
+const float* getPcmWindow(PcmWindow window, uint32_t size);
+
+/*
+ * The number of analysis samples decodePcm() produces from length bytes of interleaved PCM.
+ */
+uint32_t getPcmNumSamples(uint32_t length, int bytes_per_sample, int num_channels, int decimation);
+
+/*
+ * Takes the first channel of every decimation-th frame of the little-endian interleaved PCM
+ * (16-bit, packed 24-bit or 32-bit containers), divides it by the normalization factor and applies
+ * the window, all in a single pass. Returns the number of samples written to out.
+ */
+uint32_t decodePcm(const uint8_t* pcm, uint32_t length, int bytes_per_sample, int num_channels, int decimation,
+                   float normalization, const float* window, float* out);
+
+#endif //TONEDETECTOR_PCM_H
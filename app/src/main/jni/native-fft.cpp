@@ -5,6 +5,216 @@
 #include <jni.h>
 #include <string>
 #include "FFT.h"
+#include "Pcm.h"
+
+/*
+ * The working buffers are kept per calling thread and only grow, so that the steady-state
+ * per-frame path does not touch the native heap.
+ */
+static thread_local std::vector<double> tls_signal;
+static thread_local std::vector<double> tls_spectrum_amp;
+static thread_local std::vector<complexdbl> tls_scratch;
+static thread_local std::vector<float> tls_signal_flt;
+static thread_local std::vector<float> tls_spectrum_amp_flt;
+static thread_local std::vector<complexflt> tls_scratch_flt;
+
+/*
+ * The input is always real PCM, so only the N/2+1 non-redundant bins are computed and returned.
+ */
+static jdoubleArray transformAbs(JNIEnv *env, jdoubleArray jsignal, const FFTPlan* plan)
+{
+    jsize size = env->GetArrayLength(jsignal);
+    uint32_t nbins = plan->size()/2 + 1;
+    if (tls_signal.size() < (uint32_t) size) tls_signal.resize(size);
+    if (tls_spectrum_amp.size() < nbins) tls_spectrum_amp.resize(nbins);
+    if (tls_scratch.size() < nbins) tls_scratch.resize(nbins);
+
+    env->GetDoubleArrayRegion(jsignal, 0, size, tls_signal.data());
+    FFT::transformRealAbs(tls_signal.data(), (uint32_t) size, tls_spectrum_amp.data(), tls_scratch.data(), plan);
+
+    jdoubleArray jspectrum_amp = env->NewDoubleArray(nbins);
+    env->SetDoubleArrayRegion(jspectrum_amp, 0, nbins, tls_spectrum_amp.data());
+
+    return jspectrum_amp;
+}
+
+static jfloatArray transformAbs(JNIEnv *env, jfloatArray jsignal, const FFTPlan* plan)
+{
+    jsize size = env->GetArrayLength(jsignal);
+    uint32_t nbins = plan->size()/2 + 1;
+    if (tls_signal_flt.size() < (uint32_t) size) tls_signal_flt.resize(size);
+    if (tls_spectrum_amp_flt.size() < nbins) tls_spectrum_amp_flt.resize(nbins);
+    if (tls_scratch_flt.size() < nbins) tls_scratch_flt.resize(nbins);
+
+    env->GetFloatArrayRegion(jsignal, 0, size, tls_signal_flt.data());
+    FFT::transformRealAbs(tls_signal_flt.data(), (uint32_t) size, tls_spectrum_amp_flt.data(), tls_scratch_flt.data(), plan);
+
+    jfloatArray jspectrum_amp = env->NewFloatArray(nbins);
+    env->SetFloatArrayRegion(jspectrum_amp, 0, nbins, tls_spectrum_amp_flt.data());
+
+    return jspectrum_amp;
+}
+
+/*
+ * The allocation-free array variants write the magnitudes to a caller-owned array.
+ */
+static jint transformAbsArray(JNIEnv *env, jdoubleArray jsignal, jint size, jdoubleArray jspectrum)
+{
+    const FFTPlan* plan = FFTPlan::get(ceilpw2((uint32_t) size), false);
+    uint32_t nbins = plan->size()/2 + 1;
+    if (tls_signal.size() < (uint32_t) size) tls_signal.resize(size);
+    if (tls_spectrum_amp.size() < nbins) tls_spectrum_amp.resize(nbins);
+    if (tls_scratch.size() < nbins) tls_scratch.resize(nbins);
+
+    env->GetDoubleArrayRegion(jsignal, 0, size, tls_signal.data());
+    FFT::transformRealAbs(tls_signal.data(), (uint32_t) size, tls_spectrum_amp.data(), tls_scratch.data(), plan);
+    env->SetDoubleArrayRegion(jspectrum, 0, nbins, tls_spectrum_amp.data());
+    return nbins;
+}
+
+static jint transformAbsArray(JNIEnv *env, jfloatArray jsignal, jint size, jfloatArray jspectrum)
+{
+    const FFTPlan* plan = FFTPlan::get(ceilpw2((uint32_t) size), false);
+    uint32_t nbins = plan->size()/2 + 1;
+    if (tls_signal_flt.size() < (uint32_t) size) tls_signal_flt.resize(size);
+    if (tls_spectrum_amp_flt.size() < nbins) tls_spectrum_amp_flt.resize(nbins);
+    if (tls_scratch_flt.size() < nbins) tls_scratch_flt.resize(nbins);
+
+    env->GetFloatArrayRegion(jsignal, 0, size, tls_signal_flt.data());
+    FFT::transformRealAbs(tls_signal_flt.data(), (uint32_t) size, tls_spectrum_amp_flt.data(), tls_scratch_flt.data(), plan);
+    env->SetFloatArrayRegion(jspectrum, 0, nbins, tls_spectrum_amp_flt.data());
+    return nbins;
+}
+
+/*
+ * The direct buffer variants read and write the caller-owned memory in place, so nothing is copied
+ * through JNI and nothing is allocated on the Java heap. The plan is derived from the size when
+ * jplan is 0. Returns the number of bins written, or -1 if a buffer is not direct, an offset or the
+ * size is out of its bounds, or the spectrum does not fit.
+ */
+template<class R>
+static jint transformAbsDirect(JNIEnv *env, jlong jplan, jobject jsignal, jint signal_offset, jint size,
+                               jobject jspectrum, jint spectrum_offset,
+                               std::vector< std::complex<R> >& scratch)
+{
+    R* signal = (R*) env->GetDirectBufferAddress(jsignal);
+    R* spectrum_amp = (R*) env->GetDirectBufferAddress(jspectrum);
+    if (signal == NULL || spectrum_amp == NULL)
+        return -1;
+    if (signal_offset < 0 || size < 1 || spectrum_offset < 0
+            || (jlong) signal_offset + size > env->GetDirectBufferCapacity(jsignal))
+        return -1;
+
+    const FFTPlan* plan = (const FFTPlan*) (intptr_t) jplan;
+    if (plan == NULL || plan->isInverse())
+        plan = FFTPlan::get(plan == NULL ? ceilpw2((uint32_t) size) : plan->size(), false);
+
+    uint32_t nbins = plan->size()/2 + 1;
+    if (env->GetDirectBufferCapacity(jspectrum) - spectrum_offset < (jlong) nbins)
+        return -1;
+    if (scratch.size() < nbins) scratch.resize(nbins);
+
+    FFT::transformRealAbs(signal + signal_offset, (uint32_t) size, spectrum_amp + spectrum_offset, scratch.data(), plan);
+    return nbins;
+}
+
+/*
+ * The batched variant of transformAbsDirect(): num_frames frames of frame_size samples are read
+ * back to back from the signals buffer and their spectra are written back to back, nbins apart.
+ * Returns the number of bins per frame, or -1 if a buffer is not direct, an offset or a count is
+ * negative, or a buffer is too small.
+ */
+template<class R>
+static jint transformAbsBatchDirect(JNIEnv *env, jlong jplan, jobject jsignals, jint signals_offset,
+                                    jint frame_size, jint num_frames, jobject jspectra, jint spectra_offset)
+{
+    R* signals = (R*) env->GetDirectBufferAddress(jsignals);
+    R* spectra_amp = (R*) env->GetDirectBufferAddress(jspectra);
+    if (signals == NULL || spectra_amp == NULL)
+        return -1;
+    if (signals_offset < 0 || frame_size < 1 || num_frames < 0 || spectra_offset < 0)
+        return -1;
+
+    const FFTPlan* plan = (const FFTPlan*) (intptr_t) jplan;
+    if (plan == NULL || plan->isInverse())
+        plan = FFTPlan::get(plan == NULL ? ceilpw2((uint32_t) frame_size) : plan->size(), false);
+
+    uint32_t nbins = plan->size()/2 + 1;
+    if (env->GetDirectBufferCapacity(jsignals) - signals_offset < (jlong) frame_size * num_frames)
+        return -1;
+    if (env->GetDirectBufferCapacity(jspectra) - spectra_offset < (jlong) nbins * num_frames)
+        return -1;
+
+    FFT::transformRealAbsBatch(signals + signals_offset, (uint32_t) frame_size, (uint32_t) num_frames,
+                               spectra_amp + spectra_offset, plan);
+    return nbins;
+}
+
+// sizes the thread-local buffers of the PCM paths
+static const FFTPlan* prepareSpectrumFromPcm(uint32_t size)
+{
+    const FFTPlan* plan = FFTPlan::get(ceilpw2(size), false);
+    uint32_t nbins = plan->size()/2 + 1;
+    if (tls_signal_flt.size() < size) tls_signal_flt.resize(size);
+    if (tls_spectrum_amp_flt.size() < nbins) tls_spectrum_amp_flt.resize(nbins);
+    if (tls_scratch_flt.size() < nbins) tls_scratch_flt.resize(nbins);
+    return plan;
+}
+
+static jint finishSpectrumFromPcm(JNIEnv *env, uint32_t size, const FFTPlan* plan,
+                                  jfloatArray jsignal, jfloatArray jspectrum)
+{
+    uint32_t nbins = plan->size()/2 + 1;
+    FFT::transformRealAbs(tls_signal_flt.data(), size, tls_spectrum_amp_flt.data(), tls_scratch_flt.data(), plan);
+
+    if (jsignal != NULL)
+        env->SetFloatArrayRegion(jsignal, 0, size, tls_signal_flt.data());
+    env->SetFloatArrayRegion(jspectrum, 0, nbins, tls_spectrum_amp_flt.data());
+    return nbins;
+}
+
+/*
+ * The fused PCM path: the first channel of the interleaved PCM is decoded, normalized and windowed
+ * straight out of the pinned byte array into the thread-local signal, so the frame is walked once
+ * and no intermediate Java array is created. Returns the number of bins written.
+ */
+static jint spectrumFromPcm(JNIEnv *env, jbyteArray jpcm, jint length, jint bytes_per_sample, jint num_channels,
+                            jint decimation, jfloat normalization, jint window,
+                            jfloatArray jsignal, jfloatArray jspectrum)
+{
+    uint32_t size = getPcmNumSamples((uint32_t) length, bytes_per_sample, num_channels, decimation);
+    const FFTPlan* plan = prepareSpectrumFromPcm(size);
+    const float* coefs = getPcmWindow((PcmWindow) window, size);
+
+    uint8_t* pcm = (uint8_t*) env->GetPrimitiveArrayCritical(jpcm, NULL);
+    if (pcm == NULL)
+        return -1;
+    decodePcm(pcm, (uint32_t) length, bytes_per_sample, num_channels, decimation, normalization, coefs,
+              tls_signal_flt.data());
+    env->ReleasePrimitiveArrayCritical(jpcm, pcm, JNI_ABORT);
+
+    return finishSpectrumFromPcm(env, size, plan, jsignal, jspectrum);
+}
+
+/*
+ * The same, decoding in place from a direct buffer: no copy and no critical section at all.
+ */
+static jint spectrumFromPcmDirect(JNIEnv *env, jobject jpcm, jint offset, jint length, jint bytes_per_sample,
+                                  jint num_channels, jint decimation, jfloat normalization, jint window,
+                                  jfloatArray jsignal, jfloatArray jspectrum)
+{
+    uint8_t* pcm = (uint8_t*) env->GetDirectBufferAddress(jpcm);
+    if (pcm == NULL || offset < 0 || (jlong) offset + length > env->GetDirectBufferCapacity(jpcm))
+        return -1;
+
+    uint32_t size = getPcmNumSamples((uint32_t) length, bytes_per_sample, num_channels, decimation);
+    const FFTPlan* plan = prepareSpectrumFromPcm(size);
+    const float* coefs = getPcmWindow((PcmWindow) window, size);
+    decodePcm(pcm + offset, (uint32_t) length, bytes_per_sample, num_channels, decimation, normalization, coefs,
+              tls_signal_flt.data());
+
+    return finishSpectrumFromPcm(env, size, plan, jsignal, jspectrum);
+}
 
 extern "C"
 {
@@ -16,25 +226,89 @@ JNIEXPORT jstring JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_getVersion(
 JNIEXPORT jdoubleArray JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_transformAbs(
         JNIEnv *env, jobject thiz, jdoubleArray jsignal) {
     jsize size = env->GetArrayLength(jsignal);
-    std::vector<complexdbl> spectrum(size);
-    std::vector<double> signal(size);
+    return transformAbs(env, jsignal, FFTPlan::get(ceilpw2((uint32_t) size), false));
+}
 
-    double value[size];
-    env->GetDoubleArrayRegion(jsignal, 0, size, value);
+JNIEXPORT jfloatArray JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_transformAbsFloat(
+        JNIEnv *env, jobject thiz, jfloatArray jsignal) {
+    jsize size = env->GetArrayLength(jsignal);
+    return transformAbs(env, jsignal, FFTPlan::get(ceilpw2((uint32_t) size), false));
+}
 
-    for (uint32_t i = 0; i < size; i++) {
-        signal[i] = value[i];
-    }
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbsArray(
+        JNIEnv *env, jobject thiz, jdoubleArray jsignal, jint size, jdoubleArray jspectrum) {
+    return transformAbsArray(env, jsignal, size, jspectrum);
+}
 
-    spectrum = FFT::transform<double>(signal);
-    double spectrum_amp[spectrum.size()];
-    for (uint32_t i = 0; i < spectrum.size(); i++) {
-        spectrum_amp[i] = std::abs(spectrum[i]);
-    }
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbsArrayFloat(
+        JNIEnv *env, jobject thiz, jfloatArray jsignal, jint size, jfloatArray jspectrum) {
+    return transformAbsArray(env, jsignal, size, jspectrum);
+}
 
-    jdoubleArray jspectrum_amp = env->NewDoubleArray(spectrum.size());
-    env->SetDoubleArrayRegion(jspectrum_amp, 0, spectrum.size(), spectrum_amp);
+JNIEXPORT jlong JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeGetPlan(
+        JNIEnv *env, jobject thiz, jint size, jboolean inverse) {
+    return (jlong) (intptr_t) FFTPlan::get(ceilpw2((uint32_t) size), inverse == JNI_TRUE);
+}
 
-    return jspectrum_amp;
+JNIEXPORT jdoubleArray JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbs(
+        JNIEnv *env, jobject thiz, jlong jplan, jdoubleArray jsignal) {
+    const FFTPlan* plan = (const FFTPlan*) (intptr_t) jplan;
+    // the magnitudes of the inverse transform of a real signal are the same as the forward ones
+    if (plan == NULL || plan->isInverse())
+        plan = FFTPlan::get(plan == NULL ? ceilpw2((uint32_t) env->GetArrayLength(jsignal)) : plan->size(), false);
+    return transformAbs(env, jsignal, plan);
+}
+
+JNIEXPORT jfloatArray JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbsFloat(
+        JNIEnv *env, jobject thiz, jlong jplan, jfloatArray jsignal) {
+    const FFTPlan* plan = (const FFTPlan*) (intptr_t) jplan;
+    if (plan == NULL || plan->isInverse())
+        plan = FFTPlan::get(plan == NULL ? ceilpw2((uint32_t) env->GetArrayLength(jsignal)) : plan->size(), false);
+    return transformAbs(env, jsignal, plan);
+}
+
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbsDirect(
+        JNIEnv *env, jobject thiz, jlong jplan, jobject jsignal, jint signal_offset, jint size,
+        jobject jspectrum, jint spectrum_offset) {
+    return transformAbsDirect<double>(env, jplan, jsignal, signal_offset, size, jspectrum, spectrum_offset, tls_scratch);
+}
+
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbsDirectFloat(
+        JNIEnv *env, jobject thiz, jlong jplan, jobject jsignal, jint signal_offset, jint size,
+        jobject jspectrum, jint spectrum_offset) {
+    return transformAbsDirect<float>(env, jplan, jsignal, signal_offset, size, jspectrum, spectrum_offset, tls_scratch_flt);
+}
+
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeSpectrumFromPcm(
+        JNIEnv *env, jobject thiz, jbyteArray jpcm, jint length, jint bytes_per_sample, jint num_channels,
+        jint decimation, jfloat normalization, jint window, jfloatArray jsignal, jfloatArray jspectrum) {
+    return spectrumFromPcm(env, jpcm, length, bytes_per_sample, num_channels, decimation, normalization, window,
+                           jsignal, jspectrum);
+}
+
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeSpectrumFromPcmDirect(
+        JNIEnv *env, jobject thiz, jobject jpcm, jint offset, jint length, jint bytes_per_sample, jint num_channels,
+        jint decimation, jfloat normalization, jint window, jfloatArray jsignal, jfloatArray jspectrum) {
+    return spectrumFromPcmDirect(env, jpcm, offset, length, bytes_per_sample, num_channels, decimation,
+                                 normalization, window, jsignal, jspectrum);
+}
+
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_getBatchThreads(
+        JNIEnv *env, jobject thiz) {
+    return FFT::getBatchThreads();
+}
+
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbsBatch(
+        JNIEnv *env, jobject thiz, jlong jplan, jobject jsignals, jint signals_offset, jint frame_size,
+        jint num_frames, jobject jspectra, jint spectra_offset) {
+    return transformAbsBatchDirect<double>(env, jplan, jsignals, signals_offset, frame_size, num_frames,
+                                           jspectra, spectra_offset);
+}
+
+JNIEXPORT jint JNICALL Java_com_htc_audiofunctionsdemo_utils_FFT_nativeTransformAbsBatchFloat(
+        JNIEnv *env, jobject thiz, jlong jplan, jobject jsignals, jint signals_offset, jint frame_size,
+        jint num_frames, jobject jspectra, jint spectra_offset) {
+    return transformAbsBatchDirect<float>(env, jplan, jsignals, signals_offset, frame_size, num_frames,
+                                          jspectra, spectra_offset);
 }
 }
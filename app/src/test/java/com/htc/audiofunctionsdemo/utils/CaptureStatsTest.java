@@ -0,0 +1,70 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureStatsTest {
+    private static final int RATE = 48000;
+    private static final int PERIOD_FRAMES = 480;
+    private static final long PERIOD_NANOS = 10000000L;
+    private static final long TOLERANCE_NANOS = 4 * PERIOD_NANOS;
+
+    @Test
+    public void steadyReads_haveNoGap() {
+        CaptureStats stats = new CaptureStats(RATE, TOLERANCE_NANOS);
+        stats.onStart(0);
+        for (int i = 1; i <= 6000; i++)
+            stats.onRead(PERIOD_FRAMES, PERIOD_FRAMES, i * PERIOD_NANOS);
+
+        assertEquals(6000, stats.getReads());
+        assertEquals(6000L * PERIOD_FRAMES, stats.getFrames());
+        assertEquals(0, stats.getShortReads());
+        assertEquals(0, stats.getGaps());
+        assertEquals(0, stats.getLostNanos());
+        assertEquals(PERIOD_NANOS, stats.getMaxReadIntervalNanos());
+    }
+
+    @Test
+    public void jitterWithinTheBuffer_isNoGap() {
+        CaptureStats stats = new CaptureStats(RATE, TOLERANCE_NANOS);
+        stats.onStart(0);
+        for (int i = 1; i <= 1000; i++) {
+            // reads come back late by up to 3 periods, then the buffered ones return at once
+            long jitter = (i % 4) * PERIOD_NANOS - (i % 4 == 3 ? 3 * PERIOD_NANOS : 0);
+            stats.onRead(PERIOD_FRAMES, PERIOD_FRAMES, i * PERIOD_NANOS + jitter);
+        }
+
+        assertEquals(0, stats.getGaps());
+    }
+
+    @Test
+    public void hole_isOneGapOfItsDuration() {
+        long hole = 25 * PERIOD_NANOS;
+        CaptureStats stats = new CaptureStats(RATE, TOLERANCE_NANOS);
+        stats.onStart(0);
+        long now = 0;
+        for (int i = 1; i <= 1000; i++) {
+            now += PERIOD_NANOS;
+            if (i == 500)
+                now += hole;
+            stats.onRead(PERIOD_FRAMES, PERIOD_FRAMES, now);
+        }
+
+        assertEquals(1, stats.getGaps());
+        assertEquals(hole, stats.getLostNanos());
+        assertEquals(hole + PERIOD_NANOS, stats.getMaxReadIntervalNanos());
+    }
+
+    @Test
+    public void shortReads_areCounted() {
+        CaptureStats stats = new CaptureStats(RATE, TOLERANCE_NANOS);
+        stats.onStart(0);
+        stats.onRead(PERIOD_FRAMES, PERIOD_FRAMES, PERIOD_NANOS);
+        stats.onRead(PERIOD_FRAMES / 2, PERIOD_FRAMES, PERIOD_NANOS + PERIOD_NANOS / 2);
+
+        assertEquals(2, stats.getReads());
+        assertEquals(1, stats.getShortReads());
+        assertEquals(PERIOD_FRAMES + PERIOD_FRAMES / 2, stats.getFrames());
+    }
+}
@@ -0,0 +1,260 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The behavior every {@link FftEngine} must have, checked against a direct DFT. Every engine gets
+ * a subclass that only provides the instance.
+ */
+public abstract class FftEngineConformanceTest {
+    private static final int[] SIZES = {1, 2, 3, 4, 5, 8, 17, 64, 160, 320, 1000, 1024};
+
+    protected FftEngine mEngine;
+
+    protected abstract FftEngine createEngine();
+
+    @Before
+    public void setUp() {
+        mEngine = createEngine();
+    }
+
+    // |X[k]|/sqrt(N) of the zero-padded N-point DFT, k in [0, N/2]
+    private static double[] referenceAbs(double[] signal, int size) {
+        int n = FftEngines.ceilpw2(size);
+        double[] amp = new double[n/2 + 1];
+        for (int k = 0; k < amp.length; k++) {
+            double re = 0, im = 0;
+            for (int i = 0; i < size; i++) {
+                re += signal[i] * Math.cos(2 * Math.PI * k * i / n);
+                im -= signal[i] * Math.sin(2 * Math.PI * k * i / n);
+            }
+            amp[k] = Math.sqrt(re*re + im*im) / Math.sqrt(n);
+        }
+        return amp;
+    }
+
+    private static double[] randomSignal(Random random, int size) {
+        double[] signal = new double[size];
+        for (int i = 0; i < size; i++)
+            signal[i] = random.nextDouble() * 2 - 1;
+        return signal;
+    }
+
+    @Test
+    public void numBins_isHalfOfTheNextPowerOfTwoPlusOne() {
+        assertEquals(1, FftEngines.getNumBins(1));
+        assertEquals(2, FftEngines.getNumBins(2));
+        assertEquals(3, FftEngines.getNumBins(3));
+        assertEquals(257, FftEngines.getNumBins(320));
+        assertEquals(513, FftEngines.getNumBins(1024));
+    }
+
+    @Test
+    public void transformAbs_double_matchesDft() {
+        Random random = new Random(1);
+        for (int size : SIZES) {
+            double[] signal = randomSignal(random, size);
+            double[] expected = referenceAbs(signal, size);
+            double[] spectrum = new double[expected.length];
+
+            assertEquals(expected.length, mEngine.transformAbs(signal, size, spectrum));
+            assertArrayEquals("size " + size, expected, spectrum, 1e-9);
+        }
+    }
+
+    @Test
+    public void transformAbs_float_matchesDft() {
+        Random random = new Random(2);
+        for (int size : SIZES) {
+            double[] signal = randomSignal(random, size);
+            float[] signalFlt = new float[size];
+            for (int i = 0; i < size; i++)
+                signalFlt[i] = (float) signal[i];
+            double[] expected = referenceAbs(signal, size);
+            float[] spectrum = new float[expected.length];
+
+            assertEquals(expected.length, mEngine.transformAbs(signalFlt, size, spectrum));
+            for (int k = 0; k < expected.length; k++)
+                assertEquals("size " + size + " bin " + k, expected[k], spectrum[k], 1e-5);
+        }
+    }
+
+    @Test
+    public void transformAbs_onlyReadsSizeSamples() {
+        double[] signal = {1, 0, 0, 0, 0, 0, 0, 0, 42, 42};
+        double[] spectrum = new double[5];
+        assertEquals(5, mEngine.transformAbs(signal, 8, spectrum));
+        for (double amp : spectrum)
+            assertEquals(1 / Math.sqrt(8), amp, 1e-12);
+    }
+
+    @Test
+    public void transformAbs_sineLandsInItsBin() {
+        int n = 256;
+        float[] signal = new float[n];
+        for (int i = 0; i < n; i++)
+            signal[i] = (float) Math.sin(2 * Math.PI * 32 * i / n);
+        float[] spectrum = new float[FftEngines.getNumBins(n)];
+        mEngine.transformAbs(signal, n, spectrum);
+
+        for (int k = 0; k < spectrum.length; k++)
+            assertEquals("bin " + k, k == 32 ? Math.sqrt(n) / 2 : 0, spectrum[k], 1e-4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transformAbs_rejectsShortSpectrum() {
+        mEngine.transformAbs(new float[320], 320, new float[256]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getNumBins_rejectsSizeOverTheLargestPowerOfTwo() {
+        FftEngines.getNumBins(FftEngines.MAX_SIZE + 1);
+    }
+
+    @Test
+    public void spectrumFromPcm_pcm16Mono() {
+        int n = 320;
+        ByteBuffer pcm = ByteBuffer.allocate(n * 2).order(ByteOrder.LITTLE_ENDIAN);
+        double[] expected = new double[n];
+        Random random = new Random(3);
+        for (int i = 0; i < n; i++) {
+            short v = (short) (random.nextInt(65536) - 32768);
+            pcm.putShort(v);
+            expected[i] = v / 32768.0;
+        }
+
+        float[] signal = new float[n];
+        float[] spectrum = new float[FftEngines.getNumBins(n)];
+        assertEquals(spectrum.length, mEngine.spectrumFromPcm(pcm.array(), pcm.capacity(), 2, 1, 1, 32768f,
+                FftEngine.WINDOW_NONE, signal, spectrum));
+
+        for (int i = 0; i < n; i++)
+            assertEquals(expected[i], signal[i], 1e-7);
+        double[] expectedAbs = referenceAbs(expected, n);
+        for (int k = 0; k < spectrum.length; k++)
+            assertEquals(expectedAbs[k], spectrum[k], 1e-5);
+    }
+
+    @Test
+    public void spectrumFromPcm_takesTheFirstChannelOfEveryNthFrame() {
+        int frames = 120;
+        int decimation = 12;
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 2 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            pcm.putInt(-i * 1000);
+            pcm.putInt(0x7fffffff);
+        }
+
+        float[] signal = new float[FftEngines.getNumSamples(pcm.capacity(), 4, 2, decimation)];
+        assertEquals(10, signal.length);
+        float[] spectrum = new float[FftEngines.getNumBins(signal.length)];
+        mEngine.spectrumFromPcm(pcm.array(), pcm.capacity(), 4, 2, decimation, 8388608f,
+                FftEngine.WINDOW_NONE, signal, spectrum);
+
+        for (int i = 0; i < signal.length; i++)
+            assertEquals(-i * decimation * 1000 / 8388608.0, signal[i], 1e-9);
+    }
+
+    @Test
+    public void spectrumFromPcm_packed24WithHannWindow() {
+        int n = 64;
+        byte[] pcm = new byte[n * 3];
+        for (int i = 0; i < n; i++) {
+            int v = i % 2 == 0 ? -8388608 : 8388607;
+            pcm[3*i] = (byte) v;
+            pcm[3*i+1] = (byte) (v >> 8);
+            pcm[3*i+2] = (byte) (v >> 16);
+        }
+
+        float[] signal = new float[n];
+        float[] spectrum = new float[FftEngines.getNumBins(n)];
+        mEngine.spectrumFromPcm(pcm, pcm.length, 3, 1, 1, 8388608f, FftEngine.WINDOW_HANN, signal, spectrum);
+
+        for (int i = 0; i < n; i++) {
+            double w = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / n);
+            double v = (i % 2 == 0 ? -8388608 : 8388607) / 8388608.0;
+            assertEquals("sample " + i, v * w, signal[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void spectrumFromPcm_acceptsNoSignalArray() {
+        byte[] pcm = new byte[640];
+        pcm[0] = 0x00;
+        pcm[1] = 0x40;
+        float[] spectrum = new float[FftEngines.getNumBins(320)];
+        mEngine.spectrumFromPcm(pcm, pcm.length, 2, 1, 1, 32768f, FftEngine.WINDOW_NONE, null, spectrum);
+        assertEquals(0.5 / Math.sqrt(512), spectrum[0], 1e-7);
+    }
+
+    @Test
+    public void spectrumFromPcm_directBufferMatchesArray() {
+        int n = 480;
+        byte[] array = new byte[n * 2 * 4];
+        new Random(4).nextBytes(array);
+        // the PCM starts past the position, which must not move
+        ByteBuffer direct = ByteBuffer.allocateDirect(array.length + 12).order(ByteOrder.BIG_ENDIAN);
+        direct.position(12);
+        direct.put(array);
+        direct.position(12);
+
+        for (int window : new int[] {FftEngine.WINDOW_NONE, FftEngine.WINDOW_HANN}) {
+            float[] expectedSignal = new float[n];
+            float[] expected = new float[FftEngines.getNumBins(n)];
+            mEngine.spectrumFromPcm(array, array.length, 4, 2, 1, 8388608f, window, expectedSignal, expected);
+
+            float[] signal = new float[n];
+            float[] spectrum = new float[expected.length];
+            assertEquals(expected.length, mEngine.spectrumFromPcm(direct, array.length, 4, 2, 1, 8388608f, window,
+                    signal, spectrum));
+            assertEquals(12, direct.position());
+            assertArrayEquals(expectedSignal, signal, 0f);
+            assertArrayEquals(expected, spectrum, 0f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spectrumFromPcm_rejectsLengthPastTheBuffer() {
+        ByteBuffer pcm = ByteBuffer.allocateDirect(640);
+        pcm.position(2);
+        mEngine.spectrumFromPcm(pcm, 640, 2, 1, 1, 32768f, FftEngine.WINDOW_NONE, null, new float[257]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spectrumFromPcm_rejectsUnsupportedSampleSize() {
+        mEngine.spectrumFromPcm(new byte[640], 640, 5, 1, 1, 1f, FftEngine.WINDOW_NONE, null, new float[129]);
+    }
+
+    @Test
+    public void steadyState_doesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+
+        byte[] pcm = new byte[1280];
+        float[] signal = new float[640];
+        float[] spectrum = new float[FftEngines.getNumBins(640)];
+        double[] signalDbl = new double[640];
+        double[] spectrumDbl = new double[spectrum.length];
+        for (int round = 0; round < 2; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 1000; i++) {
+                mEngine.spectrumFromPcm(pcm, pcm.length, 2, 1, 1, 32768f, FftEngine.WINDOW_HANN, signal, spectrum);
+                mEngine.transformAbs(signalDbl, signalDbl.length, spectrumDbl);
+            }
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+            // the first round warms the tables and the scratch up
+            if (round == 1)
+                assertTrue(allocated + " bytes allocated", allocated < 1024);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FrameIndexTest {
+    private File mFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = Files.createTempDirectory("frame-index").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        mFolder.delete();
+    }
+
+    // dumps the store as AudioSignalFrameLogger.dumpTo() does
+    private void dump(FrameStore store) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(FrameIndex.HEADER_BYTES + store.getFrameCount() * FrameIndex.RECORD_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        FrameIndex.putHeader(index);
+        long offset = 0;
+        for (int i = 0; i < store.getFrameCount(); i++) {
+            FrameIndex.putRecord(index, store, i, offset);
+            offset += store.getSizeInBytes(i);
+        }
+        FileOutputStream stream = new FileOutputStream(new File(mFolder, FrameStreamWriter.STREAM_NAME));
+        store.writeFrames(0, store.getFrameCount(), stream.getChannel());
+        stream.close();
+        Files.write(new File(mFolder, FrameIndex.INDEX_NAME).toPath(), index.array());
+    }
+
+    private static ByteBuffer pcm16(short... samples) {
+        ByteBuffer pcm = ByteBuffer.allocate(2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : samples)
+            pcm.putShort(sample);
+        return pcm;
+    }
+
+    @Test
+    public void frames_readBackWithTheirMetadata() throws Exception {
+        FrameStore store = new FrameStore(4096, 16, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        store.pushPcm("signal", 8000, pcm16((short) 16384, (short) -8192).array(), 0, 4, FrameStore.FORMAT_INT16, 32768);
+        store.push("spectrum", -1, new float[] {1, 2, 3}, 3);
+        store.push("tone_amplitudes_of_a_long_name", 8000, new double[] {0.25}, 1);
+        dump(store);
+
+        FrameIndex index = FrameIndex.open(mFolder);
+        try {
+            assertEquals(3, index.getFrameCount());
+            assertEquals("signal", index.getName(0));
+            assertEquals(8000, index.getSampleRate(0));
+            assertEquals(FrameStore.FORMAT_INT16, index.getFormat(0));
+            assertEquals(32768f, index.getScale(0), 0);
+            assertEquals(2, index.getLength(0));
+            assertEquals(store.getTimestamp(0), index.getTimestamp(0));
+            assertEquals(store.getNanoTime(0), index.getNanoTime(0));
+            assertEquals("spectrum", index.getName(1));
+            assertEquals(-1, index.getSampleRate(1));
+            assertEquals(4, index.getOffset(1));
+            // the names are cut at 16 characters
+            assertEquals("tone_amplitudes_", index.getName(2));
+            assertEquals(4 + 12, index.getOffset(2));
+
+            // in any order
+            double[] values = new double[3];
+            assertEquals(1, index.readValues(2, values));
+            assertEquals(0.25, values[0], 0);
+            assertEquals(2, index.readValues(0, values));
+            assertEquals(0.5, values[0], 0);
+            assertEquals(-0.25, values[1], 0);
+            assertEquals(3, index.readValues(1, values));
+            assertArrayEquals(new double[] {1, 2, 3}, values, 0);
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void findFrame_givesTheLastFrameAtOrBefore() throws Exception {
+        FrameStore store = new FrameStore(4096, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        for (int i = 0; i < 40; i++)
+            store.push("f" + i, 0, new float[] {i}, 1);
+        dump(store);
+
+        FrameIndex index = FrameIndex.open(mFolder);
+        try {
+            assertEquals(-1, index.findFrame(store.getNanoTime(0) - 1));
+            for (int i = 0; i < 40; i++) {
+                int found = index.findFrame(store.getNanoTime(i));
+                // the pushes of the same nanosecond resolve to the last one
+                assertTrue(found >= i);
+                assertEquals(store.getNanoTime(i), index.getNanoTime(found));
+            }
+            assertEquals(39, index.findFrame(Long.MAX_VALUE));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void incompleteRecords_areIgnored() throws Exception {
+        FrameStore store = new FrameStore(4096, 16, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        store.push("a", 0, new float[] {1}, 1);
+        store.push("b", 0, new float[] {2}, 1);
+        dump(store);
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder, FrameIndex.INDEX_NAME), "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+
+        FrameIndex index = FrameIndex.open(mFolder);
+        try {
+            assertEquals(1, index.getFrameCount());
+            assertEquals("a", index.getName(0));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFiles_areRejected() throws Exception {
+        Files.write(new File(mFolder, FrameIndex.INDEX_NAME).toPath(), "[{\"name\":\"signal\"}]".getBytes("UTF-8"));
+        Files.write(new File(mFolder, FrameStreamWriter.STREAM_NAME).toPath(), new byte[0]);
+        FrameIndex.open(mFolder);
+    }
+}
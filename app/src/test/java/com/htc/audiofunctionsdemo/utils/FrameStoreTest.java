@@ -0,0 +1,247 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class FrameStoreTest {
+    private static double[] ramp(int length, double start) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++)
+            values[i] = start + i;
+        return values;
+    }
+
+    private static double[] values(FrameStore store, int index) {
+        double[] out = new double[store.getLength(index)];
+        store.copyValues(index, out);
+        return out;
+    }
+
+    @Test
+    public void frames_keepTheirValuesAndMetadata() {
+        FrameStore store = new FrameStore(1024, 16, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        long before = System.currentTimeMillis();
+        assertTrue(store.push("signal", 8000, new float[] {0.5f, -0.25f, 1}, 3));
+        assertTrue(store.push("spectrum", -1, ramp(5, 10), 4));
+
+        assertEquals(2, store.getFrameCount());
+        assertEquals("signal", store.getName(0));
+        assertEquals(8000, store.getSampleRate(0));
+        assertArrayEquals(new double[] {0.5, -0.25, 1}, values(store, 0), 0);
+        assertEquals("spectrum", store.getName(1));
+        assertEquals(-1, store.getSampleRate(1));
+        assertArrayEquals(ramp(4, 10), values(store, 1), 0);
+        assertTrue(store.getTimestamp(1) >= before);
+        // the floats take 4 bytes, the doubles 8
+        assertEquals(FrameStore.FORMAT_FLOAT32, store.getFormat(0));
+        assertEquals(FrameStore.FORMAT_FLOAT64, store.getFormat(1));
+        assertEquals(3 * 4 + 4 * 8, store.getUsedBytes());
+    }
+
+    @Test
+    public void pcm_isStoredAsReadAndNormalizedWhenCopied() {
+        FrameStore store = new FrameStore(1024, 16, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        ByteBuffer pcm16 = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+        pcm16.putShort((short) 16384).putShort((short) -32768).putShort((short) 1);
+        assertTrue(store.pushPcm("signal", 8000, pcm16.array(), 0, 6, FrameStore.FORMAT_INT16, 32768));
+        // 24-bit samples in 32-bit containers, from a direct buffer at a position
+        ByteBuffer pcm24 = ByteBuffer.allocateDirect(12).order(ByteOrder.LITTLE_ENDIAN);
+        pcm24.putInt(0).putInt(-4194304).putInt(8388607);
+        pcm24.position(4);
+        assertTrue(store.pushPcm("hd", 96000, pcm24, 8, FrameStore.FORMAT_INT24_IN_32, 8388608));
+        assertEquals(4, pcm24.position());
+
+        assertEquals(3, store.getLength(0));
+        assertEquals(6, store.getSizeInBytes(0));
+        assertEquals(32768f, store.getScale(0), 0);
+        assertArrayEquals(new double[] {0.5, -1, 1 / 32768.0}, values(store, 0), 0);
+        assertEquals(FrameStore.FORMAT_INT24_IN_32, store.getFormat(1));
+        assertArrayEquals(new double[] {-0.5, 8388607 / 8388608.0}, values(store, 1), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pcm_mustHoldWholeSamples() {
+        new FrameStore(1024, 16, FrameStore.POLICY_OVERWRITE_OLDEST, 0)
+                .pushPcm("signal", 8000, new byte[5], 0, 5, FrameStore.FORMAT_INT16, 32768);
+    }
+
+    @Test
+    public void overwrite_dropsTheOldestFrames() {
+        // room for 100 values
+        FrameStore store = new FrameStore(800, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        for (int i = 0; i < 10; i++)
+            assertTrue(store.push("f" + i, 0, ramp(30, 100 * i), 30));
+
+        // a frame never straddles the end of the buffer, so only 3 of them fit
+        assertEquals(3, store.getFrameCount());
+        assertEquals(7, store.getDroppedFrames());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("f" + (7 + i), store.getName(i));
+            assertArrayEquals(ramp(30, 100 * (7 + i)), values(store, i), 0);
+        }
+    }
+
+    @Test
+    public void overwrite_isBoundedByTheMetadataToo() {
+        FrameStore store = new FrameStore(8000, 4, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        for (int i = 0; i < 6; i++)
+            store.push("f", 0, ramp(2, i), 2);
+        assertEquals(4, store.getFrameCount());
+        assertArrayEquals(ramp(2, 2), values(store, 0), 0);
+    }
+
+    @Test
+    public void block_dropsTheNewFrameAfterTheTimeout() {
+        FrameStore store = new FrameStore(800, 64, FrameStore.POLICY_BLOCK, 20);
+        assertTrue(store.push("a", 0, ramp(60, 0), 60));
+        long start = System.nanoTime();
+        assertFalse(store.push("b", 0, ramp(60, 0), 60));
+        assertTrue(System.nanoTime() - start >= 15000000L);
+
+        assertEquals(1, store.getFrameCount());
+        assertEquals("a", store.getName(0));
+        assertEquals(1, store.getDroppedFrames());
+    }
+
+    @Test
+    public void block_resumesWhenCleared() throws Exception {
+        final FrameStore store = new FrameStore(800, 64, FrameStore.POLICY_BLOCK, 10000);
+        store.push("a", 0, ramp(60, 0), 60);
+        final boolean[] pushed = new boolean[1];
+        Thread pusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pushed[0] = store.push("b", 0, ramp(60, 0), 60);
+            }
+        });
+        pusher.start();
+        Thread.sleep(50);
+        store.clear();
+        pusher.join(5000);
+
+        assertTrue(pushed[0]);
+        assertEquals(1, store.getFrameCount());
+        assertEquals("b", store.getName(0));
+    }
+
+    @Test
+    public void wrap_keepsEveryFrameContiguous() {
+        FrameStore store = new FrameStore(800, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        // 37 values at a time leaves a gap before the end of the buffer
+        for (int i = 0; i < 20; i++) {
+            store.push("f" + i, 0, ramp(37, 1000 * i), 37);
+            int n = store.getFrameCount();
+            assertEquals("f" + i, store.getName(n - 1));
+            for (int j = 0; j < n; j++)
+                assertArrayEquals(ramp(37, 1000 * (i - n + 1 + j)), values(store, j), 0);
+        }
+    }
+
+    @Test
+    public void emptyFrames_takeNoRoom() {
+        FrameStore store = new FrameStore(1024, 64, FrameStore.POLICY_BLOCK, 10000);
+        assertTrue(store.push("a", 0, ramp(60, 0), 60));
+        assertTrue(store.push("empty", 0, new double[0], 0));
+        store.removeOldest(1);
+        // only the empty frame is left, ending where the first one did
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+            assertTrue(store.push("b" + i, 0, ramp(4, 4 * i), 4));
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        assertEquals(0, store.getDroppedFrames());
+        assertEquals(6, store.getFrameCount());
+        assertEquals(0, store.getLength(0));
+        for (int i = 0; i < 5; i++)
+            assertArrayEquals(ramp(4, 4 * i), values(store, i + 1), 0);
+
+        FrameStore overwrite = new FrameStore(1024, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        overwrite.pushPcm("empty", 8000, new byte[0], 0, 0, FrameStore.FORMAT_INT16, 32768);
+        assertTrue(overwrite.push("c", 0, ramp(4, 0), 4));
+        assertEquals(2, overwrite.getFrameCount());
+        assertEquals(0, overwrite.getDroppedFrames());
+    }
+
+    @Test
+    public void tooLargeFrames_areDropped() {
+        FrameStore store = new FrameStore(80, 4, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        store.push("a", 0, ramp(5, 0), 5);
+        assertFalse(store.push("b", 0, ramp(11, 0), 11));
+        assertEquals(1, store.getFrameCount());
+        assertEquals(1, store.getDroppedFrames());
+    }
+
+    @Test
+    public void writeValues_givesTheSamplesAsStored() throws Exception {
+        FrameStore store = new FrameStore(1024, 4, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        store.push("a", 0, ramp(3, 1), 3);
+        store.pushPcm("b", 0, new byte[] {1, 2, 3, 4}, 0, 4, FrameStore.FORMAT_INT16, 32768);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.writeValues(1, Channels.newChannel(out));
+        store.writeValues(0, Channels.newChannel(out));
+
+        ByteBuffer written = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(4 + 3 * 8, written.remaining());
+        assertEquals(0x0201, written.getShort());
+        assertEquals(0x0403, written.getShort());
+        for (double v : ramp(3, 1))
+            assertEquals(v, written.getDouble(), 0);
+    }
+
+    @Test
+    public void writeFrames_matchesWriteValuesAcrossTheWrap() throws Exception {
+        FrameStore store = new FrameStore(800, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        for (int i = 0; i < 20; i++) {
+            store.push("f" + i, 0, ramp(7 + i % 5, 100 * i), 7 + i % 5);
+            store.pushPcm("p", 0, new byte[] {(byte) i, 1, 2, 3}, 0, 4, FrameStore.FORMAT_INT16, 32768);
+            int n = store.getFrameCount();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int j = 1; j < n; j++)
+                store.writeValues(j, Channels.newChannel(expected));
+
+            // a file channel, as the only gathering channel at hand
+            File file = File.createTempFile("frames", ".bin");
+            try {
+                FileOutputStream out = new FileOutputStream(file);
+                assertEquals(expected.size(), store.writeFrames(1, n - 1, out.getChannel()));
+                out.close();
+                assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file.toPath()));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void steadyState_doesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+
+        FrameStore store = new FrameStore(64 * 1024, 256, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        byte[] pcm = new byte[640];
+        ByteBuffer direct = ByteBuffer.allocateDirect(640);
+        float[] spectrum = new float[257];
+        for (int round = 0; round < 2; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 2000; i++) {
+                store.pushPcm("signal", 8000, pcm, 0, pcm.length, FrameStore.FORMAT_INT16, 32768);
+                store.pushPcm("signal", 8000, direct, pcm.length, FrameStore.FORMAT_INT16, 32768);
+                store.push("spectrum", -1, spectrum, spectrum.length);
+            }
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+            if (round == 1)
+                assertTrue(allocated + " bytes allocated", allocated < 1024);
+        }
+    }
+}
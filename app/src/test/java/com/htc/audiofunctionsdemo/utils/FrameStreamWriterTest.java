@@ -0,0 +1,212 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FrameStreamWriterTest {
+    private File mRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = Files.createTempDirectory("frame-stream").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mRoot);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    private static double[] ramp(int length, double start) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++)
+            values[i] = start + i;
+        return values;
+    }
+
+    private static int count(String text, String pattern) {
+        int count = 0;
+        for (int at = text.indexOf(pattern); at >= 0; at = text.indexOf(pattern, at + 1))
+            count++;
+        return count;
+    }
+
+    private static String info(File part) throws IOException {
+        return new String(Files.readAllBytes(new File(part, FrameStreamWriter.INFO_NAME).toPath()), "UTF-8");
+    }
+
+    private static ByteBuffer stream(File part) throws IOException {
+        byte[] bytes = Files.readAllBytes(new File(part, FrameStreamWriter.STREAM_NAME).toPath());
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void frames_areStreamedInOrderThroughASmallStore() throws Exception {
+        // room for 5 frames at a time, which the pushes wait for
+        FrameStore store = new FrameStore(5 * 10 * 8, 64, FrameStore.POLICY_BLOCK, 10000);
+        File folder = new File(mRoot, "stream");
+        FrameStreamWriter writer = new FrameStreamWriter(store, folder, 256, 0, 0, 0, true);
+        writer.start();
+        for (int i = 0; i < 200; i++)
+            assertTrue(store.push("signal", 8000, ramp(10, 10 * i), 10));
+        writer.stop();
+
+        assertNull(writer.getError());
+        assertEquals(0, store.getDroppedFrames());
+        assertEquals(0, store.getFrameCount());
+        assertEquals(1, writer.getPartCount());
+        assertEquals(200, writer.getWrittenFrames());
+        File part = new File(folder, "part-0000");
+        ByteBuffer samples = stream(part);
+        assertEquals(200 * 10 * 8, samples.remaining());
+        for (int i = 0; i < 2000; i++)
+            assertEquals(i, samples.getDouble(), 0);
+        String info = info(part);
+        assertTrue(info.startsWith("[{\"name\":\"signal\",\"fs\":8000,\"createAt\":"));
+        assertTrue(info.endsWith("\"format\":\"float64\",\"byteorder\":\"little\",\"scale\":1.0,\"datasize\":10}]"));
+        assertEquals(200, count(info, "{\"name\""));
+
+        FrameIndex index = FrameIndex.open(part);
+        try {
+            assertEquals(200, index.getFrameCount());
+            double[] values = new double[10];
+            for (int i = 0; i < 200; i += 37) {
+                assertEquals(80L * i, index.getOffset(i));
+                index.readValues(i, values);
+                assertArrayEquals(ramp(10, 10 * i), values, 0);
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void parts_rotateBySize() throws Exception {
+        FrameStore store = new FrameStore(64 * 1024, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        File folder = new File(mRoot, "stream");
+        FrameStreamWriter writer = new FrameStreamWriter(store, folder, 1024, 2 * 640 + 100, 0, 0, false);
+        for (int i = 0; i < 5; i++)
+            store.pushPcm("signal", 8000, new byte[640], 0, 640, FrameStore.FORMAT_INT16, 32768);
+        writer.start();
+        writer.stop();
+
+        assertEquals(3, writer.getPartCount());
+        int[] frames = {2, 2, 1};
+        for (int p = 0; p < 3; p++) {
+            File part = new File(folder, FrameStreamWriter.getPartName(p));
+            assertEquals(frames[p] * 640, stream(part).remaining());
+            assertFalse(new File(part, FrameStreamWriter.INFO_NAME).exists());
+            FrameIndex index = FrameIndex.open(part);
+            try {
+                assertEquals(frames[p], index.getFrameCount());
+                assertEquals(FrameStore.FORMAT_INT16, index.getFormat(frames[p] - 1));
+                assertEquals(320, index.getLength(frames[p] - 1));
+                assertEquals(640L * (frames[p] - 1), index.getOffset(frames[p] - 1));
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    @Test
+    public void parts_rotateByTime() throws Exception {
+        FrameStore store = new FrameStore(64 * 1024, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        File folder = new File(mRoot, "stream");
+        FrameStreamWriter writer = new FrameStreamWriter(store, folder, 1024, 0, 50, 0, false);
+        store.push("a", 0, ramp(4, 0), 4);
+        store.push("b", 0, ramp(4, 0), 4);
+        Thread.sleep(80);
+        store.push("c", 0, ramp(4, 0), 4);
+        writer.start();
+        writer.stop();
+
+        assertEquals(2, writer.getPartCount());
+        FrameIndex first = FrameIndex.open(new File(folder, "part-0000"));
+        FrameIndex second = FrameIndex.open(new File(folder, "part-0001"));
+        try {
+            assertEquals(2, first.getFrameCount());
+            assertEquals("b", first.getName(1));
+            assertEquals(1, second.getFrameCount());
+            assertEquals("c", second.getName(0));
+            assertEquals(0, second.getOffset(0));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void framesLargerThanTheStaging_areWrittenToo() throws Exception {
+        FrameStore store = new FrameStore(64 * 1024, 64, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        File folder = new File(mRoot, "stream");
+        FrameStreamWriter writer = new FrameStreamWriter(store, folder, 100, 0, 0, 0, false);
+        store.push("small", 0, ramp(5, 0), 5);
+        store.push("large", 0, ramp(50, 5), 50);
+        store.push("small", 0, ramp(5, 55), 5);
+        writer.start();
+        writer.stop();
+
+        assertNull(writer.getError());
+        ByteBuffer samples = stream(new File(folder, "part-0000"));
+        assertEquals(60 * 8, samples.remaining());
+        for (int i = 0; i < 60; i++)
+            assertEquals(i, samples.getDouble(), 0);
+    }
+
+    @Test
+    public void names_areEscaped() throws Exception {
+        FrameStore store = new FrameStore(1024, 4, FrameStore.POLICY_OVERWRITE_OLDEST, 0);
+        File folder = new File(mRoot, "stream");
+        FrameStreamWriter writer = new FrameStreamWriter(store, folder, 1024, 0, 0, 0, true);
+        store.push("a\"b\\c", 0, ramp(1, 0), 1);
+        writer.start();
+        writer.stop();
+        assertTrue(info(new File(folder, "part-0000")).startsWith("[{\"name\":\"a\\\"b\\\\c\","));
+    }
+
+    @Test
+    public void errors_areKeptAndReported() throws Exception {
+        FrameStore store = new FrameStore(1024, 4, FrameStore.POLICY_BLOCK, 10000);
+        File folder = new File(mRoot, "stream");
+        assertTrue(folder.mkdirs());
+        // the part cannot be created over a file
+        assertTrue(new File(folder, "part-0000").createNewFile());
+        FrameStreamWriter writer = new FrameStreamWriter(store, folder, 1024, 0, 0, 0, false);
+        final IOException[] reported = new IOException[1];
+        writer.setErrorListener(new FrameStreamWriter.ErrorListener() {
+            @Override
+            public void onError(FrameStreamWriter writer, IOException e) {
+                reported[0] = e;
+            }
+        });
+        store.push("a", 0, ramp(1, 0), 1);
+        writer.start();
+        writer.stop();
+        assertNotNull(writer.getError());
+        assertSame(writer.getError(), reported[0]);
+
+        // the pushes no longer wait for the writer
+        assertEquals(FrameStore.POLICY_OVERWRITE_OLDEST, store.getPolicy());
+        long start = System.nanoTime();
+        for (int i = 0; i < 200; i++)
+            assertTrue(store.push("b", 0, ramp(16, 0), 16));
+        assertTrue(System.nanoTime() - start < 1000L * 1000 * 1000);
+    }
+}
@@ -0,0 +1,8 @@
+package com.htc.audiofunctionsdemo.utils;
+
+public class JavaFftEngineTest extends FftEngineConformanceTest {
+    @Override
+    protected FftEngine createEngine() {
+        return new JavaFftEngine();
+    }
+}
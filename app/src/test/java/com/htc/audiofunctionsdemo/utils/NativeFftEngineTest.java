@@ -0,0 +1,71 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs when the native-fft library of the host is on java.library.path, and is skipped otherwise.
+ */
+public class NativeFftEngineTest extends FftEngineConformanceTest {
+    @BeforeClass
+    public static void checkLibrary() {
+        assumeTrue(FftEngines.isNativeAvailable());
+    }
+
+    @Override
+    protected FftEngine createEngine() {
+        return new NativeFftEngine();
+    }
+
+    private static DoubleBuffer doubles(int capacity) {
+        return ByteBuffer.allocateDirect(8 * capacity).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    private static FloatBuffer floats(int capacity) {
+        return ByteBuffer.allocateDirect(4 * capacity).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Test
+    public void directSpectrum_isWrittenBeforeTheLimitOnly() {
+        DoubleBuffer signal = doubles(64);
+        DoubleBuffer spectrum = doubles(64);
+        spectrum.limit(5);
+        try {
+            FFT.transformAbs(signal, spectrum);
+            fail("33 magnitudes do not fit 5");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            FFT.getPlan(64, false).transformAbs(signal, spectrum);
+            fail("33 magnitudes do not fit 5");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        spectrum.limit(33);
+        assertEquals(33, FFT.transformAbs(signal, spectrum));
+    }
+
+    @Test
+    public void batchSpectra_areWrittenBeforeTheLimitOnly() {
+        FloatBuffer signals = floats(4 * 64);
+        FloatBuffer spectra = floats(4 * 33);
+        spectra.limit(4 * 33 - 1);
+        try {
+            FFT.transformAbsBatch(signals, 64, 4, spectra);
+            fail("4 spectra do not fit");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        spectra.limit(4 * 33);
+        assertEquals(33, FFT.transformAbsBatch(signals, 64, 4, spectra));
+    }
+}
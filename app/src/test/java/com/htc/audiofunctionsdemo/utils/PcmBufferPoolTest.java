@@ -0,0 +1,93 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static org.junit.Assert.*;
+
+public class PcmBufferPoolTest {
+    @Test
+    public void buffers_areDirectAndCleared() {
+        PcmBufferPool pool = new PcmBufferPool(2, 64);
+        PcmBufferPool.Buffer buffer = pool.acquire();
+        assertTrue(buffer.data().isDirect());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.data().order());
+        assertEquals(64, buffer.getLength());
+
+        buffer.data().limit(10);
+        buffer.release();
+        pool.acquire();
+        buffer = pool.acquire();
+        assertEquals(0, buffer.data().position());
+        assertEquals(64, buffer.getLength());
+    }
+
+    @Test
+    public void emptyPool_returnsNullAndCountsIt() {
+        PcmBufferPool pool = new PcmBufferPool(2, 16);
+        PcmBufferPool.Buffer a = pool.acquire();
+        PcmBufferPool.Buffer b = pool.acquire();
+        assertNotSame(a, b);
+        assertEquals(0, pool.available());
+
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getExhausted());
+
+        b.release();
+        assertSame(b, pool.acquire());
+    }
+
+    @Test
+    public void sharedBuffer_returnsOnTheLastRelease() {
+        PcmBufferPool pool = new PcmBufferPool(1, 16);
+        PcmBufferPool.Buffer buffer = pool.acquire();
+        buffer.retain();
+
+        buffer.release();
+        assertEquals(0, pool.available());
+        buffer.release();
+        assertEquals(1, pool.available());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedBuffer_cannotBeRetained() {
+        PcmBufferPool pool = new PcmBufferPool(1, 16);
+        PcmBufferPool.Buffer buffer = pool.acquire();
+        buffer.release();
+        buffer.retain();
+    }
+
+    @Test
+    public void buffers_travelAcrossThreads() throws Exception {
+        final PcmBufferPool pool = new PcmBufferPool(4, 8);
+        final ArrayBlockingQueue<PcmBufferPool.Buffer> queue = new ArrayBlockingQueue<>(4);
+        final int count = 100000;
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++)
+                        queue.take().release();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < count; ) {
+            PcmBufferPool.Buffer buffer = pool.acquire();
+            if (buffer == null) {
+                Thread.yield();
+                continue;
+            }
+            queue.add(buffer);
+            i++;
+        }
+        consumer.join();
+        assertEquals(4, pool.available());
+    }
+}
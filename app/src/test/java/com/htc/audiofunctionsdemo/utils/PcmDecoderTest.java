@@ -0,0 +1,128 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PcmDecoderTest {
+    private static byte[] pcm16(short... samples) {
+        ByteBuffer buf = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short v : samples)
+            buf.putShort(v);
+        return buf.array();
+    }
+
+    private static byte[] pcm32(int... samples) {
+        ByteBuffer buf = ByteBuffer.allocate(samples.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int v : samples)
+            buf.putInt(v);
+        return buf.array();
+    }
+
+    @Test
+    public void pcm16Mono_isNormalized() {
+        byte[] pcm = pcm16((short) 0, (short) 16384, (short) -32768, (short) 32767);
+        PcmDecoder decoder = new PcmDecoder(2, 1, 1, 32768f);
+        float[] out = new float[4];
+        assertEquals(4, decoder.decode(pcm, 0, pcm.length, 0, out));
+        assertArrayEquals(new float[] {0f, 0.5f, -1f, 32767f / 32768f}, out, 0f);
+    }
+
+    @Test
+    public void pcm24In32Stereo_splitsTheChannels() {
+        byte[] pcm = pcm32(-8388608, 4194304, 8388607, -1, 0, 2);
+        PcmDecoder decoder = new PcmDecoder(4, 2, 1, 8388608f);
+        double[] left = new double[3];
+        double[] right = new double[3];
+        assertEquals(3, decoder.decodeStereo(pcm, 0, pcm.length, left, right));
+        assertArrayEquals(new double[] {-1, 8388607 / 8388608.0, 0}, left, 0);
+        assertArrayEquals(new double[] {0.5, -1 / 8388608.0, 2 / 8388608.0}, right, 0);
+    }
+
+    @Test
+    public void channelAndDecimation_pickTheSamples() {
+        byte[] pcm = pcm16((short) 1, (short) 10, (short) 2, (short) 20, (short) 3, (short) 30, (short) 4, (short) 40);
+        PcmDecoder decoder = new PcmDecoder(2, 2, 2, 1f);
+        float[] out = new float[2];
+        assertEquals(2, decoder.decode(pcm, 0, pcm.length, 1, out));
+        assertArrayEquals(new float[] {10, 30}, out, 0f);
+
+        assertEquals(2, decoder.decode(pcm, 0, pcm.length, PcmDecoder.CHANNEL_MIX, out));
+        assertArrayEquals(new float[] {5.5f, 16.5f}, out, 0f);
+    }
+
+    @Test
+    public void mix_doesNotOverflowAtFullScale() {
+        byte[] pcm = pcm32(0x7fffffff, 0x7fffffff);
+        PcmDecoder decoder = new PcmDecoder(4, 2, 1, 2147483648f);
+        double[] out = new double[1];
+        decoder.decode(pcm, 0, pcm.length, PcmDecoder.CHANNEL_MIX, out);
+        assertEquals(1.0, out[0], 1e-9);
+    }
+
+    @Test
+    public void offsetAndPartialFrames_areHonored() {
+        byte[] pcm = pcm16((short) 99, (short) 1, (short) 2, (short) 3);
+        PcmDecoder decoder = new PcmDecoder(2, 1, 1, 1f);
+        float[] out = new float[8];
+        // the trailing odd byte is not a whole sample
+        assertEquals(2, decoder.decode(pcm, 2, 5, 0, out));
+        assertEquals(1f, out[0], 0f);
+        assertEquals(2f, out[1], 0f);
+    }
+
+    @Test
+    public void byteBuffer_matchesArray() {
+        byte[] pcm = pcm16((short) -5, (short) 7, (short) 300, (short) -32768);
+        ByteBuffer direct = ByteBuffer.allocateDirect(pcm.length + 3).order(ByteOrder.BIG_ENDIAN);
+        direct.position(3);
+        direct.put(pcm);
+        direct.position(3);
+
+        PcmDecoder decoder = new PcmDecoder(2, 1, 1, 32768f);
+        float[] expected = new float[4];
+        float[] out = new float[4];
+        decoder.decode(pcm, 0, pcm.length, 0, expected);
+        assertEquals(4, decoder.decode(direct, pcm.length, 0, out));
+        assertArrayEquals(expected, out, 0f);
+        assertEquals(3, direct.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortOutput_isRejected() {
+        new PcmDecoder(2, 1, 1, 1f).decode(new byte[8], 0, 8, 0, new float[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingChannel_isRejected() {
+        new PcmDecoder(2, 2, 1, 1f).decode(new byte[8], 0, 8, 2, new float[2]);
+    }
+
+    @Test
+    public void steadyState_doesNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+
+        byte[] pcm = new byte[3840 * 8];
+        PcmDecoder decoder = new PcmDecoder(4, 2, 1, 8388608f);
+        float[] left = new float[3840];
+        float[] right = new float[3840];
+        double[] mono = new double[3840];
+        for (int round = 0; round < 2; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 200; i++) {
+                decoder.decodeStereo(pcm, 0, pcm.length, left, right);
+                decoder.decode(pcm, 0, pcm.length, PcmDecoder.CHANNEL_MIX, mono);
+            }
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+            if (round == 1)
+                assertTrue(allocated + " bytes allocated", allocated < 1024);
+        }
+    }
+}
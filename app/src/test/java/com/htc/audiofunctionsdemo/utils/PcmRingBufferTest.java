@@ -0,0 +1,114 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+    @Test
+    public void blocks_comeOutInOrderWithTheirLength() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(4, 16);
+        for (int i = 0; i < 3; i++) {
+            byte[] block = ring.acquireWrite();
+            block[0] = (byte) i;
+            ring.commitWrite(10 + i);
+        }
+        assertEquals(3, ring.size());
+
+        for (int i = 0; i < 3; i++) {
+            byte[] block = ring.acquireRead(0);
+            assertEquals(i, block[0]);
+            assertEquals(10 + i, ring.getReadLength());
+            ring.releaseRead();
+        }
+        assertEquals(0, ring.size());
+        assertNull(ring.acquireRead(10));
+    }
+
+    @Test
+    public void fullRing_dropsAndCountsOverruns() {
+        PcmRingBuffer ring = new PcmRingBuffer(2, 16);
+        ring.acquireWrite();
+        ring.commitWrite(16);
+        ring.acquireWrite();
+        ring.commitWrite(16);
+
+        assertNull(ring.acquireWrite());
+        assertNull(ring.acquireWrite());
+        assertEquals(2, ring.getDroppedBlocks());
+        assertEquals(1, ring.getOverruns());
+        assertEquals(2, ring.getWrittenBlocks());
+    }
+
+    @Test
+    public void overrun_endsWithTheNextWrite() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(1, 16);
+        ring.acquireWrite();
+        ring.commitWrite(16);
+        assertNull(ring.acquireWrite());
+
+        ring.acquireRead(0);
+        ring.releaseRead();
+        assertNotNull(ring.acquireWrite());
+        ring.commitWrite(16);
+        assertNull(ring.acquireWrite());
+
+        assertEquals(2, ring.getOverruns());
+        assertEquals(2, ring.getDroppedBlocks());
+    }
+
+    @Test
+    public void concurrentProducerAndConsumer_keepTheOrder() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(8, 64);
+        final int numBlocks = 200000;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final long[] consumed = new long[1];
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long last = -1;
+                    while (true) {
+                        byte[] block = ring.acquireRead(1000);
+                        assertNotNull("the producer stalled", block);
+                        long seq = ByteBuffer.wrap(block).getLong(0);
+                        ring.releaseRead();
+                        if (seq < 0)
+                            break;
+                        assertTrue(seq + " after " + last, seq > last);
+                        last = seq;
+                        consumed[0]++;
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        consumer.start();
+
+        long dropped = 0;
+        for (long seq = 0; seq < numBlocks; seq++) {
+            byte[] block = ring.acquireWrite();
+            if (block == null) {
+                dropped++;
+                continue;
+            }
+            ByteBuffer.wrap(block).putLong(0, seq);
+            ring.commitWrite(block.length);
+        }
+        byte[] block;
+        while ((block = ring.acquireWrite()) == null)
+            Thread.yield();
+        ByteBuffer.wrap(block).putLong(0, -1);
+        ring.commitWrite(block.length);
+        consumer.join();
+
+        assertNull(failure.get());
+        assertEquals(numBlocks - dropped, consumed[0]);
+        assertEquals(numBlocks - dropped + 1, ring.getWrittenBlocks());
+    }
+}
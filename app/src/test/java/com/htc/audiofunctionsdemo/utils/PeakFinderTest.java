@@ -0,0 +1,96 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PeakFinderTest {
+    private static final int FS = 8000;
+
+    private static float[] sine(int length, double frequency) {
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++)
+            signal[i] = (float) (0.5 * Math.sin(2 * Math.PI * frequency * i / FS + 0.3));
+        return signal;
+    }
+
+    private static float[] spectrum(float[] signal, int window) {
+        float[] frame = new float[signal.length];
+        float[] w = Windows.get(window, signal.length);
+        for (int i = 0; i < signal.length; i++)
+            frame[i] = signal[i] * w[i];
+        float[] spectrum = new float[FftEngines.getNumBins(signal.length)];
+        new JavaFftEngine().transformAbs(frame, frame.length, spectrum);
+        return spectrum;
+    }
+
+    @Test
+    public void findPeak_takesTheFirstMaximumInTheRange() {
+        float[] spectrum = {0, 3, 1, 3, 5};
+        assertEquals(1, PeakFinder.findPeak(spectrum, 0, 3));
+        assertEquals(4, PeakFinder.findPeak(spectrum, 2, 6));
+        assertEquals(1, PeakFinder.findPeak(spectrum, 2, 1));
+    }
+
+    @Test
+    public void interpolation_beatsTheBinQuantization() {
+        // 15.625 Hz bins, at worst 7.8 Hz away from the bin
+        double worstQuadratic = 0, worstGaussian = 0;
+        for (double f = 300; f < 3500; f += 7.37) {
+            float[] spectrum = spectrum(sine(512, f), Windows.HANN);
+            int peak = PeakFinder.findPeak(spectrum, 0, spectrum.length - 1);
+            double binWidth = FS / 512.0;
+            worstQuadratic = Math.max(worstQuadratic,
+                    Math.abs(PeakFinder.interpolate(spectrum, peak, PeakFinder.INTERPOLATION_QUADRATIC) * binWidth - f));
+            worstGaussian = Math.max(worstGaussian,
+                    Math.abs(PeakFinder.interpolate(spectrum, peak, PeakFinder.INTERPOLATION_GAUSSIAN) * binWidth - f));
+        }
+        assertEquals(0, worstQuadratic, 1.0);
+        assertEquals(0, worstGaussian, 0.3);
+    }
+
+    @Test
+    public void interpolation_staysWithinHalfABin() {
+        float[] spectrum = {0, 1, 0, 0};
+        assertEquals(1.0, PeakFinder.interpolate(spectrum, 1, PeakFinder.INTERPOLATION_GAUSSIAN), 0);
+        float[] flat = {1, 1, 1};
+        assertEquals(1.0, PeakFinder.interpolate(flat, 1, PeakFinder.INTERPOLATION_QUADRATIC), 0);
+        float[] skewed = {2, 2.1f, 0};
+        double peak = PeakFinder.interpolate(skewed, 1, PeakFinder.INTERPOLATION_QUADRATIC);
+        assertTrue(peak >= 0.5 && peak < 1);
+        assertEquals(0.0, PeakFinder.interpolate(skewed, 0, PeakFinder.INTERPOLATION_QUADRATIC), 0);
+    }
+
+    @Test
+    public void zoom_givesSubHzFromA40msRead() {
+        // 320 samples, padded to a 512-point FFT with no window
+        for (double f = 300; f < 3500; f += 31.7) {
+            float[] signal = sine(320, f);
+            float[] spectrum = spectrum(signal, Windows.RECTANGULAR);
+            int peak = PeakFinder.findPeak(spectrum, 0, spectrum.length - 1);
+            double binWidth = FS / 512.0;
+            double estimate = PeakFinder.interpolate(spectrum, peak, PeakFinder.INTERPOLATION_GAUSSIAN) * binWidth;
+            double zoomed = PeakFinder.zoom(signal, signal.length, FS, Windows.HANN, estimate, binWidth, 17);
+            assertEquals(f, zoomed, 0.01);
+        }
+    }
+
+    @Test
+    public void zoom_staysWithinTheSpectrum() {
+        float[] signal = sine(256, 3995);
+        double zoomed = PeakFinder.zoom(signal, signal.length, FS, Windows.HANN, 3990, 31.25, 17);
+        assertTrue(zoomed <= FS / 2.0);
+    }
+
+    @Test
+    public void interpolationNames_roundTrip() {
+        for (int method = PeakFinder.INTERPOLATION_NONE; method <= PeakFinder.INTERPOLATION_GAUSSIAN; method++)
+            assertEquals(method, PeakFinder.interpolationFromName(PeakFinder.getInterpolationName(method)));
+        assertEquals(PeakFinder.INTERPOLATION_GAUSSIAN, PeakFinder.interpolationFromName("Gaussian"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void interpolationFromName_rejectsUnknownNames() {
+        PeakFinder.interpolationFromName("cubic");
+    }
+}
@@ -0,0 +1,111 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseDecimatorTest {
+    private static float[] tone(double freq, int rate, int length) {
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++)
+            signal[i] = (float) Math.sin(2 * Math.PI * freq * i / rate);
+        return signal;
+    }
+
+    // the RMS of the output once the filter has settled, times sqrt(2): the amplitude of a tone
+    private static double settledAmplitude(PolyphaseDecimator decimator, float[] in) {
+        float[] out = new float[decimator.getMaxOutput(in.length)];
+        int n = decimator.process(in, 0, in.length, out);
+        int from = (int) Math.ceil(2 * decimator.getDelay()) + 1;
+        double sum = 0;
+        for (int i = from; i < n; i++)
+            sum += out[i] * out[i];
+        return Math.sqrt(2 * sum / (n - from));
+    }
+
+    @Test
+    public void passBand_keepsItsAmplitude() {
+        for (int rate : new int[] {8000, 16000, 44100, 48000}) {
+            PolyphaseDecimator decimator = new PolyphaseDecimator(96000, rate);
+            double amp = settledAmplitude(decimator, tone(0.3 * rate, 96000, 96000));
+            assertEquals(rate + " Hz", 1.0, amp, 0.01);
+        }
+    }
+
+    @Test
+    public void dc_hasUnityGain() {
+        PolyphaseDecimator decimator = new PolyphaseDecimator(96000, 44100);
+        float[] in = new float[48000];
+        Arrays.fill(in, 0.25f);
+        float[] out = new float[decimator.getMaxOutput(in.length)];
+        int n = decimator.process(in, 0, in.length, out);
+        for (int i = n / 2; i < n; i++)
+            assertEquals(0.25, out[i], 1e-3);
+    }
+
+    @Test
+    public void aboveTheOutputNyquist_isRejected() {
+        PolyphaseDecimator decimator = new PolyphaseDecimator(96000, 8000);
+        // would land at 2 kHz when every 12th sample is taken
+        double amp = settledAmplitude(decimator, tone(10000, 96000, 96000));
+        assertTrue(20 * Math.log10(amp) + " dB", 20 * Math.log10(amp) < -70);
+    }
+
+    @Test
+    public void outputRate_isExact() {
+        PolyphaseDecimator decimator = new PolyphaseDecimator(96000, 44100);
+        float[] in = new float[3840];
+        float[] out = new float[decimator.getMaxOutput(in.length)];
+        int total = 0;
+        for (int i = 0; i < 25; i++)
+            total += decimator.process(in, 0, in.length, out);
+        assertEquals(44100, total);
+    }
+
+    @Test
+    public void blocks_comeOutAsOneStream() {
+        Random random = new Random(5);
+        float[] in = new float[20000];
+        for (int i = 0; i < in.length; i++)
+            in[i] = random.nextFloat() * 2 - 1;
+
+        PolyphaseDecimator whole = new PolyphaseDecimator(96000, 44100);
+        float[] expected = new float[whole.getMaxOutput(in.length)];
+        int n = whole.process(in, 0, in.length, expected);
+
+        PolyphaseDecimator blocks = new PolyphaseDecimator(96000, 44100);
+        float[] out = new float[n + 1];
+        float[] block = new float[blocks.getMaxOutput(1000)];
+        int produced = 0;
+        for (int offset = 0; offset < in.length; ) {
+            int length = Math.min(in.length - offset, random.nextInt(1000));
+            int m = blocks.process(in, offset, length, block);
+            System.arraycopy(block, 0, out, produced, m);
+            produced += m;
+            offset += length;
+        }
+        assertEquals(n, produced);
+        for (int i = 0; i < n; i++)
+            assertEquals(expected[i], out[i], 0f);
+    }
+
+    @Test
+    public void reset_restartsTheStream() {
+        PolyphaseDecimator decimator = new PolyphaseDecimator(96000, 8000);
+        float[] in = tone(1000, 96000, 3840);
+        float[] first = new float[decimator.getMaxOutput(in.length)];
+        float[] again = new float[first.length];
+        int n = decimator.process(in, 0, in.length, first);
+        decimator.reset();
+        assertEquals(n, decimator.process(in, 0, in.length, again));
+        assertArrayEquals(first, again, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void upsampling_isRejected() {
+        new PolyphaseDecimator(8000, 96000);
+    }
+}
@@ -0,0 +1,112 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StftAnalyzerTest {
+    private static class Collector implements StftAnalyzer.FrameListener {
+        final List<float[]> frames = new ArrayList<>();
+        final List<float[]> spectra = new ArrayList<>();
+
+        @Override
+        public void onFrame(float[] frame, float[] spectrum, long index) {
+            assertEquals(frames.size(), index);
+            frames.add(frame.clone());
+            spectra.add(spectrum.clone());
+        }
+    }
+
+    private static float[] noise(int length) {
+        Random random = new Random(6);
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++)
+            signal[i] = random.nextFloat() * 2 - 1;
+        return signal;
+    }
+
+    @Test
+    public void frames_startEveryHop() {
+        float[] signal = noise(1000);
+        StftAnalyzer stft = new StftAnalyzer(new JavaFftEngine(), 256, 100, Windows.HANN);
+        Collector collector = new Collector();
+        assertEquals(8, stft.process(signal, 0, signal.length, collector));
+
+        for (int f = 0; f < collector.frames.size(); f++) {
+            for (int i = 0; i < 256; i++)
+                assertEquals(signal[f * 100 + i], collector.frames.get(f)[i], 0f);
+        }
+    }
+
+    @Test
+    public void blocks_giveTheSameFramesAsOneCall() {
+        float[] signal = noise(5000);
+        Collector whole = new Collector();
+        new StftAnalyzer(new JavaFftEngine(), 512, 128, Windows.BLACKMAN_HARRIS).process(signal, 0, signal.length, whole);
+
+        StftAnalyzer stft = new StftAnalyzer(new JavaFftEngine(), 512, 128, Windows.BLACKMAN_HARRIS);
+        Collector blocks = new Collector();
+        Random random = new Random(7);
+        for (int offset = 0; offset < signal.length; ) {
+            int length = Math.min(signal.length - offset, random.nextInt(700));
+            stft.process(signal, offset, length, blocks);
+            offset += length;
+        }
+
+        assertEquals(whole.spectra.size(), blocks.spectra.size());
+        for (int f = 0; f < whole.spectra.size(); f++)
+            assertArrayEquals(whole.spectra.get(f), blocks.spectra.get(f), 0f);
+    }
+
+    @Test
+    public void hopLargerThanTheFrame_skipsTheGap() {
+        float[] signal = noise(1000);
+        StftAnalyzer stft = new StftAnalyzer(new JavaFftEngine(), 64, 300, Windows.RECTANGULAR);
+        Collector collector = new Collector();
+        stft.process(signal, 0, 500, collector);
+        stft.process(signal, 500, 500, collector);
+
+        assertEquals(4, collector.frames.size());
+        assertEquals(signal[900], collector.frames.get(3)[0], 0f);
+    }
+
+    @Test
+    public void flatTop_readsTheAmplitudeBetweenBins() {
+        int n = 1024;
+        StftAnalyzer stft = new StftAnalyzer(new JavaFftEngine(), n, n, Windows.FLAT_TOP);
+        float[] signal = new float[n];
+        // halfway between the bins 100 and 101
+        for (int i = 0; i < n; i++)
+            signal[i] = (float) Math.sin(2 * Math.PI * 100.5 * i / n);
+        Collector collector = new Collector();
+        stft.process(signal, 0, n, collector);
+
+        float[] spectrum = collector.spectra.get(0);
+        int peak = PeakFinder.findPeak(spectrum, 0, spectrum.length - 1);
+        assertTrue(peak == 100 || peak == 101);
+        // |X| * sqrt(N) / (N/2) / coherent gain is the amplitude of the sine
+        double amp = spectrum[peak] * Math.sqrt(n) / (n / 2) / Windows.getCoherentGain(Windows.FLAT_TOP);
+        assertEquals(1.0, amp, 0.002);
+    }
+
+    @Test
+    public void reset_dropsTheIncompleteFrame() {
+        float[] signal = noise(300);
+        StftAnalyzer stft = new StftAnalyzer(new JavaFftEngine(), 256, 256, Windows.HANN);
+        Collector collector = new Collector();
+        stft.process(signal, 0, 200, collector);
+        stft.reset();
+        stft.process(signal, 0, 256, collector);
+        assertEquals(1, collector.frames.size());
+        assertEquals(signal[0], collector.frames.get(0)[0], 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fftSize_mustBeAPowerOfTwo() {
+        new StftAnalyzer(new JavaFftEngine(), 320, 160, Windows.HANN);
+    }
+}
@@ -0,0 +1,122 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ToneTrackerTest {
+    private static class Collector implements ToneTracker.FrameListener {
+        final List<float[]> amplitudes = new ArrayList<>();
+        final List<float[]> phases = new ArrayList<>();
+
+        @Override
+        public void onFrame(float[] frame, float[] amplitudes, float[] phases, long index) {
+            assertEquals(this.amplitudes.size(), index);
+            this.amplitudes.add(amplitudes.clone());
+            this.phases.add(phases.clone());
+        }
+    }
+
+    private static float[] cosine(int length, double frequency, int samplingRate, double amplitude, double phase) {
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++)
+            signal[i] = (float) (amplitude * Math.cos(2 * Math.PI * frequency * i / samplingRate + phase));
+        return signal;
+    }
+
+    @Test
+    public void toneOnABin_givesItsAmplitudeAndPhase() {
+        // 20 Hz bins, 440 Hz on the 22nd
+        float[] signal = cosine(400, 440, 8000, 0.5, 0.7);
+        ToneTracker tracker = new ToneTracker(8000, new float[] {440, 1000}, 400, Windows.RECTANGULAR);
+        Collector collector = new Collector();
+        assertEquals(1, tracker.process(signal, 0, signal.length, collector));
+
+        assertEquals(0.5, collector.amplitudes.get(0)[0], 1e-4);
+        assertEquals(0.7, collector.phases.get(0)[0], 1e-4);
+        assertEquals(0, collector.amplitudes.get(0)[1], 1e-4);
+    }
+
+    @Test
+    public void toneBetweenBins_isMeasuredAtItsFrequency() {
+        float[] signal = cosine(4000, 437.3, 8000, 0.25, -2.0);
+        ToneTracker tracker = new ToneTracker(8000, new float[] {437.3f}, 1000, Windows.HANN);
+        Collector collector = new Collector();
+        assertEquals(4, tracker.process(signal, 0, signal.length, collector));
+
+        for (int f = 0; f < 4; f++) {
+            assertEquals(0.25, collector.amplitudes.get(f)[0], 0.002);
+            // every frame starts 1000 samples later
+            double expected = -2.0 + 2 * Math.PI * 437.3 * 1000 * f / 8000;
+            double error = Math.IEEEremainder(collector.phases.get(f)[0] - expected, 2 * Math.PI);
+            assertEquals(0, error, 0.01);
+        }
+    }
+
+    @Test
+    public void amplitude_matchesTheFftBin() {
+        int n = 512;
+        float[] signal = new float[n];
+        Random random = new Random(8);
+        for (int i = 0; i < n; i++)
+            signal[i] = random.nextFloat() * 2 - 1;
+        float[] spectrum = new float[FftEngines.getNumBins(n)];
+        new JavaFftEngine().transformAbs(signal.clone(), n, spectrum);
+
+        // five bins of the FFT at 8000 Hz, through both the four-filter pass and a single one
+        int[] bins = {10, 57, 200, 3, 255};
+        float[] frequencies = new float[bins.length];
+        for (int t = 0; t < bins.length; t++)
+            frequencies[t] = bins[t] * 8000f / n;
+        ToneTracker tracker = new ToneTracker(8000, frequencies, n, Windows.RECTANGULAR);
+        Collector collector = new Collector();
+        tracker.process(signal, 0, n, collector);
+
+        // the engine scales |X| by 1/sqrt(N), the tracker by 2/N
+        for (int t = 0; t < bins.length; t++)
+            assertEquals(spectrum[bins[t]], collector.amplitudes.get(0)[t] * Math.sqrt(n) / 2, 1e-4);
+    }
+
+    @Test
+    public void blocks_giveTheSameFramesAsOneCall() {
+        float[] signal = cosine(5000, 1000, 8000, 1, 0);
+        Collector whole = new Collector();
+        new ToneTracker(8000, new float[] {1000, 3000}, 320, Windows.HANN).process(signal, 0, signal.length, whole);
+
+        ToneTracker tracker = new ToneTracker(8000, new float[] {1000, 3000}, 320, Windows.HANN);
+        Collector blocks = new Collector();
+        Random random = new Random(9);
+        for (int offset = 0; offset < signal.length; ) {
+            int length = Math.min(signal.length - offset, random.nextInt(500));
+            tracker.process(signal, offset, length, blocks);
+            offset += length;
+        }
+
+        assertEquals(whole.amplitudes.size(), blocks.amplitudes.size());
+        for (int f = 0; f < whole.amplitudes.size(); f++) {
+            assertArrayEquals(whole.amplitudes.get(f), blocks.amplitudes.get(f), 0f);
+            assertArrayEquals(whole.phases.get(f), blocks.phases.get(f), 0f);
+        }
+    }
+
+    @Test
+    public void reset_dropsTheIncompleteFrame() {
+        float[] signal = cosine(300, 500, 8000, 1, 0);
+        ToneTracker tracker = new ToneTracker(8000, new float[] {500}, 200, Windows.RECTANGULAR);
+        Collector collector = new Collector();
+        tracker.process(signal, 0, 150, collector);
+        tracker.reset();
+        tracker.process(signal, 0, 200, collector);
+        assertEquals(1, collector.amplitudes.size());
+        assertEquals(0, collector.phases.get(0)[0], 1e-4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void frequency_mustBeBelowNyquist() {
+        new ToneTracker(8000, new float[] {440, 4000}, 256, Windows.HANN);
+    }
+}
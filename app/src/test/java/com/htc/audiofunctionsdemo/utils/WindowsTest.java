@@ -0,0 +1,46 @@
+package com.htc.audiofunctionsdemo.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WindowsTest {
+    @Test
+    public void windows_arePeriodic() {
+        for (int type = Windows.RECTANGULAR; type <= Windows.FLAT_TOP; type++) {
+            float[] window = Windows.get(type, 64);
+            // symmetric around N/2, which is the one peak
+            for (int i = 1; i < 32; i++)
+                assertEquals(Windows.getName(type), window[i], window[64 - i], 1e-6);
+            double sum = 0;
+            for (float w : window)
+                sum += w;
+            assertEquals(Windows.getName(type), Windows.getCoherentGain(type), sum / 64, 1e-6);
+        }
+    }
+
+    @Test
+    public void hann_isTheEngineOne() {
+        float[] window = Windows.get(Windows.HANN, 8);
+        assertArrayEquals(new float[] {0f, 0.14644662f, 0.5f, 0.85355338f, 1f, 0.85355338f, 0.5f, 0.14644662f},
+                window, 1e-7f);
+    }
+
+    @Test
+    public void windows_areComputedOnce() {
+        assertSame(Windows.get(Windows.BLACKMAN_HARRIS, 512), Windows.get(Windows.BLACKMAN_HARRIS, 512));
+        assertNotSame(Windows.get(Windows.BLACKMAN_HARRIS, 512), Windows.get(Windows.BLACKMAN_HARRIS, 256));
+    }
+
+    @Test
+    public void names_roundTrip() {
+        for (int type = Windows.RECTANGULAR; type <= Windows.FLAT_TOP; type++)
+            assertEquals(type, Windows.fromName(Windows.getName(type)));
+        assertEquals(Windows.FLAT_TOP, Windows.fromName("Flat-Top"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownName_isRejected() {
+        Windows.fromName("kaiser");
+    }
+}
@@ -0,0 +1,64 @@
+//
+// Host benchmark for the copy-free FFT entry points: counts the heap allocations and the time
+// spent per transform once the plan is warm.
+//
+// Build & run on a Linux host, see CMakeLists.txt, or:
+//   g++ -std=c++11 -O2 -I../../main/jni fft_alloc_bench.cpp ../../main/jni/FFT.cpp ../../main/jni/FFTKernels.cpp ../../main/jni/FFTWorkerPool.cpp -o fft_alloc_bench -lpthread
+//   ./fft_alloc_bench
+//
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <new>
+#include "FFT.h"
+
+static size_t g_num_allocs = 0;
+
+void* operator new(size_t size)
+{
+    g_num_allocs++;
+    void* p = malloc(size);
+    if (!p) throw std::bad_alloc();
+    return p;
+}
+
+void operator delete(void* p) noexcept { free(p); }
+
+int main()
+{
+    const int ITERATIONS = 1000;
+    int failures = 0;
+
+    for (uint32_t N = 64; N <= 65536; N <<= 1) {
+        std::vector<double> signal(N), spectrum_amp(N);
+        std::vector<complexdbl> scratch(N);
+        for (uint32_t i = 0; i < N; i++)
+            signal[i] = sin(2 * M_PI * 440.0 * i / 8000.0);
+
+        const FFTPlan* plan = FFTPlan::get(N, false);
+        FFT::transformAbs(signal.data(), N, spectrum_amp.data(), scratch.data(), plan);
+        FFT::transformRealAbs(signal.data(), N, spectrum_amp.data(), scratch.data(), plan);
+
+        for (int mode = 0; mode < 4; mode++) {
+            FFT::setKernel(mode & 2 ? FFT_KERNEL_RADIX2 : FFT_KERNEL_RADIX4);
+            size_t allocs_before = g_num_allocs;
+            std::chrono::steady_clock::time_point t0 = std::chrono::steady_clock::now();
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (mode & 1)
+                    FFT::transformRealAbs(signal.data(), N, spectrum_amp.data(), scratch.data(), plan);
+                else
+                    FFT::transformAbs(signal.data(), N, spectrum_amp.data(), scratch.data(), plan);
+            }
+            std::chrono::steady_clock::time_point t1 = std::chrono::steady_clock::now();
+            size_t allocs = g_num_allocs - allocs_before;
+
+            double ns = std::chrono::duration<double, std::nano>(t1 - t0).count() / ITERATIONS;
+            printf("N=%6u %-8s %-8s %12.1f ns/transform  %.2f allocs/transform\n",
+                   N, mode & 2 ? "radix-2" : "radix-4", mode & 1 ? "real" : "complex", ns, (double) allocs / ITERATIONS);
+            if (allocs != 0) failures++;
+        }
+    }
+
+    return failures == 0 ? 0 : 1;
+}
@@ -0,0 +1,94 @@
+//
+// Checks that the batched transforms match the frame-by-frame ones bit for bit, also with several
+// threads submitting batches at once, and reports the speed-up of the worker pool over a single
+// thread on a dump-sized batch.
+//
+// Build & run on a Linux host, see CMakeLists.txt, or:
+//   g++ -std=c++11 -O2 -I../../main/jni fft_batch_test.cpp ../../main/jni/FFT.cpp ../../main/jni/FFTKernels.cpp ../../main/jni/FFTWorkerPool.cpp -o fft_batch_test -lpthread
+//   ./fft_batch_test
+//
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <thread>
+#include "FFT.h"
+
+static const uint32_t FRAME_SIZE = 320;
+static const uint32_t NUM_FRAMES = 4096;
+
+template<class R>
+static int check(const std::vector<R>& signals, const FFTPlan* plan, const char* name)
+{
+    uint32_t nbins = plan->size()/2 + 1;
+    std::vector<R> expected(nbins * NUM_FRAMES);
+    std::vector< std::complex<R> > scratch(nbins);
+    for (uint32_t i = 0; i < NUM_FRAMES; i++)
+        FFT::transformRealAbs(&signals[i*FRAME_SIZE], FRAME_SIZE, &expected[i*nbins], scratch.data(), plan);
+
+    const int num_submitters = 4;
+    std::vector< std::vector<R> > spectra(num_submitters, std::vector<R>(nbins * NUM_FRAMES));
+    std::vector<std::thread> submitters;
+    for (int t = 0; t < num_submitters; t++) {
+        std::vector<R>* out = &spectra[t];
+        submitters.push_back(std::thread([&signals, out, plan]() {
+            FFT::transformRealAbsBatch(signals.data(), FRAME_SIZE, NUM_FRAMES, out->data(), plan);
+        }));
+    }
+    for (int t = 0; t < num_submitters; t++)
+        submitters[t].join();
+
+    int failures = 0;
+    for (int t = 0; t < num_submitters; t++) {
+        if (spectra[t] != expected) {
+            printf("FAIL  %s submitter %d differs from the frame-by-frame transforms\n", name, t);
+            failures++;
+        }
+    }
+    if (failures == 0)
+        printf("ok    %s %u frames x %u bins, %d concurrent batches\n", name, NUM_FRAMES, nbins, num_submitters);
+    return failures;
+}
+
+template<class R>
+static void bench(const std::vector<R>& signals, const FFTPlan* plan, const char* name)
+{
+    uint32_t nbins = plan->size()/2 + 1;
+    std::vector<R> spectra(nbins * NUM_FRAMES);
+    std::vector< std::complex<R> > scratch(nbins);
+    const int rounds = 20;
+
+    std::chrono::steady_clock::time_point t0 = std::chrono::steady_clock::now();
+    for (int r = 0; r < rounds; r++) {
+        for (uint32_t i = 0; i < NUM_FRAMES; i++)
+            FFT::transformRealAbs(&signals[i*FRAME_SIZE], FRAME_SIZE, &spectra[i*nbins], scratch.data(), plan);
+    }
+    std::chrono::steady_clock::time_point t1 = std::chrono::steady_clock::now();
+    for (int r = 0; r < rounds; r++)
+        FFT::transformRealAbsBatch(signals.data(), FRAME_SIZE, NUM_FRAMES, spectra.data(), plan);
+    std::chrono::steady_clock::time_point t2 = std::chrono::steady_clock::now();
+
+    double single = std::chrono::duration<double, std::micro>(t1 - t0).count() / rounds;
+    double batch = std::chrono::duration<double, std::micro>(t2 - t1).count() / rounds;
+    printf("%-6s single thread %9.1f us, batch %9.1f us on %u threads (x%.2f)\n",
+           name, single, batch, FFT::getBatchThreads(), single / batch);
+}
+
+int main()
+{
+    srand(7);
+    std::vector<double> signals(FRAME_SIZE * NUM_FRAMES);
+    std::vector<float> signals_flt(signals.size());
+    for (size_t i = 0; i < signals.size(); i++) {
+        signals[i] = (double) rand() / RAND_MAX * 2 - 1;
+        signals_flt[i] = (float) signals[i];
+    }
+    const FFTPlan* plan = FFTPlan::get(ceilpw2(FRAME_SIZE), false);
+
+    int failures = check(signals, plan, "double") + check(signals_flt, plan, "float");
+    bench(signals, plan, "double");
+    bench(signals_flt, plan, "float");
+
+    printf("%s\n", failures == 0 ? "PASSED" : "FAILED");
+    return failures == 0 ? 0 : 1;
+}
@@ -0,0 +1,88 @@
+//
+// Measures the time per transform of the copy-free entry points for every size from 64 to 65536,
+// per kernel and precision, with the SIMD level detected on the host. A size range can be given,
+// e.g. "./fft_bench 256 4096".
+//
+// Build & run on a Linux host, see CMakeLists.txt, or:
+//   g++ -std=c++11 -O2 -I../../main/jni fft_bench.cpp ../../main/jni/FFT.cpp ../../main/jni/FFTKernels.cpp ../../main/jni/FFTWorkerPool.cpp -o fft_bench -lpthread
+//   ./fft_bench
+//
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include "FFT.h"
+
+// every measurement runs for about this long, after a warm-up of a tenth of it
+static const double TARGET_NS = 2e8;
+
+template<class F>
+static double nsPerCall(F call)
+{
+    uint64_t rounds = 1;
+    while (true) {
+        std::chrono::steady_clock::time_point t0 = std::chrono::steady_clock::now();
+        for (uint64_t i = 0; i < rounds; i++)
+            call();
+        double elapsed = std::chrono::duration<double, std::nano>(std::chrono::steady_clock::now() - t0).count();
+        if (elapsed >= TARGET_NS / 10) {
+            rounds = (uint64_t) (rounds * TARGET_NS / elapsed) + 1;
+            break;
+        }
+        rounds *= 2;
+    }
+
+    std::chrono::steady_clock::time_point t0 = std::chrono::steady_clock::now();
+    for (uint64_t i = 0; i < rounds; i++)
+        call();
+    return std::chrono::duration<double, std::nano>(std::chrono::steady_clock::now() - t0).count() / rounds;
+}
+
+template<class R>
+struct Buffers {
+    std::vector< std::complex<R> > data;
+    std::vector<R> signal;
+    std::vector<R> amp;
+    std::vector< std::complex<R> > scratch;
+
+    explicit Buffers(uint32_t N) : data(N), signal(N), amp(N/2 + 1), scratch(N/2 + 1)
+    {
+        for (uint32_t i = 0; i < N; i++) {
+            signal[i] = (R) rand() / RAND_MAX - (R) 0.5;
+            data[i] = std::complex<R>(signal[i], (R) 0);
+        }
+    }
+};
+
+template<class R>
+static void benchSize(uint32_t N, const char* precision)
+{
+    const FFTPlan* plan = FFTPlan::get(N, false);
+    Buffers<R> buf(N);
+    double ns[4];
+    for (int k = 0; k < 2; k++) {
+        FFT::setKernel(k == 0 ? FFT_KERNEL_RADIX2 : FFT_KERNEL_RADIX4);
+        // the complex input is not restored between the calls, the unitary scaling keeps its norm
+        ns[2*k] = nsPerCall([&]() { FFT::transform(buf.data.data(), plan); });
+        ns[2*k+1] = nsPerCall([&]() {
+            FFT::transformRealAbs(buf.signal.data(), N, buf.amp.data(), buf.scratch.data(), plan);
+        });
+    }
+    printf("%6u %-6s %12.1f %12.1f %12.1f %12.1f\n", N, precision, ns[0], ns[1], ns[2], ns[3]);
+}
+
+int main(int argc, char** argv)
+{
+    uint32_t min_size = argc > 1 ? (uint32_t) atoi(argv[1]) : 64;
+    uint32_t max_size = argc > 2 ? (uint32_t) atoi(argv[2]) : 65536;
+
+    printf("%s, simd %s\n", FFT::getVersion().c_str(), getKernelTable(FFT::getSimdLevel())->name);
+    printf("ns per transform, cplx: in-place complex FFT, real: magnitudes of a real signal\n");
+    printf("%6s %-6s %12s %12s %12s %12s\n", "N", "", "radix2/cplx", "radix2/real", "radix4/cplx", "radix4/real");
+    srand(1);
+    for (uint32_t N = ceilpw2(min_size); N <= max_size; N <<= 1) {
+        benchSize<double>(N, "double");
+        benchSize<float>(N, "float");
+    }
+    return 0;
+}
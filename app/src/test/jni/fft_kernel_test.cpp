@@ -0,0 +1,94 @@
+//
+// Validates the FFT kernels against the original radix-2 implementation, which scaled both
+// butterfly operands by UNITARY_FACTOR on every stage.
+//
+// Build & run on a Linux host, see CMakeLists.txt, or:
+//   g++ -std=c++11 -O2 -I../../main/jni fft_kernel_test.cpp ../../main/jni/FFT.cpp ../../main/jni/FFTKernels.cpp ../../main/jni/FFTWorkerPool.cpp -o fft_kernel_test -lpthread
+//   ./fft_kernel_test
+//
+
+#include <cstdio>
+#include <cstdlib>
+#include "FFT.h"
+
+static const double TOLERANCE = 1e-9;
+
+static std::vector<complexdbl> reference_FFT(std::vector<complexdbl> data, bool inverse)
+{
+    uint32_t N = (uint32_t) data.size();
+    bitReversalSwap(data.data(), N);
+
+    std::vector<complexdbl> twiddle = getTwiddleFactors(N);
+    if (inverse) {
+        for (uint32_t i = 0; i < N; i++)
+            twiddle[i] = std::conj(twiddle[i]);
+    }
+
+    uint32_t twiddle_step = N;
+    while (twiddle_step >>= 1) {
+        for (uint32_t offset = 0; offset < N; offset+=(N/twiddle_step)) {
+            for (uint32_t i = 0; i < (N/twiddle_step/2); i++) {
+                complexdbl W = twiddle[i*twiddle_step];
+                complexdbl f_even = data[offset+i] * UNITARY_FACTOR;
+                complexdbl f_odd = data[offset+i+N/twiddle_step/2] * UNITARY_FACTOR;
+                data[offset+i] = f_even + W * f_odd;
+                data[offset+i+N/twiddle_step/2] = f_even - W * f_odd;
+            }
+        }
+    }
+
+    return data;
+}
+
+static double max_error(const complexdbl* a, const std::vector<complexdbl>& b, uint32_t n)
+{
+    double peak = 1e-300, err = 0;
+    for (uint32_t i = 0; i < n; i++) {
+        peak = std::max(peak, std::abs(b[i]));
+        err = std::max(err, std::abs(a[i] - b[i]));
+    }
+    return err / peak;
+}
+
+int main()
+{
+    const char* names[] = { "radix-2", "radix-4" };
+    FFTKernel kernels[] = { FFT_KERNEL_RADIX2, FFT_KERNEL_RADIX4 };
+    int failures = 0;
+
+    srand(1);
+    for (uint32_t N = 1; N <= 65536; N <<= 1) {
+        std::vector<complexdbl> signal(N);
+        std::vector<double> real_signal(N);
+        for (uint32_t i = 0; i < N; i++) {
+            signal[i] = complexdbl((double) rand() / RAND_MAX - 0.5, (double) rand() / RAND_MAX - 0.5);
+            real_signal[i] = signal[i].real();
+        }
+        std::vector<complexdbl> real_as_complex(real_signal.begin(), real_signal.end());
+
+        std::vector<complexdbl> expected = reference_FFT(signal, false);
+        std::vector<complexdbl> expected_inv = reference_FFT(signal, true);
+        std::vector<complexdbl> expected_real = reference_FFT(real_as_complex, false);
+
+        for (int k = 0; k < 2; k++) {
+            FFT::setKernel(kernels[k]);
+            std::vector<complexdbl> buf(signal);
+            FFT::transform(buf.data(), FFTPlan::get(N, false));
+            double err = max_error(buf.data(), expected, N);
+
+            buf = signal;
+            FFT::transform(buf.data(), FFTPlan::get(N, true));
+            double err_inv = max_error(buf.data(), expected_inv, N);
+
+            FFT::transformReal(real_signal.data(), N, buf.data(), FFTPlan::get(N, false));
+            double err_real = max_error(buf.data(), expected_real, N/2 + 1);
+
+            bool ok = err < TOLERANCE && err_inv < TOLERANCE && err_real < TOLERANCE;
+            printf("N=%6u %s  forward %.2e  inverse %.2e  real %.2e  %s\n",
+                   N, names[k], err, err_inv, err_real, ok ? "OK" : "FAILED");
+            if (!ok) failures++;
+        }
+    }
+
+    return failures == 0 ? 0 : 1;
+}
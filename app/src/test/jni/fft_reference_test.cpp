@@ -0,0 +1,153 @@
+//
+// Checks the transforms against a direct DFT evaluated in long double, for every size from 64 to
+// 65536, both kernels and both precisions. Up to 4096 points every bin is compared; above, the
+// O(N^2) reference is only evaluated on a random subset of the bins (DC and Nyquist included).
+//
+// Build & run on a Linux host, see CMakeLists.txt, or:
+//   g++ -std=c++11 -O2 -I../../main/jni fft_reference_test.cpp ../../main/jni/FFT.cpp ../../main/jni/FFTKernels.cpp ../../main/jni/FFTWorkerPool.cpp -o fft_reference_test -lpthread
+//   ./fft_reference_test
+//
+
+#include <cstdio>
+#include <cstdlib>
+#include "FFT.h"
+
+static const uint32_t MIN_SIZE = 64;
+static const uint32_t MAX_SIZE = 65536;
+static const uint32_t FULL_CHECK_SIZE = 4096;
+static const uint32_t SAMPLED_BINS = 64;
+// relative to the rms magnitude of the spectrum
+static const double TOLERANCE = 1e-12;
+static const double TOLERANCE_FLOAT = 1e-5;
+
+typedef std::complex<long double> complexldbl;
+
+/*
+ * X[k] = 1/sqrt(N) * sum(x[n] * e^(-+2*pi*i*k*n/N)), with the exponent index reduced modulo N so
+ * that the table of the N roots of unity is exact to long double precision.
+ */
+class ReferenceDFT
+{
+public:
+    ReferenceDFT(const std::vector<complexdbl>& signal, bool inverse) : mSignal(signal), mRoots(signal.size())
+    {
+        uint32_t N = (uint32_t) signal.size();
+        const long double pi = 3.141592653589793238462643383279502884L;
+        for (uint32_t i = 0; i < N; i++) {
+            long double phase = (inverse ? 2 : -2) * pi * i / N;
+            mRoots[i] = complexldbl(cosl(phase), sinl(phase));
+        }
+    }
+
+    complexldbl bin(uint32_t k) const
+    {
+        uint32_t N = (uint32_t) mSignal.size();
+        complexldbl sum = 0;
+        for (uint32_t n = 0; n < N; n++) {
+            complexldbl x(mSignal[n].real(), mSignal[n].imag());
+            sum += x * mRoots[(uint32_t) (((uint64_t) k * n) % N)];
+        }
+        return sum / sqrtl((long double) N);
+    }
+
+private:
+    const std::vector<complexdbl>& mSignal;
+    std::vector<complexldbl> mRoots;
+};
+
+static std::vector<uint32_t> binsToCheck(uint32_t nbins, uint32_t N)
+{
+    std::vector<uint32_t> bins;
+    if (N <= FULL_CHECK_SIZE) {
+        for (uint32_t k = 0; k < nbins; k++)
+            bins.push_back(k);
+    } else {
+        bins.push_back(0);
+        bins.push_back(N/2);
+        for (uint32_t i = 0; i < SAMPLED_BINS; i++)
+            bins.push_back((uint32_t) rand() % nbins);
+    }
+    return bins;
+}
+
+template<class R>
+static double maxError(const ReferenceDFT& ref, const std::complex<R>* spectrum, const std::vector<uint32_t>& bins,
+                       double rms)
+{
+    double err = 0;
+    for (uint32_t i = 0; i < bins.size(); i++) {
+        complexldbl expected = ref.bin(bins[i]);
+        complexldbl actual(spectrum[bins[i]].real(), spectrum[bins[i]].imag());
+        err = std::max(err, (double) std::abs(actual - expected));
+    }
+    return err / rms;
+}
+
+static int report(const char* what, uint32_t N, const char* kernel, double err, double tolerance)
+{
+    bool ok = err <= tolerance;
+    printf("%s  %-14s N=%-6u %-7s err=%.3e\n", ok ? "ok  " : "FAIL", what, N, kernel, err);
+    return ok ? 0 : 1;
+}
+
+int main()
+{
+    const FFTKernel kernels[] = { FFT_KERNEL_RADIX2, FFT_KERNEL_RADIX4 };
+    const char* kernel_names[] = { "radix2", "radix4" };
+    int failures = 0;
+
+    srand(1);
+    for (uint32_t N = MIN_SIZE; N <= MAX_SIZE; N <<= 1) {
+        std::vector<complexdbl> signal(N);
+        std::vector<complexdbl> real_signal(N);
+        std::vector<double> real_samples(N);
+        std::vector<float> real_samples_flt(N);
+        for (uint32_t i = 0; i < N; i++) {
+            signal[i] = complexdbl((double) rand() / RAND_MAX - 0.5, (double) rand() / RAND_MAX - 0.5);
+            real_samples[i] = (double) rand() / RAND_MAX - 0.5;
+            real_samples_flt[i] = (float) real_samples[i];
+            real_signal[i] = complexdbl(real_samples_flt[i], 0);
+        }
+        ReferenceDFT forward(signal, false);
+        ReferenceDFT inverse(signal, true);
+        ReferenceDFT real_forward(real_signal, false);
+        std::vector<uint32_t> bins = binsToCheck(N, N);
+        std::vector<uint32_t> real_bins = binsToCheck(N/2 + 1, N);
+        // the rms magnitude of the unitary spectrum of uniform noise in [-0.5, 0.5], about 0.4
+        double rms = 0.4;
+
+        for (int k = 0; k < 2; k++) {
+            FFT::setKernel(kernels[k]);
+
+            std::vector<complexdbl> data(signal);
+            FFT::transform(data.data(), FFTPlan::get(N, false));
+            failures += report("complex", N, kernel_names[k], maxError(forward, data.data(), bins, rms), TOLERANCE);
+
+            data = signal;
+            FFT::transform(data.data(), FFTPlan::get(N, true));
+            failures += report("complex inv", N, kernel_names[k], maxError(inverse, data.data(), bins, rms), TOLERANCE);
+
+            std::vector<complexflt> data_flt(N);
+            for (uint32_t i = 0; i < N; i++)
+                data_flt[i] = complexflt((float) signal[i].real(), (float) signal[i].imag());
+            FFT::transform(data_flt.data(), FFTPlan::get(N, false));
+            failures += report("complex float", N, kernel_names[k],
+                               maxError(forward, data_flt.data(), bins, rms), TOLERANCE_FLOAT);
+
+            // the real reference runs on the float-rounded samples, so that both precisions share it
+            std::vector<double> rounded(real_samples_flt.begin(), real_samples_flt.end());
+            std::vector<complexdbl> spectrum(N/2 + 1);
+            FFT::transformReal(rounded.data(), N, spectrum.data(), FFTPlan::get(N, false));
+            failures += report("real", N, kernel_names[k],
+                               maxError(real_forward, spectrum.data(), real_bins, rms), TOLERANCE);
+
+            std::vector<complexflt> spectrum_flt(N/2 + 1);
+            FFT::transformReal(real_samples_flt.data(), N, spectrum_flt.data(), FFTPlan::get(N, false));
+            failures += report("real float", N, kernel_names[k],
+                               maxError(real_forward, spectrum_flt.data(), real_bins, rms), TOLERANCE_FLOAT);
+        }
+    }
+
+    printf("%s\n", failures == 0 ? "PASSED" : "FAILED");
+    return failures == 0 ? 0 : 1;
+}
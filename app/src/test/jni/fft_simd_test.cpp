@@ -0,0 +1,120 @@
+//
+// Checks every SIMD level supported by the host CPU against the scalar kernels, and reports
+// their speed.
+//
+// Build & run on a Linux host, see CMakeLists.txt, or:
+//   g++ -std=c++11 -O2 -I../../main/jni fft_simd_test.cpp ../../main/jni/FFT.cpp ../../main/jni/FFTKernels.cpp ../../main/jni/FFTWorkerPool.cpp -o fft_simd_test -lpthread
+//   ./fft_simd_test
+//
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include "FFT.h"
+
+static const double TOLERANCE = 1e-12;
+// the vector kernels round differently from std::complex<float>, e.g. in the magnitude
+static const double TOLERANCE_FLOAT = 1e-5;
+
+template<class R>
+static double max_error(const std::vector<R>& a, const std::vector<R>& b)
+{
+    double peak = 1e-300, err = 0;
+    for (uint32_t i = 0; i < a.size(); i++) {
+        peak = std::max(peak, (double) std::abs(b[i]));
+        err = std::max(err, (double) std::abs(a[i] - b[i]));
+    }
+    return err / peak;
+}
+
+template<class R>
+static double max_error(const std::vector< std::complex<R> >& a, const std::vector< std::complex<R> >& b)
+{
+    double peak = 1e-300, err = 0;
+    for (uint32_t i = 0; i < a.size(); i++) {
+        peak = std::max(peak, (double) std::abs(b[i]));
+        err = std::max(err, (double) std::abs(a[i] - b[i]));
+    }
+    return err / peak;
+}
+
+int main()
+{
+    const FFTSimdLevel levels[] = { FFT_SIMD_SSE2, FFT_SIMD_AVX, FFT_SIMD_NEON };
+    const int ITERATIONS = 200;
+    int failures = 0;
+
+    printf("detected: %s\n", getKernelTable(detectSimdLevel())->name);
+    FFT::setKernel(FFT_KERNEL_RADIX4);
+
+    srand(1);
+    for (uint32_t N = 1; N <= 65536; N <<= 1) {
+        const FFTPlan* plan = FFTPlan::get(N, false);
+        const FFTPlan* inv_plan = FFTPlan::get(N, true);
+        std::vector<complexdbl> signal(N);
+        std::vector<double> real_signal(N);
+        for (uint32_t i = 0; i < N; i++) {
+            signal[i] = complexdbl((double) rand() / RAND_MAX - 0.5, (double) rand() / RAND_MAX - 0.5);
+            real_signal[i] = signal[i].real();
+        }
+
+        std::vector<complexflt> signal_flt(N);
+        std::vector<float> real_signal_flt(N);
+        for (uint32_t i = 0; i < N; i++) {
+            signal_flt[i] = complexflt((float) signal[i].real(), (float) signal[i].imag());
+            real_signal_flt[i] = (float) real_signal[i];
+        }
+
+        FFT::setSimdLevel(FFT_SIMD_SCALAR);
+        std::vector<complexdbl> expected(signal), expected_inv(signal), scratch(N);
+        std::vector<double> expected_amp(N), expected_real_amp(N/2 + 1), amp(N), real_amp(N/2 + 1);
+        FFT::transform(expected.data(), plan);
+        FFT::transform(expected_inv.data(), inv_plan);
+        FFT::transformAbs(real_signal.data(), N, expected_amp.data(), scratch.data(), plan);
+        FFT::transformRealAbs(real_signal.data(), N, expected_real_amp.data(), scratch.data(), plan);
+
+        std::vector<complexflt> expected_flt(signal_flt), scratch_flt(N);
+        std::vector<float> expected_amp_flt(N), amp_flt(N);
+        FFT::transform(expected_flt.data(), plan);
+        FFT::transformAbs(real_signal_flt.data(), N, expected_amp_flt.data(), scratch_flt.data(), plan);
+
+        for (int l = -1; l < 3; l++) {
+            FFTSimdLevel level = l < 0 ? FFT_SIMD_SCALAR : levels[l];
+            if (!FFT::setSimdLevel(level))
+                continue;
+
+            std::vector<complexdbl> buf(signal), inv_buf(signal);
+            FFT::transform(buf.data(), plan);
+            FFT::transform(inv_buf.data(), inv_plan);
+            FFT::transformAbs(real_signal.data(), N, amp.data(), scratch.data(), plan);
+            FFT::transformRealAbs(real_signal.data(), N, real_amp.data(), scratch.data(), plan);
+
+            double err = std::max(max_error(buf, expected), max_error(inv_buf, expected_inv));
+            double err_amp = std::max(max_error(amp, expected_amp), max_error(real_amp, expected_real_amp));
+
+            std::vector<complexflt> buf_flt(signal_flt);
+            FFT::transform(buf_flt.data(), plan);
+            FFT::transformAbs(real_signal_flt.data(), N, amp_flt.data(), scratch_flt.data(), plan);
+            double err_flt = std::max(max_error(buf_flt, expected_flt), max_error(amp_flt, expected_amp_flt));
+
+            std::chrono::steady_clock::time_point t0 = std::chrono::steady_clock::now();
+            for (int i = 0; i < ITERATIONS; i++)
+                FFT::transformAbs(real_signal.data(), N, amp.data(), scratch.data(), plan);
+            std::chrono::steady_clock::time_point t1 = std::chrono::steady_clock::now();
+            double ns = std::chrono::duration<double, std::nano>(t1 - t0).count() / ITERATIONS;
+
+            t0 = std::chrono::steady_clock::now();
+            for (int i = 0; i < ITERATIONS; i++)
+                FFT::transformAbs(real_signal_flt.data(), N, amp_flt.data(), scratch_flt.data(), plan);
+            t1 = std::chrono::steady_clock::now();
+            double ns_flt = std::chrono::duration<double, std::nano>(t1 - t0).count() / ITERATIONS;
+
+            bool ok = err < TOLERANCE && err_amp < TOLERANCE && err_flt < TOLERANCE_FLOAT;
+            printf("N=%6u %-6s  double %.2e/%.2e  float %.2e  %12.1f ns (double)  %12.1f ns (float)  %s\n",
+                   N, getKernelTable(level)->name, err, err_amp, err_flt, ns, ns_flt, ok ? "OK" : "FAILED");
+            if (!ok) failures++;
+        }
+    }
+
+    return failures == 0 ? 0 : 1;
+}
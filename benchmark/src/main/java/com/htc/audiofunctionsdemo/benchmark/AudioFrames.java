@@ -0,0 +1,84 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.Constants;
+import com.htc.audiofunctionsdemo.utils.FftEngine;
+import com.htc.audiofunctionsdemo.utils.FftEngines;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The frames the benchmarks run on, as RecorderIO delivers them: "LD" is the 8 kHz mono 16-bit
+ * capture and "HD" the 96 kHz stereo 24-bit one (in 32-bit containers), both read 40 ms at a time.
+ */
+final class AudioFrames {
+    static final String LD = "LD";
+    static final String HD = "HD";
+
+    private static final double TONE_FREQ = 1000;
+
+    private AudioFrames() {
+    }
+
+    static int getSamplingRate(String format) {
+        return LD.equals(format) ? Constants.AudioRecordConfig.SAMPLING_RATE : Constants.AudioRecordConfig.SAMPLING_RATE_HD;
+    }
+
+    static int getNumChannels(String format) {
+        return LD.equals(format) ? Constants.AudioRecordConfig.NUM_CHANNELS : Constants.AudioRecordConfig.NUM_CHANNELS_HD;
+    }
+
+    static int getBytesPerSample(String format) {
+        return LD.equals(format) ? Constants.AudioRecordConfig.BYTES_PER_ELEMENT : Constants.AudioRecordConfig.BYTES_PER_ELEMENT_HD;
+    }
+
+    static float getNormalization(String format) {
+        return LD.equals(format) ? Constants.AudioRecordConfig.NORMALIZATION_FACTOR : Constants.AudioRecordConfig.NORMALIZATION_FACTOR_HD;
+    }
+
+    // the number of frames (samples per channel) of one read
+    static int getNumFrames(String format) {
+        return getSamplingRate(format) * Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS / 1000;
+    }
+
+    /**
+     * A read of a tone at half of the full scale, on every channel.
+     */
+    static byte[] createPcm(String format) {
+        int numFrames = getNumFrames(format);
+        int numChannels = getNumChannels(format);
+        int bytesPerSample = getBytesPerSample(format);
+        double amplitude = getNormalization(format) / 2;
+        ByteBuffer pcm = ByteBuffer.allocate(numFrames * numChannels * bytesPerSample).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < numFrames; i++) {
+            double v = amplitude * Math.sin(2 * Math.PI * TONE_FREQ * i / getSamplingRate(format));
+            for (int c = 0; c < numChannels; c++) {
+                if (bytesPerSample == 2)
+                    pcm.putShort((short) Math.round(v));
+                else
+                    pcm.putInt((int) Math.round(v));
+            }
+        }
+        return pcm.array();
+    }
+
+    /**
+     * The first channel of a read at its full rate, normalized.
+     */
+    static float[] createSignal(String format) {
+        float[] signal = new float[getNumFrames(format)];
+        for (int i = 0; i < signal.length; i++)
+            signal[i] = (float) (0.5 * Math.sin(2 * Math.PI * TONE_FREQ * i / getSamplingRate(format)));
+        return signal;
+    }
+
+    /**
+     * @throws IllegalStateException rather than measuring the Java engine in place of the native one
+     */
+    static FftEngine createEngine(String name) {
+        FftEngine engine = FftEngines.get(name);
+        if (!engine.getName().equals(name))
+            throw new IllegalStateException("libnative-fft is not on java.library.path, see benchmark/build.gradle");
+        return engine;
+    }
+}
@@ -0,0 +1,67 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.Constants;
+import com.htc.audiofunctionsdemo.utils.PcmDecoder;
+import com.htc.audiofunctionsdemo.utils.PolyphaseDecimator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The anti-aliased decimation of one 40 ms HD read, to each analysis rate. A read is 40 ms of
+ * audio, so the capture keeps up in real time above 25 ops/s; the real-time factor of one core is
+ * the score divided by 25.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecimatorBenchmark {
+    @Param({"8000", "16000", "44100", "48000"})
+    public int outputRate;
+
+    private byte[] mPcm;
+    private PcmDecoder mDecoder;
+    private PolyphaseDecimator mDecimator;
+    private float[] mInput;
+    private float[] mOutput;
+
+    @Setup
+    public void setUp() {
+        mPcm = AudioFrames.createPcm(AudioFrames.HD);
+        mDecoder = new PcmDecoder(AudioFrames.getBytesPerSample(AudioFrames.HD),
+                AudioFrames.getNumChannels(AudioFrames.HD), 1, AudioFrames.getNormalization(AudioFrames.HD));
+        mDecimator = new PolyphaseDecimator(Constants.AudioRecordConfig.SAMPLING_RATE_HD, outputRate);
+        mInput = AudioFrames.createSignal(AudioFrames.HD);
+        mOutput = new float[mDecimator.getMaxOutput(mInput.length)];
+    }
+
+    @Benchmark
+    public float[] decimate() {
+        mDecimator.process(mInput, 0, mInput.length, mOutput);
+        return mOutput;
+    }
+
+    /**
+     * What MainActivity does with an HD read before its FFT.
+     */
+    @Benchmark
+    public float[] decodeAndDecimate() {
+        int numFrames = mDecoder.decode(mPcm, 0, mPcm.length, 0, mInput);
+        mDecimator.process(mInput, 0, numFrames, mOutput);
+        return mOutput;
+    }
+}
@@ -0,0 +1,65 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.FftEngine;
+import com.htc.audiofunctionsdemo.utils.FftEngines;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The magnitude spectrum of one read of the first channel at its full rate, i.e. 320 samples for
+ * LD and 3840 for HD, in both precisions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FftBenchmark {
+    @Param({AudioFrames.LD, AudioFrames.HD})
+    public String format;
+
+    @Param({"java", "native"})
+    public String engine;
+
+    private FftEngine mEngine;
+    private float[] mSignal;
+    private float[] mSpectrum;
+    private double[] mSignalDouble;
+    private double[] mSpectrumDouble;
+
+    @Setup
+    public void setUp() {
+        mEngine = AudioFrames.createEngine(engine);
+        mSignal = AudioFrames.createSignal(format);
+        mSpectrum = new float[FftEngines.getNumBins(mSignal.length)];
+        mSignalDouble = new double[mSignal.length];
+        for (int i = 0; i < mSignal.length; i++)
+            mSignalDouble[i] = mSignal[i];
+        mSpectrumDouble = new double[mSpectrum.length];
+    }
+
+    @Benchmark
+    public float[] transformAbsFloat() {
+        mEngine.transformAbs(mSignal, mSignal.length, mSpectrum);
+        return mSpectrum;
+    }
+
+    @Benchmark
+    public double[] transformAbsDouble() {
+        mEngine.transformAbs(mSignalDouble, mSignalDouble.length, mSpectrumDouble);
+        return mSpectrumDouble;
+    }
+}
@@ -0,0 +1,112 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.Constants;
+import com.htc.audiofunctionsdemo.utils.FftEngine;
+import com.htc.audiofunctionsdemo.utils.FftEngines;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PCM decoding and normalization of MainActivity.onDataRead: the original Java decoding
+ * (without its FFT) against the current fused decode + spectrum path of each engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OnDataReadBenchmark {
+    @Param({AudioFrames.LD, AudioFrames.HD})
+    public String format;
+
+    @Param({"java", "native"})
+    public String engine;
+
+    private byte[] mPcm;
+    private int mBytesPerSample;
+    private int mNumChannels;
+    private FftEngine mEngine;
+    private float[] mSignal;
+    private float[] mSpectrum;
+
+    @Setup
+    public void setUp() {
+        mPcm = AudioFrames.createPcm(format);
+        mBytesPerSample = AudioFrames.getBytesPerSample(format);
+        mNumChannels = AudioFrames.getNumChannels(format);
+        mEngine = AudioFrames.createEngine(engine);
+    }
+
+    /**
+     * The decoding onDataRead did before the fused path, kept verbatim as the baseline; it does not
+     * depend on the engine.
+     */
+    @Benchmark
+    public double[] legacyDecode() {
+        byte[] data = mPcm;
+        int numChannels = mNumChannels;
+        double[] signal;
+        if (mBytesPerSample == 2) {
+            short[] signal_int16 = new short[data.length / 2];
+            ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(signal_int16);
+            signal = new double[signal_int16.length / numChannels];
+
+            for (int i = 0; i < signal.length; i++) {
+                double v = (double) signal_int16[i*numChannels] / Constants.AudioRecordConfig.NORMALIZATION_FACTOR;
+                signal[i] = v;
+            }
+        } else {
+            int ratio = Constants.AudioRecordConfig.SAMPLING_RATE_HD / Constants.AudioRecordConfig.SAMPLING_RATE;
+            int[] signal_int32 = new int[data.length / 4];
+            ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(signal_int32);
+            signal = new double[signal_int32.length / (numChannels*ratio)];
+
+            for (int i = 0; i < signal.length; i++) {
+                double v = (double) signal_int32[i*numChannels*ratio] / Constants.AudioRecordConfig.NORMALIZATION_FACTOR_HD;
+                signal[i] = v;
+            }
+        }
+        return signal;
+    }
+
+    /**
+     * What onDataRead does now with an LD read, up to updateDataView(). The HD reads are not
+     * decimated by the engine anymore but low-passed first, see DecimatorBenchmark; for them this is
+     * the cost of the former every-n-th-sample path.
+     */
+    @Benchmark
+    public float[] spectrumFromPcm() {
+        int decimation;
+        float normalization;
+        if (mBytesPerSample == 2) {
+            decimation = 1;
+            normalization = Constants.AudioRecordConfig.NORMALIZATION_FACTOR;
+        } else {
+            decimation = Constants.AudioRecordConfig.SAMPLING_RATE_HD / Constants.AudioRecordConfig.SAMPLING_RATE;
+            normalization = Constants.AudioRecordConfig.NORMALIZATION_FACTOR_HD;
+        }
+        // MainActivity keeps the arrays across the reads of a format
+        if (mSignal == null) {
+            mSignal = new float[FftEngines.getNumSamples(mPcm.length, mBytesPerSample, mNumChannels, decimation)];
+            mSpectrum = new float[FftEngines.getNumBins(mSignal.length)];
+        }
+        mEngine.spectrumFromPcm(mPcm, mPcm.length, mBytesPerSample, mNumChannels, decimation, normalization,
+                FftEngine.WINDOW_NONE, mSignal, mSpectrum);
+        return mSpectrum;
+    }
+}
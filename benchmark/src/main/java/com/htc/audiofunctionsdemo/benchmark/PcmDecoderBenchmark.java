@@ -0,0 +1,75 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.PcmDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PcmDecoder on whole reads, at the full rate. All the outputs are allocated once in setUp(), so
+ * the gc.alloc.rate.norm of the gc profiler must stay at ~0 B/op for every benchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PcmDecoderBenchmark {
+    @Param({AudioFrames.LD, AudioFrames.HD})
+    public String format;
+
+    private byte[] mPcm;
+    private PcmDecoder mDecoder;
+    private float[] mLeft;
+    private float[] mRight;
+    private double[] mMono;
+
+    @Setup
+    public void setUp() {
+        mPcm = AudioFrames.createPcm(format);
+        mDecoder = new PcmDecoder(AudioFrames.getBytesPerSample(format), AudioFrames.getNumChannels(format), 1,
+                AudioFrames.getNormalization(format));
+        int numSamples = mDecoder.getNumSamples(mPcm.length);
+        mLeft = new float[numSamples];
+        mRight = new float[numSamples];
+        mMono = new double[numSamples];
+    }
+
+    @Benchmark
+    public float[] firstChannelFloat() {
+        mDecoder.decode(mPcm, 0, mPcm.length, 0, mLeft);
+        return mLeft;
+    }
+
+    @Benchmark
+    public double[] mixDouble() {
+        mDecoder.decode(mPcm, 0, mPcm.length, PcmDecoder.CHANNEL_MIX, mMono);
+        return mMono;
+    }
+
+    /**
+     * The mono LD capture has no second channel, so its first one is decoded twice.
+     */
+    @Benchmark
+    public float[] stereoFloat() {
+        if (mDecoder.getNumChannels() < 2) {
+            mDecoder.decode(mPcm, 0, mPcm.length, 0, mLeft);
+            mDecoder.decode(mPcm, 0, mPcm.length, 0, mRight);
+        } else {
+            mDecoder.decodeStereo(mPcm, 0, mPcm.length, mLeft, mRight);
+        }
+        return mRight;
+    }
+}
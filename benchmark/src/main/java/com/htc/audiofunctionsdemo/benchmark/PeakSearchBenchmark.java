@@ -0,0 +1,69 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.FftEngines;
+import com.htc.audiofunctionsdemo.utils.JavaFftEngine;
+import com.htc.audiofunctionsdemo.utils.PeakFinder;
+import com.htc.audiofunctionsdemo.utils.Windows;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tone search of updateDataView over the whole spectrum of one read, and the refinements of
+ * its frequency beyond the bin.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PeakSearchBenchmark {
+    @Param({AudioFrames.LD, AudioFrames.HD})
+    public String format;
+
+    private float[] mSignal;
+    private float[] mSpectrum;
+    private int mSamplingRate;
+    private double mBinWidth;
+
+    @Setup
+    public void setUp() {
+        mSignal = AudioFrames.createSignal(format);
+        mSpectrum = new float[FftEngines.getNumBins(mSignal.length)];
+        new JavaFftEngine().transformAbs(mSignal, mSignal.length, mSpectrum);
+        mSamplingRate = AudioFrames.getSamplingRate(format);
+        mBinWidth = (double) mSamplingRate / (2 * (mSpectrum.length - 1));
+    }
+
+    @Benchmark
+    public int findPeak() {
+        return PeakFinder.findPeak(mSpectrum, 0, mSpectrum.length - 1);
+    }
+
+    @Benchmark
+    public double findPeakInterpolated() {
+        int peak = PeakFinder.findPeak(mSpectrum, 0, mSpectrum.length - 1);
+        return PeakFinder.interpolate(mSpectrum, peak, PeakFinder.INTERPOLATION_GAUSSIAN) * mBinWidth;
+    }
+
+    /**
+     * What updateDataView does by default.
+     */
+    @Benchmark
+    public double findPeakZoomed() {
+        double frequency = findPeakInterpolated();
+        return PeakFinder.zoom(mSignal, mSignal.length, mSamplingRate, Windows.HANN, frequency, mBinWidth, 17);
+    }
+}
@@ -0,0 +1,169 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.AudioSignalFrameLogger;
+import com.htc.audiofunctionsdemo.utils.Constants;
+import com.htc.audiofunctionsdemo.utils.FftEngines;
+import com.htc.audiofunctionsdemo.utils.FrameStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AudioSignalFrameLogger as onDataRead uses it: the push of the signal and the spectrum of every
+ * read, as floats, and the dump of DUMP_SECONDS worth of reads. pushStreamed is the push while
+ * the frames are streamed to disk, which only waits for the copy of the writer out of the store.
+ * writePerFrame and writeGathered write the samples of a full store, one write per frame or one
+ * gathering write of the whole ring.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignalLoggerBenchmark {
+    private static final int DUMP_SECONDS = 10;
+    private static final int LONG_CAPTURE_SECONDS = 600;
+
+    @Param({AudioFrames.LD, AudioFrames.HD})
+    public String format;
+
+    private AudioSignalFrameLogger mLogger;
+    private float[] mSignal;
+    private float[] mSpectrum;
+    private int mSamplingRate;
+    private File mDumpDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        mLogger = new AudioSignalFrameLogger();
+        mSignal = AudioFrames.createSignal(format);
+        mSpectrum = new float[FftEngines.getNumBins(mSignal.length)];
+        mSamplingRate = AudioFrames.getSamplingRate(format);
+        mDumpDir = File.createTempFile("signal-logger", "");
+        if (!mDumpDir.delete() || !mDumpDir.mkdirs())
+            throw new IOException("cannot create " + mDumpDir);
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(mDumpDir);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Once the logger is full, every push overwrites the oldest frames.
+     */
+    @Benchmark
+    public void push() {
+        mLogger.push("signal", mSamplingRate, mSignal);
+        mLogger.push("spectrum", mSpectrum);
+    }
+
+    @State(Scope.Thread)
+    public static class StreamingLogger {
+        AudioSignalFrameLogger logger;
+
+        @Setup(Level.Iteration)
+        public void start(SignalLoggerBenchmark benchmark) {
+            logger = new AudioSignalFrameLogger();
+            logger.startStreaming(new File(benchmark.mDumpDir, "stream").getAbsolutePath(), 0, 0, false);
+        }
+
+        @TearDown(Level.Iteration)
+        public void stop(SignalLoggerBenchmark benchmark) {
+            logger.stopStreaming();
+            delete(new File(benchmark.mDumpDir, "stream"));
+        }
+    }
+
+    @Benchmark
+    public void pushStreamed(StreamingLogger streaming) {
+        streaming.logger.push("signal", mSamplingRate, mSignal);
+        streaming.logger.push("spectrum", mSpectrum);
+    }
+
+    @State(Scope.Thread)
+    public static class FilledLogger {
+        AudioSignalFrameLogger logger;
+
+        @Setup(Level.Invocation)
+        public void fill(SignalLoggerBenchmark benchmark) {
+            logger = new AudioSignalFrameLogger();
+            int reads = DUMP_SECONDS * 1000 / Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS;
+            for (int i = 0; i < reads; i++) {
+                logger.push("signal", benchmark.mSamplingRate, benchmark.mSignal);
+                logger.push("spectrum", benchmark.mSpectrum);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FullStore {
+        FrameStore store;
+
+        @Setup(Level.Trial)
+        public void fill(SignalLoggerBenchmark benchmark) {
+            // only the last SIGNAL_LOG_CAPACITY_BYTES of it are kept
+            AudioSignalFrameLogger logger = new AudioSignalFrameLogger();
+            int reads = LONG_CAPTURE_SECONDS * 1000 / Constants.AudioRecordConfig.BUFFER_SIZE_MILLIS;
+            for (int i = 0; i < reads; i++) {
+                logger.push("signal", benchmark.mSamplingRate, benchmark.mSignal);
+                logger.push("spectrum", benchmark.mSpectrum);
+            }
+            store = logger.getStore();
+        }
+    }
+
+    @Benchmark
+    public void writePerFrame(FullStore full) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(mDumpDir, "frames.bin"));
+        try {
+            FileChannel channel = out.getChannel();
+            for (int i = 0; i < full.store.getFrameCount(); i++)
+                full.store.writeValues(i, channel);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public long writeGathered(FullStore full) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(mDumpDir, "frames.bin"));
+        try {
+            return full.store.writeFrames(0, full.store.getFrameCount(), out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public void dumpTo(FilledLogger filled) {
+        filled.logger.dumpTo(mDumpDir.getAbsolutePath());
+    }
+}
@@ -0,0 +1,74 @@
+package com.htc.audiofunctionsdemo.benchmark;
+
+import com.htc.audiofunctionsdemo.utils.FftEngines;
+import com.htc.audiofunctionsdemo.utils.JavaFftEngine;
+import com.htc.audiofunctionsdemo.utils.PeakFinder;
+import com.htc.audiofunctionsdemo.utils.ToneTracker;
+import com.htc.audiofunctionsdemo.utils.Windows;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a few known tones in one 8 kHz read: the Goertzel filters of the tone tracker against
+ * the FFT and the peak search over the whole spectrum that updateDataView does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ToneTrackerBenchmark {
+    @Param({"1", "4", "16"})
+    public int numTones;
+
+    private float[] mSignal;
+    private float[] mFrame;
+    private float[] mSpectrum;
+    private JavaFftEngine mEngine;
+    private ToneTracker mTracker;
+    private float mLastAmplitude;
+    private final ToneTracker.FrameListener mListener = new ToneTracker.FrameListener() {
+        @Override
+        public void onFrame(float[] frame, float[] amplitudes, float[] phases, long index) {
+            mLastAmplitude = amplitudes[0];
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mSignal = AudioFrames.createSignal(AudioFrames.LD);
+        mFrame = new float[mSignal.length];
+        mSpectrum = new float[FftEngines.getNumBins(mSignal.length)];
+        mEngine = new JavaFftEngine();
+        float[] frequencies = new float[numTones];
+        for (int t = 0; t < numTones; t++)
+            frequencies[t] = 440 + 200 * t;
+        mTracker = new ToneTracker(AudioFrames.getSamplingRate(AudioFrames.LD), frequencies, mSignal.length, Windows.HANN);
+    }
+
+    @Benchmark
+    public float trackTones() {
+        mTracker.process(mSignal, 0, mSignal.length, mListener);
+        return mLastAmplitude;
+    }
+
+    @Benchmark
+    public int spectrumPeak() {
+        System.arraycopy(mSignal, 0, mFrame, 0, mSignal.length);
+        mEngine.transformAbs(mFrame, mFrame.length, mSpectrum);
+        return PeakFinder.findPeak(mSpectrum, 0, mSpectrum.length - 1);
+    }
+}
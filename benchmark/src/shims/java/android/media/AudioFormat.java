@@ -0,0 +1,14 @@
+package android.media;
+
+/**
+ * The constants of the framework AudioFormat referenced by Constants, with their framework values.
+ */
+public final class AudioFormat {
+    public static final int ENCODING_PCM_16BIT = 2;
+    public static final int CHANNEL_IN_MONO = 0x10;
+    public static final int CHANNEL_IN_STEREO = 0x0c;
+    public static final int CHANNEL_OUT_STEREO = 0x0c;
+
+    private AudioFormat() {
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * A shim of the framework environment for the host JVM: the "external storage" is the temporary
+ * directory.
+ */
+public final class Environment {
+    private Environment() {
+    }
+
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
@@ -0,0 +1,29 @@
+package android.util;
+
+/**
+ * A shim of the framework logger for the host JVM, which drops everything below a warning.
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) { return 0; }
+    public static int d(String tag, String msg) { return 0; }
+    public static int i(String tag, String msg) { return 0; }
+
+    public static int w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println("E/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println("E/" + tag + ": " + msg);
+        tr.printStackTrace();
+        return 0;
+    }
+}
@@ -1,7 +1,7 @@
 import os
 import sys
+import glob
 import json
-import struct
 import datetime
 import platform
 
@@ -16,6 +16,7 @@ else:
 
 VERSION = "1.0.0"
 INFO_FILE = "info.json"
+INDEX_FILE = "index.bin"
 BIN_FILE = "stream.bin"
 CONFIG_FILE = "parse_config.json"
 
@@ -41,14 +42,104 @@ PARSE_CONFIG_STR = [
 NHEADER_LINES = len(PARSE_CONFIG_STR)
 PARSE_CONFIG_STR = "\n".join(PARSE_CONFIG_STR)
 
+# the numpy type and the size of the samples of each format
+SAMPLE_FORMATS = {
+    "float64": ("f8", 8),
+    "float32": ("f4", 4),
+    "int16": ("i2", 2),
+    "int24in32": ("i4", 4),
+}
+
+# index.bin: a header of 4 int32 (magic, version, record size, reserved), then a record per frame
+INDEX_MAGIC = 0x58494641
+INDEX_HEADER_SIZE = 16
+INDEX_FORMATS = ["float64", "float32", "int16", "int24in32"]
+
+def index_dtype(record_size):
+    return np.dtype({
+        "names": ["name", "fs", "format", "scale", "datasize", "offset", "monotonic", "timestamp"],
+        "formats": ["S16", "<i4", "u1", "<f4", "<i4", "<i8", "<i8", "<i8"],
+        "offsets": [0, 16, 20, 24, 28, 32, 40, 48],
+        "itemsize": record_size})
+
+def read_index(path):
+    with open(path, "rb") as f:
+        data = f.read()
+    magic, version, record_size, _ = np.frombuffer(data[:INDEX_HEADER_SIZE], dtype="<i4")
+    if magic != INDEX_MAGIC:
+        raise ValueError("{} is not a frame index".format(path))
+    # a record cut short by an interrupted stream is left out
+    count = (len(data) - INDEX_HEADER_SIZE) // record_size
+    return np.frombuffer(data, dtype=index_dtype(record_size), count=count, offset=INDEX_HEADER_SIZE)
+
+class FixedOffset(datetime.tzinfo):
+    def __init__(self, hours):
+        self.offset = datetime.timedelta(hours=hours)
+        self.name = "UTC{:+d}".format(hours)
+
+    def utcoffset(self, dt):
+        return self.offset
+
+    def dst(self, dt):
+        return datetime.timedelta(0)
+
+    def tzname(self, dt):
+        return self.name
+
+# the zone of the createAt of the frames, whatever the zone of the device
+TIME_ZONE = FixedOffset(8)
+
+def to_time(timestr):
+    # the label, "(UTC+8)" or the "(UTF+8)" of the older dumps, always stands for TIME_ZONE
+    ss = timestr.split()
+    return datetime.datetime.strptime(ss[0] + " " + ss[1] + "000", "%Y-%m-%d %H:%M:%S.%f")
+
 class AudioSignalFrame(object):
     def __init__(self, info):
         self.name = info["name"]
         self.fs = info["fs"]
-        self.datasize = info["datasize-in-double"]
         self.create_at = info["createAt"]
+        # in seconds, only compared between the frames of a dump
+        self.time = (to_time(self.create_at) - datetime.datetime(1970, 1, 1)).total_seconds()
+        self.offset = None
+        if "format" in info:
+            self.datasize = info["datasize"]
+            self.format = info["format"]
+            self.byteorder = "<" if info["byteorder"] == "little" else ">"
+            self.scale = info["scale"]
+        else:
+            # the older dumps only hold normalized big-endian doubles
+            self.datasize = info["datasize-in-double"]
+            self.format = "float64"
+            self.byteorder = ">"
+            self.scale = 1.0
         self.data = None
 
+    @classmethod
+    def from_record(cls, record):
+        frame = cls.__new__(cls)
+        frame.name = record["name"].rstrip(b"\0").decode("ascii")
+        frame.fs = int(record["fs"])
+        created = datetime.datetime.fromtimestamp(record["timestamp"] / 1000.0, TIME_ZONE)
+        frame.create_at = created.strftime("%Y-%m-%d %H:%M:%S.%f")[:-3] + " (" + TIME_ZONE.name + ")"
+        # the monotonic clock, which the wall clock may jump across
+        frame.time = record["monotonic"] / 1e9
+        frame.offset = int(record["offset"])
+        frame.datasize = int(record["datasize"])
+        frame.format = INDEX_FORMATS[record["format"]]
+        frame.byteorder = "<"
+        frame.scale = float(record["scale"])
+        frame.data = None
+        return frame
+
+    def read(self, f):
+        if self.offset is not None:
+            f.seek(self.offset)
+        dtype, width = SAMPLE_FORMATS[self.format]
+        raw = np.frombuffer(f.read(self.datasize*width), dtype=np.dtype(self.byteorder + dtype))
+        # the samples are stored as captured, and normalized here
+        self.data = raw.astype(np.float64) / self.scale
+
 def main(dir_name):
     if dir_name.endswith(SEP):
         dir_name = dir_name[:-1]
@@ -68,17 +159,26 @@ def main(dir_name):
         force_update = True
         parse_config["version"] = VERSION
 
-    with open("{}{}{}".format(dir_name, SEP, INFO_FILE), "r") as f:
-        info = json.load(f)
-        frames = map(AudioSignalFrame, info)
+    index_path = "{}{}{}".format(dir_name, SEP, INDEX_FILE)
+    if os.path.exists(index_path):
+        frames = map(AudioSignalFrame.from_record, read_index(index_path))
+    else:
+        # the dumps older than index.bin, or with info.json only
+        with open("{}{}{}".format(dir_name, SEP, INFO_FILE), "r") as f:
+            text = f.read()
+            try:
+                info = json.loads(text)
+            except ValueError:
+                # the last part of a stream that was not stopped is not closed
+                info = json.loads(text.rstrip().rstrip(",") + "]")
+            frames = map(AudioSignalFrame, info)
 
-    with open("{}{}{}".format(dir_name, SEP, INFO_FILE), "w") as f:
-        f.write(json.dumps(info, indent=4) + "\n")
+        with open("{}{}{}".format(dir_name, SEP, INFO_FILE), "w") as f:
+            f.write(json.dumps(info, indent=4) + "\n")
 
     with open("{}{}{}".format(dir_name, SEP, BIN_FILE), "rb") as f:
         for frame in frames:
-            frame.data = f.read(frame.datasize*8)
-            frame.data = list(struct.unpack(">{}d".format(frame.datasize), frame.data))
+            frame.read(f)
 
     first_frame = filter(lambda x: x.name == "signal", frames)[0]
     last_frame = filter(lambda x: x.name == "signal", frames)[-1]
@@ -88,22 +188,16 @@ def main(dir_name):
 
     # Processing the signal packet
     signal_len = sum(map(lambda x: x.datasize, filter(lambda x: x.name == "signal", frames)))
-    recbufsize_ms = np.round(1000.0*signal_len/fs/len(filter(lambda x: x.name == "spectrum", frames)))
+    recbufsize_ms = np.round(1000.0*signal_len/fs/len(filter(lambda x: x.name == "signal", frames)))
 
-    def to_time(timestr):
-        ss = timestr.split()
-        ss[-2] += "000"
-        ss = " ".join(ss)
-        return datetime.datetime.strptime(ss, "%Y-%m-%d %H:%M:%S.%f (UTF+8)")
+    def diff_sec(frame1, frame2):
+        return frame2.time - frame1.time
 
-    def diff_sec(tstr1, tstr2):
-        return (to_time(tstr2) - to_time(tstr1)).total_seconds()
-
-    duration = diff_sec(log_starts_timestamp, log_ends_timestamp) + recbufsize_ms/1000.0
+    duration = diff_sec(first_frame, last_frame) + recbufsize_ms/1000.0
     signal = -10 * np.ones([int(np.ceil(duration*fs)), 1])
 
     for signal_frame in filter(lambda x: x.name == "signal", frames):
-        offset_sec = diff_sec(log_starts_timestamp, signal_frame.create_at)
+        offset_sec = diff_sec(first_frame, signal_frame)
         offset = int(np.round(offset_sec*fs))
         signal[offset:offset+signal_frame.datasize, 0] = np.array(signal_frame.data)
 
@@ -150,65 +244,71 @@ def main(dir_name):
     plt.savefig("{}{}signal.png".format(dir_name, SEP), bbox_inches="tight", pad_inches=0, dpi=300)
     plt.gcf().clear()
 
-    # Processing the spectrogram packet
+    # Processing the spectrogram packet, which the tone tracking mode does not log
     spectrum_frames = filter(lambda x: x.name == "spectrum", frames)
-    first_frame = spectrum_frames[0]
-    last_frame = spectrum_frames[-1]
-    log_starts_timestamp = first_frame.create_at
-    log_ends_timestamp = last_frame.create_at
-
-    num_frames = max([int(np.ceil(duration*1000.0/recbufsize_ms)), len(spectrum_frames)])
-    spectrogram = -10 * np.ones([first_frame.datasize, num_frames+1])
-
-    temp = None
-    offset = 0
-    for spectrum_frame in spectrum_frames:
-        if temp:
-            diff = diff_sec(temp.create_at, spectrum_frame.create_at)
-            offset += int(np.round(diff*1000.0/recbufsize_ms))
-        temp = spectrum_frame
-
-        if spectrogram[0, offset] > -9:
-            offset += 1
-        spectrogram[:, offset] = np.array(spectrum_frame.data)
-
-    spectrogram = spectrogram[:spectrogram.shape[0]/2, :offset+1]
-
-    alpha_mask = np.array(spectrogram)
-    alpha_mask = np.where(alpha_mask < -9, alpha_mask, 0)
-    alpha_mask = np.where(alpha_mask > -9, alpha_mask, 0.4)
-    mask = np.zeros([spectrogram.shape[0], spectrogram.shape[1], 4])
-    mask[:, :, 0] = 1
-    mask[:, :, 3] = alpha_mask
-
-    spectrogram = np.where(spectrogram > -9, spectrogram, 0)
-
-    spectrogram += 1e-32
-    spectrogram = 20 * np.log10(spectrogram)
-
-
-    plt.imshow(spectrogram, vmax=np.max(spectrogram), vmin=np.max(spectrogram)-40, \
-        cmap="gray", origin="lower", interpolation="nearest")
-    plt.colorbar()
-    plt.imshow(mask, origin="lower", interpolation="nearest")
-    ticks = plt.gca().get_yticks()*1.0/spectrogram.shape[0] * fs/2.0
-    ticks = np.array(np.round(ticks), dtype=int)
-    plt.gca().set_yticklabels(ticks)
-    plt.gca().set_ylabel("frequency (Hz)")
-    plt.gca().set_xlabel("frame index ({} ms/frame)".format(recbufsize_ms))
-
-    if "spectrogram" in parse_config.keys() and not force_update:
-        plt.xlim(parse_config["spectrogram"]["xlim"])
-        plt.ylim(np.array(parse_config["spectrogram"]["ylim"]) * 2.0/fs * spectrogram.shape[0])
-    else:
-        parse_config["spectrogram"] = {
-            "xlim": plt.gca().get_xlim(),
-            "ylim": list(np.array(plt.gca().get_ylim())*1.0/spectrogram.shape[0] * fs/2.0)
-        }
-
-    xlim = parse_config["spectrogram"]["xlim"]
-    plt.savefig("{}{}spectrogram.png".format(dir_name, SEP), bbox_inches="tight", pad_inches=0, dpi=300)
-    plt.gcf().clear()
+    if spectrum_frames:
+        first_frame = spectrum_frames[0]
+        last_frame = spectrum_frames[-1]
+        log_starts_timestamp = first_frame.create_at
+        log_ends_timestamp = last_frame.create_at
+
+        num_frames = max([int(np.ceil(duration*1000.0/recbufsize_ms)), len(spectrum_frames)])
+        spectrogram = -10 * np.ones([first_frame.datasize, num_frames+1])
+
+        temp = None
+        offset = 0
+        for spectrum_frame in spectrum_frames:
+            if temp:
+                diff = diff_sec(temp, spectrum_frame)
+                offset += int(np.round(diff*1000.0/recbufsize_ms))
+            temp = spectrum_frame
+
+            if spectrogram[0, offset] > -9:
+                offset += 1
+            spectrogram[:, offset] = np.array(spectrum_frame.data)
+
+        # the full N-point spectrum (power-of-two sized) was dumped by the older versions,
+        # the newer ones only dump the N/2+1 non-redundant bins
+        if first_frame.datasize & (first_frame.datasize - 1) == 0:
+            spectrogram = spectrogram[:spectrogram.shape[0]/2, :offset+1]
+        else:
+            spectrogram = spectrogram[:, :offset+1]
+
+        alpha_mask = np.array(spectrogram)
+        alpha_mask = np.where(alpha_mask < -9, alpha_mask, 0)
+        alpha_mask = np.where(alpha_mask > -9, alpha_mask, 0.4)
+        mask = np.zeros([spectrogram.shape[0], spectrogram.shape[1], 4])
+        mask[:, :, 0] = 1
+        mask[:, :, 3] = alpha_mask
+
+        spectrogram = np.where(spectrogram > -9, spectrogram, 0)
+
+        spectrogram += 1e-32
+        spectrogram = 20 * np.log10(spectrogram)
+
+
+        plt.imshow(spectrogram, vmax=np.max(spectrogram), vmin=np.max(spectrogram)-40, \
+            cmap="gray", origin="lower", interpolation="nearest")
+        plt.colorbar()
+        plt.imshow(mask, origin="lower", interpolation="nearest")
+        ticks = plt.gca().get_yticks()*1.0/spectrogram.shape[0] * fs/2.0
+        ticks = np.array(np.round(ticks), dtype=int)
+        plt.gca().set_yticklabels(ticks)
+        plt.gca().set_ylabel("frequency (Hz)")
+        plt.gca().set_xlabel("frame index ({} ms/frame)".format(recbufsize_ms))
+
+        if "spectrogram" in parse_config.keys() and not force_update:
+            plt.xlim(parse_config["spectrogram"]["xlim"])
+            plt.ylim(np.array(parse_config["spectrogram"]["ylim"]) * 2.0/fs * spectrogram.shape[0])
+        else:
+            parse_config["spectrogram"] = {
+                "xlim": plt.gca().get_xlim(),
+                "ylim": list(np.array(plt.gca().get_ylim())*1.0/spectrogram.shape[0] * fs/2.0)
+            }
+
+        xlim = parse_config["spectrogram"]["xlim"]
+        plt.savefig("{}{}spectrogram.png".format(dir_name, SEP), bbox_inches="tight", pad_inches=0, dpi=300)
+        plt.gcf().clear()
 
     with open("{}{}{}".format(dir_name, SEP, CONFIG_FILE), "w") as f:
         f.write(PARSE_CONFIG_STR.format( \
@@ -216,4 +316,12 @@ def main(dir_name):
         f.write(json.dumps(parse_config, indent=4) + "\n")
 
 if __name__ == "__main__":
-    main(sys.argv[1])
+    dir_name = sys.argv[1]
+    # a streamed record is made of parts, each one laid out as a dump
+    parts = sorted(glob.glob("{}{}part-*".format(dir_name.rstrip(SEP), SEP)))
+    if parts and not os.path.exists("{}{}{}".format(dir_name, SEP, INDEX_FILE)) \
+            and not os.path.exists("{}{}{}".format(dir_name, SEP, INFO_FILE)):
+        for part in parts:
+            main(part)
+    else:
+        main(dir_name)